@@ -0,0 +1,30 @@
+package net.es.sense.sim;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the standard JMH command line options, always
+ * adding the gc profiler so allocation rates are reported with throughput.
+ *
+ * @author hacksaw
+ */
+public class BenchmarkMain {
+
+  /**
+   * Main for the benchmarks, for example "-p networks=10000 PortConfig".
+   *
+   * @param args The JMH command line options.
+   * @throws Exception If the benchmarks could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,77 @@
+package net.es.sense.sim;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.mail.MessagingException;
+import javax.xml.stream.XMLStreamException;
+import net.es.nsi.common.constants.Nsi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes single NSA and NML topology documents as retrieved from the DDS,
+ * separating the streaming NML read from the derivation of port records.
+ * Topologies are sized by their number of edge ports; the document is taken
+ * from the best connected network so it also carries inter-domain ports.
+ *
+ * @author hacksaw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class DecodeBenchmark {
+  @Param({ "4", "64", "512" })
+  private int ports;
+
+  private DdsController dds;
+  private DdsDocument nsa;
+  private DdsDocument topology;
+  private NmlPorts nml;
+  private Date now;
+
+  @Setup
+  public void setup() throws IOException, MessagingException, XMLStreamException {
+    SyntheticFederation federation = Fixtures.federation(100, ports);
+    DdsSnapshot snapshot = federation.generate();
+    dds = new DdsController(snapshot, 1);
+    now = snapshot.getCreated();
+
+    // Network 0 is the oldest and so best connected in a scale-free federation.
+    nsa = snapshot.getDocument(federation.getNsaId(0), Nsi.NSI_DOC_TYPE_NSA_V1, federation.getNsaId(0));
+    topology = snapshot.getDocument(federation.getNsaId(0), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, federation.getNetworkId(0));
+    nml = NmlPorts.read(topology.decode());
+  }
+
+  @Benchmark
+  public NsaMap decodeNsa() throws IOException {
+    return dds.decodeNsa(nsa);
+  }
+
+  @Benchmark
+  public TopologyMap decodeTopology() throws IOException {
+    return dds.decodeTopology(topology.getId(), topology, now);
+  }
+
+  @Benchmark
+  public NmlPorts readNml() throws IOException, MessagingException, XMLStreamException {
+    return NmlPorts.read(topology.decode());
+  }
+
+  @Benchmark
+  public TopologyMap extractPorts() {
+    return PortExtractor.extract(topology.getId(), nml);
+  }
+}
@@ -0,0 +1,108 @@
+package net.es.sense.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.es.nsi.common.constants.Nsi;
+
+/**
+ * Self-contained benchmark fixtures generated from a synthetic federation,
+ * so the benchmarks need neither a DDS nor recorded documents and can be
+ * run at sizes well beyond the real federation.
+ *
+ * @author hacksaw
+ */
+final class Fixtures {
+  // A SENSE-NSI-RM configuration template using the usual placeholders.
+  static final String RM_TEMPLATE = "server:\n"
+          + "  address: {{address}}\n"
+          + "  port: {{sensePort}}\n"
+          + "logging:\n"
+          + "  config: config/sense{{index}}-logback.xml\n"
+          + "  file: logs/sense-rm{{index}}.log\n"
+          + "spring:\n"
+          + "  datasource:\n"
+          + "    url: jdbc:postgresql://localhost:5432/sense{{index}}\n"
+          + "    username: {{dbUser}}\n"
+          + "    password: {{dbPassword}}\n"
+          + "nsi:\n"
+          + "  nsaId: {{networkId}}\n"
+          + "  providerNsaId: {{providerNsaId}}\n"
+          + "  providerConnectionURL: http://localhost:{{nsaPort}}/NSI/services/CS2\n"
+          + "  networkId: {{networkId}}\n";
+
+  static final String LOG_TEMPLATE = "<configuration>\n"
+          + "  <appender class=\"ch.qos.logback.core.FileAppender\">\n"
+          + "    <file>logs/{{filename}}</file>\n"
+          + "  </appender>\n"
+          + "</configuration>\n";
+
+  private Fixtures() {
+  }
+
+  /**
+   * Get a scale-free federation, the structure closest to the real one.
+   *
+   * @param networks The number of networks.
+   * @param ports The number of edge ports in each network.
+   * @return The federation.
+   */
+  static SyntheticFederation federation(int networks, int ports) {
+    return SyntheticFederation.parse("networks=" + networks + ",ports=" + ports
+            + ",vlans=1779-1799,2000-2100,structure=scale-free,degree=2,seed=1");
+  }
+
+  /**
+   * Decode every topology of a federation into port records.
+   *
+   * @param snapshot The generated federation documents.
+   * @return The topologies indexed by network identifier.
+   * @throws IOException If a document could not be decoded.
+   */
+  static Map<String, TopologyMap> topologies(DdsSnapshot snapshot) throws IOException {
+    DdsController dds = new DdsController(snapshot, 1);
+    Map<String, TopologyMap> result = new LinkedHashMap<>();
+    for (DdsDocument document : snapshot.getDocumentsByType(Nsi.NSI_DOC_TYPE_TOPOLOGY_V2)) {
+      result.put(document.getId(), dds.decodeTopology(document.getId(), document, snapshot.getCreated()));
+    }
+    return result;
+  }
+
+  /**
+   * Write a peers configuration file adding a number of peer ports to each
+   * network of a federation.
+   *
+   * @param federation The federation.
+   * @param ports The number of peer ports for each network.
+   * @return The peers file, deleted on exit.
+   * @throws IOException If the file could not be written.
+   */
+  static File peers(SyntheticFederation federation, int ports) throws IOException {
+    File file = File.createTempFile("peers", ".yaml");
+    file.deleteOnExit();
+
+    List<List<Integer>> links = federation.getLinks();
+    try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      writer.println("---");
+      for (int i = 0; i < federation.getNetworks(); i++) {
+        writer.printf("- networkId: \"%s\"%n", federation.getNetworkId(i));
+        writer.println("  port:");
+        for (int p = 0; p < ports; p++) {
+          int peer = links.get(i).get(p % links.get(i).size());
+          writer.println("  - type: \"ethernet\"");
+          writer.printf("    name: \"peer-%d\"%n", p);
+          writer.printf("    remote: \"%s:2020:topology#peer-%d-(in|out)\"%n", federation.getName(peer), p);
+          writer.println("    label: \"vlan:1-4095\"");
+          writer.println("    bandwidth: \"100000\"");
+          writer.printf("    _interface: \"fk%d\"%n", p);
+          writer.println("    attributes: \"-\"");
+        }
+      }
+    }
+    return file;
+  }
+}
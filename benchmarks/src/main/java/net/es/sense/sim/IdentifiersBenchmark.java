@@ -0,0 +1,103 @@
+package net.es.sense.sim;
+
+import java.util.concurrent.TimeUnit;
+import net.es.nsi.common.SimpleStp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Normalizes the identifiers and labels of a batch of ports, the per port
+ * work repeated for every port of every topology.  Each operation is one
+ * identifier, and the batch spans enough networks that memoized results are
+ * reused across networks as they are in a real federation.
+ *
+ * @author hacksaw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class IdentifiersBenchmark {
+  private static final int SIZE = 1024;
+
+  private final String[] networkIds = new String[SIZE];
+  private final String[] portIds = new String[SIZE];
+  private final String[] localIds = new String[SIZE];
+  private final String[] members = new String[SIZE];
+  private final String[] labels = new String[SIZE];
+
+  @Setup
+  public void setup() {
+    SyntheticFederation federation = Fixtures.federation(SIZE / 8, 8);
+    String[] ranges = { "1779-1799", "1779-1799,2000-2100", "100,200-300,4000-4095", "2-4094" };
+    for (int i = 0; i < SIZE; i++) {
+      String name = "port-" + (i % 8 + 1);
+      networkIds[i] = federation.getNetworkId(i / 8);
+      portIds[i] = networkIds[i] + ":" + name;
+      localIds[i] = "star-cr6:" + name + ":+";
+      members[i] = portIds[i] + (i % 2 == 0 ? ":in" : ":out");
+      labels[i] = ranges[i % ranges.length];
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void strip(Blackhole bh) {
+    for (String id : localIds) {
+      bh.consume(Identifiers.strip(id));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void stripNetworkUrn(Blackhole bh) {
+    for (String id : networkIds) {
+      bh.consume(ConfigWriter.strip_networkUrn(id));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void stripNetworkLocal(Blackhole bh) {
+    int length = SimpleStp.NSI_NETWORK_URN_PREFIX.length();
+    for (String id : networkIds) {
+      bh.consume(Identifiers.stripNetworkLocal(id.substring(length)));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseStp(Blackhole bh) {
+    for (String id : portIds) {
+      bh.consume(Identifiers.parseStp(id));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void stripDirection(Blackhole bh) {
+    for (String id : members) {
+      bh.consume(Identifiers.stripDirection(id));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parseVlans(Blackhole bh) {
+    for (String label : labels) {
+      bh.consume(VlanSet.parse(label));
+    }
+  }
+}
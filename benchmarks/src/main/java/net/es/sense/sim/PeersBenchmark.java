@@ -0,0 +1,49 @@
+package net.es.sense.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads a peers configuration file holding additional ports for every
+ * network of a federation.
+ *
+ * @author hacksaw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class PeersBenchmark {
+  @Param({ "100", "1000" })
+  private int networks;
+
+  @Param({ "4" })
+  private int ports;
+
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Fixtures.peers(Fixtures.federation(networks, 0), ports);
+  }
+
+  @Benchmark
+  public Map<String, Peer> getPeers() throws IOException {
+    return Peers.getPeers(file.getPath());
+  }
+}
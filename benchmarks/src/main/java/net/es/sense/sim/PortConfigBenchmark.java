@@ -0,0 +1,51 @@
+package net.es.sense.sim;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves the isAlias links between all topologies of a federation and
+ * builds the network adjacency graph, the single threaded step between
+ * decoding and writing the instance files.
+ *
+ * @author hacksaw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class PortConfigBenchmark {
+  @Param({ "100", "1000", "10000" })
+  private int networks;
+
+  @Param({ "4" })
+  private int ports;
+
+  private ConfigWriter writer;
+  private Map<String, TopologyMap> topologies;
+
+  @Setup
+  public void setup() throws IOException {
+    writer = ConfigWriter.builder().sink(new MemorySink()).build();
+    topologies = Fixtures.topologies(Fixtures.federation(networks, ports).generate());
+  }
+
+  @Benchmark
+  public PortTable getPortConfig() {
+    return writer.getPortConfig(topologies.values(), new NetworkGraph());
+  }
+}
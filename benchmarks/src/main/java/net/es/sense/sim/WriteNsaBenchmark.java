@@ -0,0 +1,79 @@
+package net.es.sense.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the OpenNSA port configuration, OpenNSA and SENSE-NSI-RM
+ * configuration, and log configuration of a single instance into memory.
+ * Each operation renders the next network of the federation in turn so the
+ * port table lookups cover the whole federation.
+ *
+ * @author hacksaw
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class WriteNsaBenchmark {
+  @Param({ "1000" })
+  private int networks;
+
+  @Param({ "4", "64" })
+  private int ports;
+
+  private ConfigWriter writer;
+  private Template rmTemplate;
+  private Template logTemplate;
+  private PortTable portConfig;
+  private Map<String, Peer> peers;
+  private final List<String> networkIds = new ArrayList<>();
+  private final List<String> nsaIds = new ArrayList<>();
+  private int next = 0;
+
+  @Setup
+  public void setup() throws IOException {
+    writer = ConfigWriter.builder()
+            .sink(new MemorySink())
+            .address("localhost")
+            .userId("sense")
+            .password("sense")
+            .build();
+    rmTemplate = Template.compile(Fixtures.RM_TEMPLATE);
+    logTemplate = Template.compile(Fixtures.LOG_TEMPLATE);
+
+    SyntheticFederation federation = Fixtures.federation(networks, ports);
+    portConfig = writer.getPortConfig(Fixtures.topologies(federation.generate()).values(), new NetworkGraph());
+    peers = Collections.emptyMap();
+    for (int i = 0; i < networks; i++) {
+      networkIds.add(federation.getNetworkId(i));
+      nsaIds.add(federation.getNsaId(i));
+    }
+  }
+
+  @Benchmark
+  public Optional<Provider> writeNSA() {
+    int index = next;
+    next = (next + 1) % networkIds.size();
+    return writer.writeNSA(rmTemplate, logTemplate, nsaIds.get(index), networkIds.get(index),
+            portConfig, index, peers, null);
+  }
+}
@@ -0,0 +1,266 @@
+package net.es.sense.sim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.extern.slf4j.Slf4j;
+import net.es.nsi.common.SimpleStp;
+import net.es.nsi.common.jaxb.nsa.NsaType;
+
+/**
+ * Synthesizes a larger federation from the real one by cloning every NSA and
+ * topology K times under derived network URNs, so the scaling limits of the
+ * simulation can be found with structurally realistic topologies.
+ *
+ * Clone c of a URN inserts "c<c>." in front of its domain, so
+ * urn:ogf:network:es.net:2013: becomes urn:ogf:network:c1.es.net:2013: and
+ * every port, isAlias and OpenNSA name derived from it changes with it.
+ * Clone 0 keeps the original URNs.  The decoded topologies are never
+ * modified so they can be amplified again after a DDS change.
+ *
+ * Each inter-domain link is rewired between clones so that clone c of the
+ * lower named network links to clone c+1 of the other, keeping every port's
+ * degree.  As this alone cannot connect the clones of a tree shaped part of
+ * the federation, the clones of the most connected network of each
+ * connected group of networks are also chained together with synthesized
+ * bridge ports.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class Amplifier {
+  // The name prefix and bandwidth of synthesized bridge ports.
+  private static final String BRIDGE = "amplify-";
+  private static final long BRIDGE_BANDWIDTH = 100000;
+
+  private final int factor;
+
+  /**
+   * Create an amplifier.
+   *
+   * @param factor The number of copies of the federation to generate, 1 to
+   *    leave it unchanged.
+   */
+  public Amplifier(int factor) {
+    this.factor = factor < 1 ? 1 : factor;
+  }
+
+  /**
+   * Get the URN of a network, port, or NSA in a clone.
+   *
+   * @param urn The original URN.
+   * @param clone The clone number.
+   * @return The cloned URN.
+   */
+  public static String clone(String urn, int clone) {
+    if (clone == 0 || urn == null || !urn.startsWith(SimpleStp.NSI_NETWORK_URN_PREFIX)) {
+      return urn;
+    }
+
+    int length = SimpleStp.NSI_NETWORK_URN_PREFIX.length();
+    return Identifiers.intern(urn.substring(0, length) + "c" + clone + "." + urn.substring(length));
+  }
+
+  /**
+   * Clone the NSA documents.
+   *
+   * @param nsaMap The NSA documents indexed by NSA identifier.
+   * @return The original and cloned NSA documents indexed by NSA identifier.
+   */
+  public Map<String, NsaMap> amplifyNsas(Map<String, NsaMap> nsaMap) {
+    Map<String, NsaMap> result = new HashMap<>(nsaMap);
+    for (int c = 1; c < factor; c++) {
+      for (NsaMap nsa : nsaMap.values()) {
+        NsaType document = new NsaType();
+        document.setId(clone(nsa.getDocument().getId(), c));
+        for (String networkId : nsa.getDocument().getNetworkId()) {
+          document.getNetworkId().add(clone(networkId, c));
+        }
+
+        NsaMap copy = new NsaMap();
+        copy.setNsaId(clone(nsa.getNsaId(), c));
+        copy.setDocument(document);
+        result.put(copy.getNsaId(), copy);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Clone the topologies and rewire the links between them.
+   *
+   * @param topologyMap The topologies indexed by topology identifier.
+   * @return The original and cloned topologies indexed by topology identifier.
+   */
+  public Map<String, TopologyMap> amplifyTopologies(Map<String, TopologyMap> topologyMap) {
+    if (factor == 1) {
+      return topologyMap;
+    }
+
+    // Index every unidirectional member so we know which topology each
+    // isAlias refers to.
+    Map<String, TopologyMap> owners = new HashMap<>();
+    for (TopologyMap topology : topologyMap.values()) {
+      topology.getMembers().keySet().forEach(member -> owners.put(member, topology));
+    }
+
+    // Find the most connected network of each connected group of networks
+    // so its clones can be chained together.
+    List<String> hubs = getHubs(topologyMap.values(), owners);
+
+    Map<String, TopologyMap> result = new HashMap<>();
+    for (TopologyMap topology : topologyMap.values()) {
+      for (int c = 0; c < factor; c++) {
+        TopologyMap copy = cloneTopology(topology, c, owners);
+        result.put(copy.getId(), copy);
+      }
+    }
+
+    // Chain the clones of each hub together with a bridge port pair.
+    for (String hub : hubs) {
+      for (int c = 1; c < factor; c++) {
+        bridge(result.get(clone(hub, c - 1)), result.get(clone(hub, c)), c);
+      }
+    }
+
+    log.info("Amplified {} topologies to {}, {} hubs bridged", topologyMap.size(), result.size(), hubs.size());
+    return result;
+  }
+
+  /**
+   * Clone a topology, rewiring each isAlias to the clone of the remote
+   * topology it is linked to.
+   */
+  private TopologyMap cloneTopology(TopologyMap topology, int c, Map<String, TopologyMap> owners) {
+    List<PortMap> ports = new ArrayList<>(topology.getPorts().size() + 2);
+    Map<PortMap, PortMap> copies = new IdentityHashMap<>();
+    for (PortMap pm : topology.getPorts()) {
+      PortMap copy = new PortMap();
+      copy.setType(pm.getType());
+      copy.setNetworkId(clone(pm.getNetworkId(), c));
+      copy.setNetworkLabel(pm.getNetworkLabel());
+      copy.setPortId(clone(pm.getPortId(), c));
+      copy.setPortName(pm.getPortName());
+      copy.setVlans(pm.getVlans());
+      copy.setBandwidth(pm.getBandwidth());
+      copy.setInter(pm.getInter());
+
+      if (pm.getIsAlias() != null) {
+        TopologyMap remote = owners.get(pm.getIsAlias());
+        copy.setIsAlias(clone(pm.getIsAlias(), remote == null ? c : remoteClone(topology, remote, c)));
+      }
+
+      ports.add(copy);
+      copies.put(pm, copy);
+    }
+
+    Map<String, PortMap> members = new LinkedHashMap<>();
+    topology.getMembers().forEach((member, pm) -> members.put(clone(member, c), copies.get(pm)));
+
+    TopologyMap copy = new TopologyMap();
+    copy.setNetworkId(clone(topology.getNetworkId(), c));
+    copy.setId(clone(topology.getId(), c));
+    copy.setPorts(ports);
+    copy.setMembers(members);
+    return copy;
+  }
+
+  /**
+   * Get the clone of a remote topology that clone c of a topology links to.
+   * Links are shifted by one clone from the lower named topology, and back
+   * by one from the other, so both ends of each link agree.
+   */
+  private int remoteClone(TopologyMap local, TopologyMap remote, int c) {
+    int order = local.getId().compareTo(remote.getId());
+    if (order == 0) {
+      return c;
+    }
+    return Math.floorMod(order < 0 ? c + 1 : c - 1, factor);
+  }
+
+  /**
+   * Add a bridge port pair linking two clones of the same topology.
+   */
+  private static void bridge(TopologyMap from, TopologyMap to, int c) {
+    PortMap a = addBridgePort(from, BRIDGE + "next-" + c);
+    PortMap b = addBridgePort(to, BRIDGE + "prev-" + c);
+    a.setIsAlias(b.getPortId() + ":out");
+    b.setIsAlias(a.getPortId() + ":out");
+  }
+
+  private static PortMap addBridgePort(TopologyMap topology, String name) {
+    PortMap template = topology.getPorts().get(0);
+
+    PortMap pm = new PortMap();
+    pm.setType(template.getType());
+    pm.setNetworkId(template.getNetworkId());
+    pm.setNetworkLabel(template.getNetworkLabel());
+    pm.setPortId(template.getNetworkId() + ":" + name);
+    pm.setPortName(name);
+    pm.setVlans(VlanSet.ALL);
+    pm.setBandwidth(BRIDGE_BANDWIDTH);
+    pm.setInter("em" + topology.getPorts().size());
+
+    topology.getPorts().add(pm);
+    topology.getMembers().put(pm.getPortId() + ":in", pm);
+    topology.getMembers().put(pm.getPortId() + ":out", pm);
+    return pm;
+  }
+
+  /**
+   * Find the most connected topology of each group of topologies connected
+   * by isAlias links, ignoring isolated topologies.
+   *
+   * @return The identifiers of the hub topologies.
+   */
+  private static List<String> getHubs(Iterable<TopologyMap> topologies, Map<String, TopologyMap> owners) {
+    // Union find over topology identifiers, in name order for determinism.
+    Map<String, String> parent = new TreeMap<>();
+    Map<String, Integer> degree = new TreeMap<>();
+    for (TopologyMap topology : topologies) {
+      if (topology.getPorts().isEmpty()) {
+        continue;
+      }
+      parent.putIfAbsent(topology.getId(), topology.getId());
+      degree.putIfAbsent(topology.getId(), 0);
+      for (PortMap pm : topology.getPorts()) {
+        TopologyMap remote = pm.getIsAlias() == null ? null : owners.get(pm.getIsAlias());
+        if (remote != null && remote != topology && !remote.getPorts().isEmpty()) {
+          parent.putIfAbsent(remote.getId(), remote.getId());
+          parent.put(find(parent, topology.getId()), find(parent, remote.getId()));
+          degree.merge(topology.getId(), 1, Integer::sum);
+        }
+      }
+    }
+
+    Map<String, String> hubs = new TreeMap<>();
+    for (Map.Entry<String, Integer> entry : degree.entrySet()) {
+      if (entry.getValue() == 0) {
+        continue;
+      }
+      String root = find(parent, entry.getKey());
+      String hub = hubs.get(root);
+      if (hub == null || entry.getValue() > degree.get(hub)) {
+        hubs.put(root, entry.getKey());
+      }
+    }
+    return new ArrayList<>(hubs.values());
+  }
+
+  private static String find(Map<String, String> parent, String id) {
+    String root = id;
+    while (!root.equals(parent.get(root))) {
+      root = parent.get(root);
+    }
+    while (!id.equals(root)) {
+      String next = parent.get(id);
+      parent.put(id, root);
+      id = next;
+    }
+    return root;
+  }
+}
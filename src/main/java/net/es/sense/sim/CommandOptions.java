@@ -1,5 +1,8 @@
 package net.es.sense.sim;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -31,6 +34,27 @@ public class CommandOptions {
   public static final String OUT = "out";
   public static final String ADDRESS = "addr";
   public static final String PEERS = "peers";
+  public static final String THREADS = "threads";
+  public static final String SNAPSHOT_IN = "snapshot-in";
+  public static final String SNAPSHOT_OUT = "snapshot-out";
+  public static final String CACHE = "cache";
+  public static final String PORT_CACHE = "port-cache";
+  public static final String WATCH = "watch";
+  public static final String CALLBACK = "callback";
+  public static final String RELAY = "relay";
+  public static final String TAR = "tar";
+  public static final String CHANGED = "changed";
+  public static final String REGISTRY = "registry";
+  public static final String PRUNE = "prune";
+  public static final String SEED = "seed";
+  public static final String HOPS = "hops";
+  public static final String AMPLIFY = "amplify";
+  public static final String SYNTHETIC = "synthetic";
+  public static final String REPORT = "report";
+  public static final String NSA_PORTS = "nsa-ports";
+  public static final String SENSE_PORTS = "sense-ports";
+  public static final String EXCLUDE_PORTS = "exclude-ports";
+  public static final String PROBE_PORTS = "probe-ports";
 
   private CommandLine clp;
   private final Options commandOptions;
@@ -55,6 +79,84 @@ public class CommandOptions {
       log.error("Error: You did not provide the correct arguments.");
       throw new IllegalArgumentException("Error: Invlaid arguments.");
     }
+
+    // We need either a DDS or a snapshot to replay.
+    if (!clp.hasOption(DDS) && !clp.hasOption(SNAPSHOT_IN) && !clp.hasOption(SYNTHETIC)) {
+      log.error("Error: You must provide either -{}, -{}, or -{}.", DDS, SNAPSHOT_IN, SYNTHETIC);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // The synthetic federation description is parsed now so we fail before
+    // doing any work.
+    try {
+      getSynthetic();
+    } catch (IllegalArgumentException ex) {
+      log.error("Error: Invalid -{}: {}.", SYNTHETIC, ex.getMessage());
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // The port ranges are also parsed now so we fail before doing any work.
+    try {
+      getPortAllocator();
+    } catch (IllegalArgumentException ex) {
+      log.error("Error: Invalid port range: {}.", ex.getMessage());
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // Watching for changes requires a DDS.
+    if (clp.hasOption(WATCH) && !clp.hasOption(DDS)) {
+      log.error("Error: You must provide -{} when using -{}.", DDS, WATCH);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // A synthetic federation never changes so there is nothing to watch.
+    if (clp.hasOption(WATCH) && clp.hasOption(SYNTHETIC)) {
+      log.error("Error: You cannot use -{} with -{}.", SYNTHETIC, WATCH);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // An archive cannot be updated so is not supported when watching.
+    if (clp.hasOption(WATCH) && clp.hasOption(TAR)) {
+      log.error("Error: You cannot use -{} with -{}.", TAR, WATCH);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // Standard output can only carry one of the archive or the change report.
+    if (TarSink.STDOUT.equals(clp.getOptionValue(TAR)) && clp.hasOption(CHANGED)
+            && getChanged().equals(TarSink.STDOUT)) {
+      log.error("Error: -{} and -{} cannot both write to stdout.", TAR, CHANGED);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    if (clp.hasOption(PRUNE) && !NetworkGraph.COMPONENT.equalsIgnoreCase(getPrune())
+            && !NetworkGraph.LINKED.equalsIgnoreCase(getPrune())) {
+      log.error("Error: -{} must be {} or {}.", PRUNE, NetworkGraph.COMPONENT, NetworkGraph.LINKED);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // A neighbourhood needs networks to start from.
+    if (clp.hasOption(HOPS) && getSeeds() == null) {
+      log.error("Error: You must provide -{} when using -{}.", SEED, HOPS);
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
+
+    // Validate any numeric options now so we fail before doing any work.
+    try {
+      getThreads();
+      getWatch();
+      getRelay();
+      if (getHops() < 0) {
+        log.error("Error: -{} cannot be negative.", HOPS);
+        throw new IllegalArgumentException("Error: Invlaid arguments.");
+      }
+      if (getAmplify() < 1) {
+        log.error("Error: -{} must be at least 1.", AMPLIFY);
+        throw new IllegalArgumentException("Error: Invlaid arguments.");
+      }
+    } catch (NumberFormatException ex) {
+      log.error("Error: Invalid numeric argument {}.", ex.getMessage());
+      throw new IllegalArgumentException("Error: Invlaid arguments.");
+    }
   }
 
   /**
@@ -67,7 +169,7 @@ public class CommandOptions {
     Options options = new Options();
 
     Option ddsServer = new Option(DDS, true, "DDS server URL.");
-    ddsServer.setRequired(true);
+    ddsServer.setOptionalArg(true);
     options.addOption(ddsServer);
 
     Option user = new Option(USER, true, "Database user identifier for use by SENSE and OpenNSA.");
@@ -102,6 +204,89 @@ public class CommandOptions {
     rm.setOptionalArg(true);
     options.addOption(peers);
 
+    Option threads = new Option(THREADS, true, "Number of worker threads used to fetch and decode DDS documents and write instance files.");
+    threads.setOptionalArg(true);
+    options.addOption(threads);
+
+    Option snapshotIn = new Option(SNAPSHOT_IN, true, "Replay DDS documents from a snapshot file instead of the DDS.");
+    snapshotIn.setOptionalArg(true);
+    options.addOption(snapshotIn);
+
+    Option snapshotOut = new Option(SNAPSHOT_OUT, true, "Record the retrieved DDS documents to a snapshot file.");
+    snapshotOut.setOptionalArg(true);
+    options.addOption(snapshotOut);
+
+    Option cache = new Option(CACHE, true, "Local DDS document cache used to only retrieve new or changed documents.");
+    cache.setOptionalArg(true);
+    options.addOption(cache);
+
+    Option portCache = new Option(PORT_CACHE, true, "Local cache of the ports derived from each topology used to only parse new or changed topologies.");
+    portCache.setOptionalArg(true);
+    options.addOption(portCache);
+
+    Option watch = new Option(WATCH, true, "Keep running and regenerate changed files on DDS notifications received on this port.");
+    watch.setOptionalArg(true);
+    options.addOption(watch);
+
+    Option callback = new Option(CALLBACK, true, "URL the DDS uses to deliver notifications when watching.");
+    callback.setOptionalArg(true);
+    options.addOption(callback);
+
+    Option relay = new Option(RELAY, true, "Serve the DDS documents to the simulated instances from a local relay on this port.");
+    relay.setOptionalArg(true);
+    options.addOption(relay);
+
+    Option tar = new Option(TAR, true, "Write the generated files to a tar.gz archive instead of -out, use - for stdout.");
+    tar.setOptionalArg(true);
+    options.addOption(tar);
+
+    Option changed = new Option(CHANGED, true, "Write the indexes of instances whose files changed to this file, stdout if not specified.");
+    changed.setOptionalArg(true);
+    options.addOption(changed);
+
+    Option registry = new Option(REGISTRY, true, "File recording the instance index of each network across runs, kept in -out if not specified.");
+    registry.setOptionalArg(true);
+    options.addOption(registry);
+
+    Option prune = new Option(PRUNE, true, "Only simulate the largest connected component (component) or the networks with a link to another network (linked).");
+    prune.setOptionalArg(true);
+    options.addOption(prune);
+
+    Option seed = new Option(SEED, true, "Only simulate the networks around this comma separated list of network identifiers.");
+    seed.setOptionalArg(true);
+    options.addOption(seed);
+
+    Option hops = new Option(HOPS, true, "The number of hops from the -seed networks to simulate, 1 if not specified.");
+    hops.setOptionalArg(true);
+    options.addOption(hops);
+
+    Option amplify = new Option(AMPLIFY, true, "Simulate this many linked copies of the federation to test scaling.");
+    amplify.setOptionalArg(true);
+    options.addOption(amplify);
+
+    Option synthetic = new Option(SYNTHETIC, true, "Generate from a synthetic federation instead of the DDS, for example networks=1000,ports=4,vlans=1779-1799,structure=ring|tree|scale-free,degree=2,seed=1.");
+    synthetic.setOptionalArg(true);
+    options.addOption(synthetic);
+
+    Option report = new Option(REPORT, true, "Write a JSON report of the time spent in each phase, documents, ports and instances processed, and peak heap.");
+    report.setOptionalArg(true);
+    options.addOption(report);
+
+    Option nsaPorts = new Option(NSA_PORTS, true, "OpenNSA port ranges to allocate instance ports from, " + PortAllocator.DEFAULT_NSA_PORTS + " if not specified.");
+    nsaPorts.setOptionalArg(true);
+    options.addOption(nsaPorts);
+
+    Option sensePorts = new Option(SENSE_PORTS, true, "SENSE-NSI-RM port ranges to allocate instance ports from, " + PortAllocator.DEFAULT_SENSE_PORTS + " if not specified.");
+    sensePorts.setOptionalArg(true);
+    options.addOption(sensePorts);
+
+    Option excludePorts = new Option(EXCLUDE_PORTS, true, "Comma separated list of ports and port ranges never allocated to instances, " + PortAllocator.DEFAULT_EXCLUDED + " if not specified.");
+    excludePorts.setOptionalArg(true);
+    options.addOption(excludePorts);
+
+    Option probePorts = new Option(PROBE_PORTS, false, "Skip ports already in use on this host when allocating instance ports.");
+    options.addOption(probePorts);
+
     return options;
   }
 
@@ -203,4 +388,187 @@ public class CommandOptions {
     }
     return NSA_PEERS_FILE;
   }
+
+  /**
+   *
+   * @return
+   */
+  public int getThreads() {
+    if (clp.hasOption(THREADS)) {
+      return Integer.parseInt(clp.getOptionValue(THREADS));
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getSnapshotIn() {
+    return clp.getOptionValue(SNAPSHOT_IN);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getSnapshotOut() {
+    return clp.getOptionValue(SNAPSHOT_OUT);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getCache() {
+    return clp.getOptionValue(CACHE);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getPortCache() {
+    return clp.getOptionValue(PORT_CACHE);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public boolean isWatch() {
+    return clp.hasOption(WATCH);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public int getWatch() {
+    if (clp.hasOption(WATCH)) {
+      return Integer.parseInt(clp.getOptionValue(WATCH));
+    }
+    return -1;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getCallback() {
+    return clp.getOptionValue(CALLBACK);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public int getRelay() {
+    if (clp.hasOption(RELAY)) {
+      return Integer.parseInt(clp.getOptionValue(RELAY));
+    }
+    return -1;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getTar() {
+    return clp.getOptionValue(TAR);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getChanged() {
+    if (clp.hasOption(CHANGED)) {
+      return clp.getOptionValue(CHANGED, TarSink.STDOUT);
+    }
+    return null;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getRegistry() {
+    return clp.getOptionValue(REGISTRY);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getPrune() {
+    return clp.getOptionValue(PRUNE);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public List<String> getSeeds() {
+    String seeds = clp.getOptionValue(SEED);
+    if (seeds == null) {
+      return null;
+    }
+
+    List<String> result = Arrays.stream(seeds.split(","))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .collect(Collectors.toList());
+    return result.isEmpty() ? null : result;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public int getHops() {
+    if (clp.hasOption(HOPS)) {
+      return Integer.parseInt(clp.getOptionValue(HOPS));
+    }
+    return 1;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public int getAmplify() {
+    if (clp.hasOption(AMPLIFY)) {
+      return Integer.parseInt(clp.getOptionValue(AMPLIFY));
+    }
+    return 1;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public String getReport() {
+    return clp.getOptionValue(REPORT);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public SyntheticFederation getSynthetic() {
+    if (clp.hasOption(SYNTHETIC)) {
+      return SyntheticFederation.parse(clp.getOptionValue(SYNTHETIC));
+    }
+    return null;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public PortAllocator getPortAllocator() {
+    return new PortAllocator(clp.getOptionValue(NSA_PORTS), clp.getOptionValue(SENSE_PORTS),
+            clp.getOptionValue(EXCLUDE_PORTS), clp.hasOption(PROBE_PORTS));
+  }
 }
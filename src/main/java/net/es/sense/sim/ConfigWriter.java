@@ -2,38 +2,33 @@ package net.es.sense.sim;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.ws.rs.NotFoundException;
-import javax.xml.bind.JAXBElement;
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
-import net.es.nsi.common.Nml;
-import net.es.nsi.common.SimpleLabel;
-import net.es.nsi.common.SimpleLabels;
 import net.es.nsi.common.SimpleStp;
-import net.es.nsi.common.jaxb.nml.NmlBidirectionalPortType;
-import net.es.nsi.common.jaxb.nml.NmlLabelGroupType;
-import net.es.nsi.common.jaxb.nml.NmlPortGroupType;
-import net.es.nsi.common.jaxb.nml.NmlPortType;
+import net.es.nsi.common.constants.Nsi;
 
 /**
  * Process all the NSA and topology files from the NSI-DDS creating a set of
@@ -45,26 +40,51 @@ import net.es.nsi.common.jaxb.nml.NmlPortType;
 @Builder
 public class ConfigWriter {
   // The OpenNSA configuration file template.
-  private static final String NRMCONF = "[service]\n"
+  private static final Template NRMCONF = Template.compile("[service]\n"
           + "host=localhost\n"
-          + "port=%d\n"
-          + "network=%s\n"
-          + "logfile=nsa%d.log\n"
-          + "nrmmap=nsa%d.nrm\n"
-          + "database=nsa%s\n"
-          + "dbuser=%s\n"
-          + "dbpassword=%s\n"
+          + "port={{nsaPort}}\n"
+          + "network={{network}}\n"
+          + "logfile=nsa{{index}}.log\n"
+          + "nrmmap=nsa{{index}}.nrm\n"
+          + "database=nsa{{index}}\n"
+          + "dbuser={{dbUser}}\n"
+          + "dbpassword={{dbPassword}}\n"
           + "tls=false\n"
-          + "[dud]";
+          + "[dud]");
 
   // The OpenNSA TAC file template.
-  private static final String NRMTAC = "#!/usr/bin/env python\n"
+  private static final Template NRMTAC = Template.compile("#!/usr/bin/env python\n"
           + "from opennsa import setup\n"
-          + "application = setup.createApplication('nsa%d.conf', payload=True, debug=True)\n";
+          + "application = setup.createApplication('nsa{{index}}.conf', payload=True, debug=True)\n");
 
   // The OpenNSA discovery URL for populating the NSI-DDS configuration.
-  private static final String PEER
-          = "<peerURL type=\"application/vnd.ogf.nsi.nsa.v1+xml\">http://localhost:%d/NSI/discovery.xml</peerURL>\n";
+  private static final Template DISCOVERY_URL = Template.compile("http://localhost:{{nsaPort}}/NSI/discovery.xml");
+  private static final Template PEER
+          = Template.compile("<peerURL type=\"application/vnd.ogf.nsi.nsa.v1+xml\">{{url}}</peerURL>\n");
+
+  // The placeholders of a SENSE-NSI-RM template still using positional
+  // String.format arguments, in argument order.
+  private static final List<String> RM_POSITIONAL = Arrays.asList(
+          "address", "sensePort", // server.address, server.port
+          "address", "sensePort", // sense.root
+          "index", "index", "index", // logging.config, logging.file, spring.datasource.url
+          "dbUser", "dbPassword", // spring.datasource.username, spring.datasource.password
+          "networkId", // nsi.nsaId
+          "address", "sensePort", // nsi.ddsUrl
+          "providerNsaId", // nsi.providerNsaId
+          "nsaPort", // nsi.providerConnectionURL
+          "address", "sensePort", // nsi.requesterConnectionURL
+          "networkId"); // nsi.networkId
+
+  // The relay port the SENSE-NSI-RM instances are pointed at when -relay is
+  // not given, for a relay run separately.
+  private static final int DEFAULT_RELAY_PORT = 8401;
+
+  // The marker in a SENSE-NSI-RM log template before named placeholders.
+  private static final String LOG_FILENAME = ":filename:";
+
+  // Matches the names of files generated for an individual instance.
+  private static final Pattern INSTANCE_FILE = Pattern.compile("(?:nsa|sense)(\\d+)(?:\\.\\w+|-logback\\.xml)");
 
   // All the configuration we will need.
   private final String ddsUrl;
@@ -76,6 +96,54 @@ public class ConfigWriter {
   private final String peersFile;
   private final String outDir;
   private final String address;
+  private final int threads;
+  private final String snapshotIn;
+  private final String snapshotOut;
+  private final String cacheFile;
+  private final String portCacheFile;
+
+  // Generate from a synthetic federation instead of the DDS, or null.
+  private final SyntheticFederation synthetic;
+
+  // Simulate only the largest connected component or the linked networks
+  // of the federation, or null for all networks.
+  private final String prune;
+
+  // Simulate only the networks within a number of hops of these networks,
+  // or all networks if null.
+  private final List<String> seeds;
+  private final int hops;
+
+  // The number of copies of the federation to simulate, amplifying the real
+  // federation to find the scaling limits of the simulation.
+  private final int amplify;
+  private final int relayPort;
+
+  // Where the indexes of instances with changed files are reported, "-"
+  // for stdout, or null to only log them.
+  private final String changedFile;
+
+  // Where generated files are written, the output directory if not specified.
+  private OutputSink sink;
+
+  // The file holding the instance index assigned to each network, or null
+  // to keep it in the output directory.
+  private final String registryFile;
+
+  // The simulated instance index assigned to each network.  This is retained
+  // between generations, and between runs when persisted, so instances keep
+  // their index.
+  private final InstanceRegistry registry = new InstanceRegistry();
+
+  // Allocates the listening ports of each instance, the default port ranges
+  // if not specified.
+  private PortAllocator portAllocator;
+
+  // Where the JSON run report is written, or null for no report.
+  private final String reportFile;
+
+  // Timing and counts of each generation for the run report and JFR.
+  private final RunReport report = new RunReport();
 
   /**
    * This is the main control loop for generating the needed configuration files.
@@ -84,56 +152,522 @@ public class ConfigWriter {
    * @throws IOException Shit went bad.
    */
   public void write() throws NotFoundException, IOException {
-    // Make sure the target directory is already there.
-    if (!Strings.isNullOrEmpty(outDir)) {
-      new File(outDir).mkdirs();
+    // Make sure we have somewhere to write.
+    if (sink == null) {
+      sink = new DirectorySink(outDir);
     }
+    loadRegistry();
+    getPortAllocator().exclude(relayPort);
+    report.reset();
 
     // Read in the SENSE-NSI-RM configuration template we will use to generate
     // the individual configurations.
-    String rmTemplate = read(rmFile, Charset.defaultCharset());
-    String logTemplate = read(logFile, Charset.defaultCharset());
+    Template rmTemplate;
+    Template logTemplate;
+    try (RunReport.Phase phase = report.phase(RunReport.TEMPLATES)) {
+      rmTemplate = Template.compile(read(rmFile, Charset.defaultCharset()), RM_POSITIONAL);
+      logTemplate = Template.compile(read(logFile, Charset.defaultCharset())
+              .replace(LOG_FILENAME, "{{filename}}"));
+    }
 
-    Map<String, Peer> peers = Peers.getPeers(peersFile);
+    Map<String, Peer> peers;
+    try (RunReport.Phase phase = report.phase(RunReport.PEERS)) {
+      peers = Peers.getPeers(peersFile);
+    }
 
     // Get a list of NSA documents from the DDS.
-    DdsController dds = new DdsController(ddsUrl);
-    Map<String, NsaMap> nsaMap = dds.getNsaDocuments();
+    DdsController dds = getDdsController(false);
+    Map<String, NsaMap> nsaMap;
+    try (RunReport.Phase phase = report.phase(RunReport.NSA)) {
+      nsaMap = dds.getNsaDocuments();
+    }
 
     // For each NSA get all associated topology documents.
-    Map<String, TopologyMap> topologyMap = dds.getTopologyDocuments(nsaMap.values());
-    List<PortMap> portConfig = getPortConfig(topologyMap.values());
-
-    // Write the SENSE-NSI-RM and OpenNSA configuration files for each network.
-    List<Provider> providers = new ArrayList<>();
-    int nsa_count = 0;
-    for (NsaMap nsa : nsaMap.values()) {
-      log.info("Processing NSA {}", nsa.nsaId);
-      for (String networkId : nsa.getDocument().getNetworkId()) {
-        log.info(">>> Processing NSA {}, topology {}", nsa.nsaId, networkId);
-        Optional<Provider> provider = writeNSA(rmTemplate, logTemplate, nsa.getDocument().getId(),
-                networkId, portConfig, nsa_count, peers);
-        if (provider.isPresent()) {
-          nsa_count++;
-          providers.add(provider.get());
+    Map<String, TopologyMap> topologyMap;
+    try (RunReport.Phase phase = report.phase(RunReport.TOPOLOGY)) {
+      topologyMap = dds.getTopologyDocuments(nsaMap.values());
+    }
+
+    // Record the retrieved documents for replay or the next run.
+    saveSnapshot(dds);
+
+    // Write the SENSE-NSI-RM and OpenNSA configuration files.
+    try {
+      generate(rmTemplate, logTemplate, peers, nsaMap, topologyMap);
+      writeReport(dds);
+    } finally {
+      sink.close();
+    }
+
+    // Serve the documents to the simulated instances until interrupted.
+    if (relayPort > 0) {
+      try (DdsRelay relay = new DdsRelay(address, relayPort)) {
+        relay.start();
+        relay.update(dds.getSnapshot().getDocuments(), getDiscoveryUrls());
+        relay.await();
+      } catch (InterruptedException ex) {
+        log.info("Relay interrupted, exiting.");
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Generate the configuration files and then keep them current by
+   * subscribing for DDS notifications, regenerating only the files affected
+   * by each change.  This method does not return until interrupted.
+   *
+   * @param port The local port on which to receive DDS notifications.
+   * @param callback The URL the DDS uses to deliver notifications, or null
+   *    to derive it from the local address and port.
+   * @throws NotFoundException A specified input file was not found.
+   * @throws IOException Shit went bad.
+   */
+  public void watch(int port, String callback) throws NotFoundException, IOException {
+    if (sink == null) {
+      sink = new DirectorySink(outDir);
+    }
+    loadRegistry();
+    getPortAllocator().exclude(relayPort);
+    getPortAllocator().exclude(port);
+    report.reset();
+
+    Template rmTemplate;
+    Template logTemplate;
+    try (RunReport.Phase phase = report.phase(RunReport.TEMPLATES)) {
+      rmTemplate = Template.compile(read(rmFile, Charset.defaultCharset()), RM_POSITIONAL);
+      logTemplate = Template.compile(read(logFile, Charset.defaultCharset())
+              .replace(LOG_FILENAME, "{{filename}}"));
+    }
+
+    Map<String, Peer> peers;
+    try (RunReport.Phase phase = report.phase(RunReport.PEERS)) {
+      peers = Peers.getPeers(peersFile);
+    }
+
+    // Start listening before the initial generation so we do not miss any
+    // changes made while it is running.
+    try (DdsWatcher watcher = new DdsWatcher(ddsUrl, address, port,
+            Strings.isNullOrEmpty(callback) ? "http://" + address + ":" + port + DdsWatcher.PATH : callback);
+            DdsRelay relay = relayPort > 0 ? new DdsRelay(address, relayPort) : null) {
+      watcher.start();
+      if (relay != null) {
+        relay.start();
+      }
+
+      DdsController dds = getDdsController(true);
+      Map<String, NsaMap> nsaMap;
+      try (RunReport.Phase phase = report.phase(RunReport.NSA)) {
+        nsaMap = new ConcurrentHashMap<>(dds.getNsaDocuments());
+      }
+
+      Map<String, TopologyMap> topologyMap;
+      try (RunReport.Phase phase = report.phase(RunReport.TOPOLOGY)) {
+        topologyMap = new ConcurrentHashMap<>(dds.getTopologyDocuments(nsaMap.values()));
+      }
+
+      saveSnapshot(dds);
+      generate(rmTemplate, logTemplate, peers, nsaMap, topologyMap);
+      writeReport(dds);
+      if (relay != null) {
+        relay.update(dds.getSnapshot().getDocuments(), getDiscoveryUrls());
+      }
+
+      while (true) {
+        List<DdsNotification> notifications = watcher.take();
+        report.reset();
+        dds.resetFetched();
+        if (!apply(dds, notifications, nsaMap, topologyMap)) {
+          continue;
+        }
+
+        generate(rmTemplate, logTemplate, peers, nsaMap, topologyMap);
+        saveSnapshot(dds);
+        writeReport(dds);
+        if (relay != null) {
+          relay.update(dds.getSnapshot().getDocuments(), getDiscoveryUrls());
+        }
+        log.info("Processed {} DDS notifications", notifications.size());
+      }
+    } catch (InterruptedException ex) {
+      log.info("Watch interrupted, exiting.");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Apply a set of DDS notifications to the decoded NSA and topology
+   * documents.  The documents delivered are counted as fetched and their
+   * decoding timed as the NSA and TOPOLOGY phases of the run.
+   *
+   * @param dds The DDS controller used to decode documents.
+   * @param notifications The notifications to apply.
+   * @param nsaMap The decoded NSA documents indexed by NSA identifier.
+   * @param topologyMap The decoded topology documents indexed by network identifier.
+   * @return True if any document changed.
+   * @throws IOException If a document could not be decoded.
+   */
+  private boolean apply(DdsController dds, List<DdsNotification> notifications,
+          Map<String, NsaMap> nsaMap, Map<String, TopologyMap> topologyMap) throws IOException {
+    boolean modified = false;
+    Date now = new Date();
+    for (DdsNotification notification : notifications) {
+      DdsDocument document = notification.getDocument();
+      log.info("DDS notification {} for document {}", notification.getEvent(), document.getId());
+
+      if (DdsNotification.DELETED.equalsIgnoreCase(notification.getEvent())) {
+        dds.getSnapshot().remove(document);
+        if (Nsi.NSI_DOC_TYPE_NSA_V1.equals(document.getType())) {
+          modified |= nsaMap.remove(document.getId()) != null;
+        } else if (Nsi.NSI_DOC_TYPE_TOPOLOGY_V2.equals(document.getType())) {
+          modified |= topologyMap.remove(document.getId()) != null;
+        }
+      } else if (Nsi.NSI_DOC_TYPE_NSA_V1.equals(document.getType())) {
+        try (RunReport.Phase phase = report.phase(RunReport.NSA)) {
+          dds.fetched(document);
+          dds.getSnapshot().add(document);
+          NsaMap nsa = dds.decodeNsa(document);
+          nsaMap.put(nsa.getNsaId(), nsa);
+          modified = true;
+        }
+      } else if (Nsi.NSI_DOC_TYPE_TOPOLOGY_V2.equals(document.getType())) {
+        try (RunReport.Phase phase = report.phase(RunReport.TOPOLOGY)) {
+          dds.fetched(document);
+          dds.getSnapshot().add(document);
+          TopologyMap topology = dds.decodeTopology(document.getId(), document, now);
+          if (topology != null) {
+            topologyMap.put(topology.getId(), topology);
+            modified = true;
+          }
+        }
+      }
+    }
+    return modified;
+  }
+
+  /**
+   * Get the port allocator, creating one with the default port ranges if
+   * none was specified.
+   *
+   * @return The port allocator.
+   */
+  private synchronized PortAllocator getPortAllocator() {
+    if (portAllocator == null) {
+      portAllocator = new PortAllocator();
+    }
+    return portAllocator;
+  }
+
+  /**
+   * Load the instance indexes assigned by previous runs.  The registry is
+   * kept in the output directory unless a file is specified, and is only
+   * kept in memory if neither is available.
+   *
+   * @throws IOException If the registry could not be read.
+   */
+  private void loadRegistry() throws IOException {
+    if (!Strings.isNullOrEmpty(registryFile)) {
+      registry.load(Paths.get(registryFile));
+    } else if (sink instanceof DirectorySink) {
+      registry.load(((DirectorySink) sink).getRoot().resolve(InstanceRegistry.FILENAME));
+    }
+  }
+
+  /**
+   * Create the DDS controller for this run.  Documents come from a snapshot
+   * of the DDS if we are replaying a previous run.  If we have a local cache
+   * of documents then only new or changed documents are retrieved, and if we
+   * have a port cache then only new or changed topologies are parsed.
+   * Retrieved documents are only kept when they are written to a snapshot
+   * or cache, or served by the relay or watch loop.
+   *
+   * @param watching True if the documents will be kept current by watching.
+   * @return The DDS controller.
+   * @throws IOException If the snapshot or cache could not be read.
+   */
+  private DdsController getDdsController(boolean watching) throws IOException {
+    DdsController dds;
+    if (synthetic != null) {
+      dds = new DdsController(synthetic.generate(), threads);
+    } else if (!Strings.isNullOrEmpty(snapshotIn)) {
+      dds = new DdsController(DdsSnapshot.read(snapshotIn), threads);
+    } else if (!Strings.isNullOrEmpty(cacheFile)) {
+      dds = new DdsController(ddsUrl, threads, DdsSnapshot.readOrCreate(cacheFile));
+    } else {
+      dds = new DdsController(ddsUrl, threads);
+    }
+
+    dds.setRecording(watching || relayPort > 0
+            || !Strings.isNullOrEmpty(snapshotOut) || !Strings.isNullOrEmpty(cacheFile));
+
+    if (!Strings.isNullOrEmpty(portCacheFile)) {
+      dds.setPortCache(PortCache.readOrCreate(portCacheFile));
+    }
+    return dds;
+  }
+
+  /**
+   * Write the DDS documents used for this run to the snapshot and cache
+   * files if requested.
+   *
+   * @param dds The DDS controller.
+   * @throws IOException If the snapshot could not be written.
+   */
+  private void saveSnapshot(DdsController dds) throws IOException {
+    try (RunReport.Phase phase = report.phase(RunReport.SNAPSHOT)) {
+      // Record the raw DDS documents for later replay if requested.
+      if (!Strings.isNullOrEmpty(snapshotOut)) {
+        dds.getSnapshot().write(snapshotOut);
+      }
+
+      // Update the local document cache for the next run.
+      if (!Strings.isNullOrEmpty(cacheFile) && Strings.isNullOrEmpty(snapshotIn) && synthetic == null) {
+        dds.getSnapshot().write(cacheFile);
+      }
+
+      // Update the derived port cache for the next run.
+      if (dds.getPortCache() != null) {
+        dds.getPortCache().write(portCacheFile);
+      }
+    }
+  }
+
+  /**
+   * Generate the SENSE-NSI-RM and OpenNSA configuration files for each
+   * network, and the supporting scripts and configuration for all networks.
+   *
+   * @param rmTemplate The SENSE-NSI-RM configuration template.
+   * @param logTemplate The SENSE-NSI-RM log configuration template.
+   * @param peers Additional port adjacencies indexed by network identifier.
+   * @param nsaMap The NSA documents indexed by NSA identifier.
+   * @param topologyMap The topology documents indexed by network identifier.
+   */
+  private void generate(Template rmTemplate, Template logTemplate, Map<String, Peer> peers,
+          Map<String, NsaMap> nsaMap, Map<String, TopologyMap> topologyMap) throws IOException {
+    report.count(RunReport.NSA_DOCUMENTS, nsaMap.size());
+    report.count(RunReport.TOPOLOGY_DOCUMENTS, topologyMap.size());
+
+    // Synthesize a larger federation from the real one if requested.
+    if (amplify > 1) {
+      try (RunReport.Phase phase = report.phase(RunReport.AMPLIFY)) {
+        Amplifier amplifier = new Amplifier(amplify);
+        nsaMap = amplifier.amplifyNsas(nsaMap);
+        topologyMap = amplifier.amplifyTopologies(topologyMap);
+      }
+    }
+
+    NetworkGraph graph = new NetworkGraph();
+    PortTable portConfig;
+    try (RunReport.Phase phase = report.phase(RunReport.PORT_CONFIG)) {
+      portConfig = getPortConfig(topologyMap.values(), graph);
+      graph.addPeers(peers);
+      graph.logSummary();
+    }
+    report.count(RunReport.PORTS, topologyMap.values().stream().mapToLong(t -> t.getPorts().size()).sum());
+    report.count(RunReport.NETWORKS, graph.getNetworks().size());
+    report.count(RunReport.LINKS, graph.getLinks());
+
+    // The networks worth simulating, or null for all.
+    Set<String> selected;
+    Map<String, String> networks = new HashMap<>();
+    try (RunReport.Phase phase = report.phase(RunReport.SELECT)) {
+      selected = getSelected(graph);
+
+      // Assign instance indexes up front in a deterministic order, so the
+      // numbering does not depend on map iteration order or thread timing.  A
+      // network keeps the instance index recorded in the registry, and new
+      // networks take the lowest free index in order of NSA identifier and then
+      // in the order the NSA lists its networks.  Networks without any ports
+      // get no instance.
+      for (String nsaId : new TreeSet<>(nsaMap.keySet())) {
+        NsaMap nsa = nsaMap.get(nsaId);
+        log.info("Processing NSA {}", nsa.nsaId);
+        for (String networkId : nsa.getDocument().getNetworkId()) {
+          log.info(">>> Processing NSA {}, topology {}", nsa.nsaId, networkId);
+          if (!hasPorts(networkId, portConfig, peers)) {
+            log.error("generate: no valid ports for providerId {}, networkId = {}", nsaId, networkId);
+            report.count(RunReport.INSTANCES_SKIPPED, 1);
+            continue;
+          }
+
+          if (selected != null && !selected.contains(NetworkGraph.key(networkId))) {
+            log.info("generate: networkId {} not selected for simulation", networkId);
+            report.count(RunReport.INSTANCES_SKIPPED, 1);
+            continue;
+          }
+
+          networks.putIfAbsent(networkId, nsa.getDocument().getId());
+          registry.assign(networkId);
         }
       }
+
+      // Networks that have disappeared keep their index reserved but get no
+      // instance, leaving a gap in the numbering.
+      registry.retain(networks.keySet());
+
+      // Allocate ports up front for the same reason, keeping the ports each
+      // instance was given in earlier runs.
+      getPortAllocator().allocate(registry);
     }
 
+    // Render and write the SENSE-NSI-RM and OpenNSA configuration files for
+    // each network in parallel, collecting providers in instance order.
+    List<Callable<Optional<Provider>>> tasks = new ArrayList<>();
+    networks.keySet().stream()
+            .sorted(Comparator.comparing(registry::get))
+            .forEach(networkId -> tasks.add(() -> writeNSA(rmTemplate, logTemplate,
+                    networks.get(networkId), networkId, portConfig, registry.get(networkId), peers, selected)));
+
+    List<Provider> providers;
+    try (RunReport.Phase phase = report.phase(RunReport.EMIT)) {
+      providers = Workers.execute(tasks, threads, "emit-worker-%d").stream()
+              .filter(Optional::isPresent)
+              .map(Optional::get)
+              .collect(Collectors.toList());
+    }
+    report.count(RunReport.INSTANCES_GENERATED, providers.size());
+    report.count(RunReport.INSTANCES_SKIPPED, tasks.size() - providers.size());
+
+    Set<Integer> active = registry.getActive().keySet();
+
     // Write the OpenNSA TAC files.
-    writeTac(nsa_count);
+    try (RunReport.Phase phase = report.phase(RunReport.TAC)) {
+      writeTac(active);
+    }
 
     // Write out the start-up script
-    writeScripts();
+    try (RunReport.Phase phase = report.phase(RunReport.SCRIPTS)) {
+      writeScripts();
+    }
 
     // Write out the database schema needed for both OpenNSA and SENSE-NSI-RM.
-    writeSchema(nsa_count);
+    try (RunReport.Phase phase = report.phase(RunReport.SCHEMA)) {
+      writeSchema(active);
+    }
 
     // Write out the peer discovery information to configure the DDS.
-    writeDiscovery(nsa_count);
+    try (RunReport.Phase phase = report.phase(RunReport.DISCOVERY)) {
+      writeDiscovery(active);
+    }
 
     // Write the providers entry for the nsi-requesters config file.
-    writeProviders(providers);
+    try (RunReport.Phase phase = report.phase(RunReport.PROVIDERS)) {
+      writeProviders(providers);
+    }
+
+    // Publish the new files and report the instances needing a restart.  The
+    // registry is saved once the files using its indexes are in place.
+    try (RunReport.Phase phase = report.phase(RunReport.COMMIT)) {
+      sink.commit();
+      registry.save();
+      reportChanged();
+    }
+    report.count(RunReport.FILES_CHANGED, sink.getChanged().size());
+  }
+
+  /**
+   * Write the run report if requested.
+   *
+   * @param dds The DDS controller used for this run.
+   * @throws IOException If the report could not be written.
+   */
+  private void writeReport(DdsController dds) throws IOException {
+    report.count(RunReport.DOCUMENTS_FETCHED, dds.getDocumentsFetched());
+    report.count(RunReport.BYTES_FETCHED, dds.getBytesFetched());
+    if (!Strings.isNullOrEmpty(reportFile)) {
+      report.write(reportFile);
+    }
+  }
+
+  /**
+   * Select the networks to simulate from the adjacency graph, either the
+   * neighbourhood of the seed networks, the networks kept by pruning, or the
+   * networks satisfying both.
+   *
+   * @param graph The network adjacency graph.
+   * @return The selected network keys, or null to simulate all networks.
+   */
+  private Set<String> getSelected(NetworkGraph graph) {
+    Set<String> selected = null;
+    if (seeds != null && !seeds.isEmpty()) {
+      selected = new TreeSet<>(graph.getNeighbourhood(seeds, hops));
+      log.info("Selected {} networks within {} hops of {}", selected.size(), hops, seeds);
+    }
+
+    if (!Strings.isNullOrEmpty(prune)) {
+      Set<String> pruned = graph.select(prune);
+      if (selected == null) {
+        selected = new TreeSet<>(pruned);
+      } else {
+        selected.retainAll(pruned);
+      }
+      log.info("Selected {} networks after -prune {}", selected.size(), prune);
+    }
+
+    if (selected != null) {
+      // An empty selection would remove every instance from the output, so
+      // it is far more likely to be a mistake in the selection options.
+      if (selected.isEmpty()) {
+        log.error("Error: No networks selected by -seed {} and -prune {}.", seeds, prune);
+        throw new IllegalArgumentException("No networks selected for simulation");
+      }
+      log.info("Simulating {} of {} networks", selected.size(), graph.getNetworks().size());
+    }
+    return selected;
+  }
+
+  /**
+   * Report the indexes of the instances with files changed by the last
+   * generation, as a single line of space separated indexes.
+   *
+   * @throws IOException If the report could not be written.
+   */
+  private void reportChanged() throws IOException {
+    Set<Integer> updated = new TreeSet<>();
+    sink.getChanged().forEach(f -> getInstance(f).ifPresent(updated::add));
+    log.info("Updated {} files, instances changed {}", sink.getChanged().size(), updated);
+
+    if (changedFile != null) {
+      String line = updated.stream().map(String::valueOf).collect(Collectors.joining(" "));
+      if (TarSink.STDOUT.equals(changedFile)) {
+        System.out.println(line);
+        System.out.flush();
+      } else {
+        Files.write(Paths.get(changedFile), Arrays.asList(line), StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * Determine if a network has any ports to simulate, either from its
+   * topology or from the additional peers configuration.
+   *
+   * @param networkId The network identifier.
+   * @param portConfig The ports of all networks.
+   * @param peers Additional port adjacencies indexed by network identifier.
+   * @return True if the network has ports.
+   */
+  private static boolean hasPorts(String networkId, PortTable portConfig, Map<String, Peer> peers) {
+    if (!portConfig.get(networkId).isEmpty()) {
+      return true;
+    }
+
+    Peer peer = peers.get(SimpleStp.NSI_NETWORK_URN_PREFIX + strip_networkUrn(networkId).concat(":topology"));
+    return peer != null && peer.getPort() != null && !peer.getPort().isEmpty();
+  }
+
+  /**
+   * Get the simulated instance index a generated file belongs to.
+   *
+   * @param outputName The name of the generated file.
+   * @return The instance index if the file belongs to a single instance.
+   */
+  private static Optional<Integer> getInstance(String outputName) {
+    Matcher matcher = INSTANCE_FILE.matcher(outputName);
+    if (matcher.matches()) {
+      return Optional.of(Integer.valueOf(matcher.group(1)));
+    }
+    return Optional.empty();
   }
 
   /**
@@ -145,106 +679,116 @@ public class ConfigWriter {
    * not to violate them.  Also it automatically generates topology
    * and NSA names so we need to match the generation algorithm.
    *
-   * @param rmTemplate
-   * @param userId
-   * @param password
-   * @param providerNsaId
-   * @param networkId
-   * @param portConfig
-   * @param count
+   * @param rmTemplate The SENSE-NSI-RM configuration template.
+   * @param logTemplate The SENSE-NSI-RM log configuration template.
+   * @param providerNsaId The NSA identifier of the provider of the network.
+   * @param networkId The network identifier.
+   * @param portConfig The port records of all topologies.
+   * @param count The instance index.
+   * @param peers Additional port adjacencies indexed by network identifier.
+   * @param selected The simulated network keys, or null if all networks are
+   *    simulated.  Ports linked to networks that are not simulated become
+   *    edge ports, and peer ports linked to them are dropped.
+   * @return The provider entry of the instance, or empty if the network has
+   *    no ports.
    */
-  private Optional<Provider> writeNSA(String rmTemplate, String logTemplate, String providerNsaId,
-          String networkId, List<PortMap> portConfig, int count, Map<String, Peer> peers) {
+  Optional<Provider> writeNSA(Template rmTemplate, Template logTemplate, String providerNsaId,
+          String networkId, PortTable portConfig, int count, Map<String, Peer> peers, Set<String> selected) {
 
     // We need to do some magic on the networkIds for OpenNSA.
     String stripped = strip_networkUrn(networkId);
     String nid = SimpleStp.NSI_NETWORK_URN_PREFIX + stripped.concat(":topology");
     String nsa = SimpleStp.NSI_NETWORK_URN_PREFIX + stripped.concat(":nsa");
-    int oport = 9000 + count;
-    int sport = 800 + count;
-
-    // Filter the list of ports to only those from the target network.
-    List<String> lines = portConfig.stream()
-            .filter(p -> networkId.equalsIgnoreCase(p.getNetworkId()))
-            .map(p -> String.format("%s %s %s %s %d %s -\n",
-              p.getType(),
-              p.getPortName(),
-              Strings.isNullOrEmpty(p.getRemote()) ? "-" : p.getRemote(),
-              p.getLabel().replace("mpls", "vlan"),
-              p.getBandwidth(),
-              p.getInter()))
-            .collect(Collectors.toList());
-
-    // Now add any additional ports specified on the configuration file.
-    Peer peer = peers.get(nid);
-    if (peer != null) {
-      peer.getPort().forEach((port) -> {
-        lines.add(port.toString());
-      });
-    }
-
-    if (lines.isEmpty()) {
-      log.error("writeNSA: no valid ports for providerId {}, networkId = {}", providerNsaId, networkId);
-      return Optional.empty();
-    }
-
-    // Write out the OpenNSA port configuration file for this network topology.
-    write("nsa" + count + ".nrm", lines);
-
-    // Write out the NRM config file associated with this topology.
-
-    write("nsa" + count + ".conf",
-            Lists.newArrayList(String.format(NRMCONF,
-                    oport, // port
-                    stripped, // network
-                    count, // logfile
-                    count, // nrmmap
-                    count, // database
-                    userId,
-                    password)));
-
-    // Write out the SENSE-NSI-RM configuration file for this NSA.
-
-    write("sense" + count + ".yaml",
-            Lists.newArrayList(String.format(rmTemplate,
-                    address, //server.address
-                    sport, // server.port
-                    address, // sense.root
-                    sport, // sense.root
-                    count, // logging.config
-                    count, // logging.file
-                    count, // spring.datasource.url
-                    userId, // spring.datasource.username
-                    password, // spring.datasource.password
-                    nid, // nsi.nsaId
-                    address, // nsi.ddsUrl address
-                    sport, // nsi.ddsUrl port
-                    nsa, // nsi.providerNsaId
-                    oport, // nsi.providerConnectionURL
-                    address, // nsi.requesterConnectionURL address
-                    sport, // nsi.requesterConnectionURL port
-                    nid))); // networkId
-
-    // Write out the SENSE-RM log configuration file.
-    write("sense" + count + "-logback.xml",
-            Lists.newArrayList(logTemplate.replace(":filename:", "sense-rm" + count + ".log")));
-
-    return Optional.of(Provider.builder().
-            id(nsa)
-            .url("http://localhost:" + oport + "/NSI/services/CS2")
-            .portPrefix(nid)
-            .build());
+    InstancePorts ports = getPortAllocator().allocate(registry, count);
+
+    try (RunReport.Phase phase = report.instance(count, stripped)) {
+      // Get the list of ports from the target network.
+      List<String> lines = portConfig.get(networkId).stream()
+              .map(p -> String.format("%s %s %s %s %d %s -\n",
+                p.getType(),
+                p.getPortName(),
+                Strings.isNullOrEmpty(p.getRemote()) || !isSelected(p.getRemote(), selected) ? "-" : p.getRemote(),
+                p.getLabel(),
+                p.getBandwidth(),
+                p.getInter()))
+              .collect(Collectors.toList());
+
+      // Now add any additional ports specified on the configuration file.
+      Peer peer = peers.get(nid);
+      if (peer != null) {
+        peer.getPort().stream()
+                .filter(port -> Strings.isNullOrEmpty(port.getRemote()) || isSelected(port.getRemote(), selected))
+                .forEach(port -> lines.add(port.toString()));
+      }
+
+      phase.setPorts(lines.size());
+      if (lines.isEmpty()) {
+        log.error("writeNSA: no valid ports for providerId {}, networkId = {}", providerNsaId, networkId);
+        return Optional.empty();
+      }
+
+      // Write out the OpenNSA port configuration file for this network topology.
+      write("nsa" + count + ".nrm", lines);
+
+      // The values of all template placeholders for this instance.
+      Map<String, Object> values = new HashMap<>();
+      values.put("index", count);
+      values.put("address", address);
+      values.put("sensePort", ports.getSensePort());
+      values.put("nsaPort", ports.getNsaPort());
+      values.put("relayUrl", "http://" + address + ":" + (relayPort > 0 ? relayPort : DEFAULT_RELAY_PORT)
+              + DdsRelay.PATH);
+      values.put("network", stripped);
+      values.put("networkId", nid);
+      values.put("providerNsaId", nsa);
+      values.put("dbUser", userId);
+      values.put("dbPassword", password);
+      values.put("filename", "sense-rm" + count + ".log");
+
+      // Write out the NRM config file associated with this topology.
+      write("nsa" + count + ".conf", Lists.newArrayList(NRMCONF.render(values)));
+
+      // Write out the SENSE-NSI-RM configuration file for this NSA.
+      write("sense" + count + ".yaml", Lists.newArrayList(rmTemplate.render(values)));
+
+      // Write out the SENSE-RM log configuration file.
+      write("sense" + count + "-logback.xml", Lists.newArrayList(logTemplate.render(values)));
+
+      return Optional.of(Provider.builder().
+              id(nsa)
+              .url("http://localhost:" + ports.getNsaPort() + "/NSI/services/CS2")
+              .portPrefix(nid)
+              .build());
+    }
+  }
+
+  /**
+   * Determine if the network owning a remote port is simulated.
+   *
+   * @param remote The OpenNSA remote port.
+   * @param selected The simulated network keys, or null if all networks are
+   *    simulated.
+   * @return True if the remote network is simulated, or the port has no
+   *    remote network such as an edge port with a "-" remote.
+   */
+  private static boolean isSelected(String remote, Set<String> selected) {
+    if (selected == null) {
+      return true;
+    }
+
+    String key = NetworkGraph.remoteKey(remote);
+    return key == null || selected.contains(key);
   }
 
   /**
    * Write the OpenNSA TAC configuration file for all instances.
    *
-   * @param count
+   * @param indexes The active instance indexes.
    */
-  private void writeTac(int count) {
+  private void writeTac(Collection<Integer> indexes) {
     // Write the OpenNSA TAC files.
-    for (int i = 0; i < count; i++) {
-      write("nsa" + i + ".tac", Lists.newArrayList(String.format(NRMTAC, i)));
+    for (int i : indexes) {
+      write("nsa" + i + ".tac", Lists.newArrayList(NRMTAC.render(Collections.singletonMap("index", i))));
     }
   }
 
@@ -341,7 +885,7 @@ public class ConfigWriter {
   private static final String DB_SCRIPT_MID = "EOF;\nexport PGPASSWORD='%s'\n";
 
   private static final String DB_SCRIPT_END =
-          "for i in {0..%d}\n" +
+          "for i in %s\n" +
           "do\n" +
           "   echo \"Populating schema into database nsa$i.\"\n" +
           "   psql -U %s -d nsa$i < opennsa-schema.sql\n" +
@@ -353,17 +897,17 @@ public class ConfigWriter {
    * @param schema
    * @param userId
    * @param password
-   * @param count
+   * @param indexes The active instance indexes.
    * @throws IOException
    */
-  private void writeSchema(int count) throws IOException {
+  private void writeSchema(Collection<Integer> indexes) throws IOException {
     // Write the script to create users and databases.
     List<String> lines = new ArrayList<>();
 
     // Add the start of the script.
     lines.add(DB_SCRIPT_START);
     lines.add(String.format(DB_USER, userId, password));
-    for (int i = 0; i < count; i++) {
+    for (int i : indexes) {
       // Create the needed users and databases.
       lines.add(String.format(DB_CREATE, i, i, userId, i, i, userId, i));
     }
@@ -372,7 +916,8 @@ public class ConfigWriter {
     lines.add(String.format(DB_SCRIPT_MID, password));
 
     // Add the last script block to load schemas into individual database.
-    lines.add(String.format(DB_SCRIPT_END, count - 1, userId));
+    lines.add(String.format(DB_SCRIPT_END,
+            indexes.stream().map(String::valueOf).collect(Collectors.joining(" ")), userId));
 
     // Write the script to file.
     write("database.sh", lines);
@@ -385,17 +930,41 @@ public class ConfigWriter {
   /**
    * Write NSI-DDS peer discovery list for all simulated OpenNSA.
    *
-   * @param count
+   * @param indexes The active instance indexes.
    */
-  private void writeDiscovery(int count) {
+  private void writeDiscovery(Collection<Integer> indexes) {
     // Write out the peer discovery information to configure the DDS.
     List<String> lines = new ArrayList<>();
-    for (int i = 0; i < count; i++) {
-      lines.add(String.format(PEER, 9000 + i));
+    for (int i : indexes) {
+      lines.add(PEER.render(Collections.singletonMap("url", getDiscoveryUrl(i))));
     }
     write("peer.xml", lines);
   }
 
+  /**
+   * Get the discovery URL of a simulated OpenNSA.
+   *
+   * @param index The instance index.
+   * @return The discovery URL.
+   */
+  private String getDiscoveryUrl(int index) {
+    return DISCOVERY_URL.render(Collections.singletonMap("nsaPort",
+            getPortAllocator().allocate(registry, index).getNsaPort()));
+  }
+
+  /**
+   * Get the discovery URLs of all simulated OpenNSA.
+   *
+   * @return The list of discovery URLs.
+   */
+  private List<String> getDiscoveryUrls() {
+    List<String> urls = new ArrayList<>();
+    for (int i : registry.getActive().keySet()) {
+      urls.add(getDiscoveryUrl(i));
+    }
+    return urls;
+  }
+
   /**
    * Write out the nsi-requester provider configuration information for all
    * simulated OpenNSA.
@@ -411,217 +980,73 @@ public class ConfigWriter {
   }
 
   /**
-   * Extract the list of ports from all the topologies.
+   * Extract the ports from all the topologies, indexed by network, and add
+   * the links resolved between networks to the adjacency graph.
    *
    * @param list
+   * @param graph The network adjacency graph to populate.
    * @return
    */
-  private List<PortMap> getPortConfig(Collection<TopologyMap> list) {
+  PortTable getPortConfig(Collection<TopologyMap> list, NetworkGraph graph) {
     // Bidirectional ports.
     List<PortMap> biMap = new ArrayList<>();
     Map<String, PortMap> uniToBiMap = new HashMap<>();
 
-    // For each topology we need to get the bidirectional ports,
-    // list of associated VLANs (from unidirectional ports), and
-    // any isAlias relationships.
-    Date now = new Date();
+    // The ports of each topology were extracted as its document was decoded,
+    // so we only need to index the unidirectional members of all topologies
+    // to resolve the isAlias relationships between them.
     for (TopologyMap topology : list) {
-      Nml nml = new Nml(topology.getDocument());
-      List<NmlBidirectionalPortType> biList = nml.getBidirectionalPorts();
-
-      // Create a reverse map from unidirectional ports to bidirectional parent.
-      int inter = 0;
-      for (NmlBidirectionalPortType bi : biList) {
-        // We will collect all the needed configuration in this structure.
-        PortMap pm = new PortMap();
-
-        // Parse the port identifier into an STP so we can decompose the
-        // elements into what will be needed by OpenNSA configuration.
-        SimpleStp stp = new SimpleStp(bi.getId());
-
-        pm.setPort(bi);
-        pm.setPortId(stp.getId());
-        pm.setPortName(strip(stp.getLocalId()));
-        pm.setType("ethernet");
-        pm.setInter("em" + Integer.toString(inter++));
-        pm.setBandwidth(100000);
-        pm.setNetworkId(stp.getNetworkId());
-        pm.setNetworkLabel(stp.getNetworkLabel());
-
-        biMap.add(pm);
-
-        // Now find the unidirectional members and create an index to the port
-        // map entry.
-        List<Object> rest = bi.getRest();
-        for (Object obj : rest) {
-          if (obj instanceof JAXBElement) {
-            JAXBElement<?> element = (JAXBElement<?>) obj;
-            if (element.getValue() instanceof NmlPortGroupType) {
-              NmlPortGroupType pg = (NmlPortGroupType) element.getValue();
-              uniToBiMap.put(pg.getId(), pm);
-            } else if (element.getValue() instanceof NmlPortType) {
-              NmlPortType p = (NmlPortType) element.getValue();
-              uniToBiMap.put(p.getId(), pm);
-            }
-          }
-        }
-      }
-
-      // Now we index all the unidirectional inbound port groups.
-      for (NmlPortGroupType pg : nml.getInboundPortGroups()) {
-        try {
-          // Parse the port group into a usable STP identifier.
-          SimpleStp stp = new SimpleStp(fixPortGroupType(pg));
-
-          // Find the parent bidirectional port.
-          PortMap bi = uniToBiMap.get(stp.getId());
-          if (bi == null) {
-            log.error("Could not find bidirectional port matching {} ", stp.getStpId());
-            continue;
-          }
-
-          // Now we check to make sure this is a usable port label for this
-          // demo.  We need a labelType == vlan and a integer label range.
-          Optional<SimpleLabel> label = stp.getLabels().stream().findFirst();
-          if (!label.isPresent() ||
-                  (SimpleLabel.NSI_EVTS_LABEL_TYPE.contentEquals(label.get().getType()) &&
-                  Strings.isNullOrEmpty(label.get().getValue()))) {
-            // Invalid label sequence for OpenNSA so fudge it.
-            SimpleLabel newLabel = new SimpleLabel(SimpleLabel.NSI_EVTS_LABEL_TYPE, "0");
-            Set<SimpleLabel> labelSet = new HashSet<>();
-            labelSet.add(newLabel);
-            stp.setLabels(labelSet);
-          }
-
-          try {
-            String labels = SimpleLabels.toString(stp.getLabels());
-            if (!Strings.isNullOrEmpty(labels)) {
-              bi.setLabel(labels.replace("=", ":"));
-            }
-          } catch (Exception ex) {
-            log.error("Failed to process stpId = {} : {}", stp.getId(), ex.getLocalizedMessage());
-          }
-
-          // Look for isAlias entry.
-          String isAlias = Nml.getIsAlias(pg.getRelation());
-          if (!Strings.isNullOrEmpty(isAlias)) {
-            bi.setIsAlias(isAlias);
-          }
-        } catch (IllegalArgumentException ex) {
-          log.error("Skipping stp: {} : {}", ex.getMessage(), ex.getLocalizedMessage());
-        }
-      }
-
-      // Now we index all the unidirectional inbound port.
-      for (NmlPortType p : nml.getInboundPorts()) {
-        try {
-          // Parse the port into a usable STP identifier.
-          SimpleStp stp = new SimpleStp(fixPortType(p));
-
-          // Find the parent bidirectional port.
-          PortMap bi = uniToBiMap.get(stp.getId());
-          if (bi == null) {
-            log.error("Could not find bidirectional port matching {} ", stp.getStpId());
-            continue;
-          }
-
-          // Now we check to make sure this is a usable port label for this
-          // demo.  We need a labelType == vlan and a integer label range.
-          Optional<SimpleLabel> label = stp.getLabels().stream().findFirst();
-          if (!label.isPresent() ||
-                  (SimpleLabel.NSI_EVTS_LABEL_TYPE.contentEquals(label.get().getType()) &&
-                  Strings.isNullOrEmpty(label.get().getValue()))) {
-            // Invalid label sequence for OpenNSA so fudge it.
-            SimpleLabel newLabel = new SimpleLabel(SimpleLabel.NSI_EVTS_LABEL_TYPE, "0");
-            Set<SimpleLabel> labelSet = new HashSet<>();
-            labelSet.add(newLabel);
-            stp.setLabels(labelSet);
-          }
-
-          bi.setLabel(SimpleLabels.toString(stp.getLabels()).replace("=", ":"));
-
-          // Look for isAlias entry.
-          String isAlias = Nml.getIsAliasPort(p.getRelation());
-          if (!Strings.isNullOrEmpty(isAlias)) {
-            log.error(">>>>>>>> isAlias: " + isAlias);
-            bi.setIsAlias(isAlias);
-          }
-        } catch (IllegalArgumentException ex) {
-          log.error("Skipping stp: {} : {}", ex.getMessage(), ex.getLocalizedMessage());
-        }
-      }
+      biMap.addAll(topology.getPorts());
+      uniToBiMap.putAll(topology.getMembers());
     }
 
     // Now we go back over the bidirectional ports and use the inbound isAlias
     // to look up the remote bidirection port entry.
+    int unusable = 0;
     for (PortMap bi : biMap) {
+      if (bi.getNetworkId() != null) {
+        graph.addNetwork(bi.getNetworkId());
+      }
+
       if (!Strings.isNullOrEmpty(bi.getIsAlias())) {
         // We have an isAlias entry so find the assoicated bidirectional port.
         PortMap match = uniToBiMap.get(bi.getIsAlias());
         if (match == null) {
           log.error("Could not find bidirectional port mapping isAlias {}", bi.getIsAlias());
+          if (bi.getNetworkId() != null) {
+            graph.addDangling(bi.getNetworkId(), bi.getIsAlias());
+          }
 
           // Try to derive the alias using magic.
           try {
-            String replaceAll = bi.getIsAlias().replaceAll("[:-]in$", "").replaceAll("[:-]out$", "");
-            SimpleStp stp = new SimpleStp(replaceAll);
-            bi.setRemote(strip_networkUrn(stp.getNetworkId()) + ":topology#" + strip(stp.getLocalId()) + "-(in|out)");
+            SimpleStp stp = Identifiers.parseStp(Identifiers.stripDirection(bi.getIsAlias()));
+            bi.setRemote(Identifiers.getRemote(stp));
             log.error(bi.getRemote());
           } catch (IllegalArgumentException ex) {
             log.error("Bad stpId {} : {}", bi.getIsAlias(), ex.getLocalizedMessage());
           }
         } else {
-          SimpleStp stp = new SimpleStp(match.getPortId());
-          bi.setRemote(strip_networkUrn(stp.getNetworkId()) + ":topology#" + strip(stp.getLocalId()) + "-(in|out)");
-        }
-      }
-    }
-
-    return biMap;
-  }
+          bi.setRemote(Identifiers.getRemote(Identifiers.parseStp(match.getPortId())));
+          if (bi.getNetworkId() != null && match.getNetworkId() != null) {
+            graph.addLink(bi.getNetworkId(), match.getNetworkId());
+          }
 
-  public NmlPortGroupType fixPortGroupType(NmlPortGroupType pg) throws IllegalArgumentException {
-    // We need to convert any MPLS labels to VLAN labels for the simulator,
-    // as well as make sure the label value ranges are correct.
-    for (NmlLabelGroupType lgt : pg.getLabelGroup()) {
-      String labelType = lgt.getLabeltype();
-      if (!Strings.isNullOrEmpty(labelType)) {
-        if (SimpleStp.NSI_VLAN_LABEL_URN.equalsIgnoreCase(labelType)) {
-          // GEANT doesn't see to understand the legal VLAN range.
-          String value = lgt.getValue();
-          if (!Strings.isNullOrEmpty(value)) {
-            lgt.setValue(value.replace("4096", "4095"));
+          // A link is unusable if both ends advertise VLAN but none in common.
+          if (!bi.getVlans().isEmpty() && !match.getVlans().isEmpty()
+                  && !bi.getVlans().intersects(match.getVlans())) {
+            log.warn("No common VLAN on link {} ({}) to {} ({})", bi.getPortId(), bi.getVlans(),
+                    match.getPortId(), match.getVlans());
+            unusable++;
           }
-        } else {
-          lgt.setLabeltype(SimpleStp.NSI_VLAN_LABEL_URN);
-          lgt.setValue("1-4095");
         }
       }
     }
 
-    return pg;
-  }
-
-  public NmlPortType fixPortType(NmlPortType pt) throws IllegalArgumentException {
-    // We need to convert any MPLS labels to VLAN labels for the simulator,
-    // as well as make sure the label value ranges are correct.
-    if (pt.getLabel() != null) {
-      String labelType = pt.getLabel().getLabeltype();
-      if (!Strings.isNullOrEmpty(labelType)) {
-        if (SimpleStp.NSI_VLAN_LABEL_URN.equalsIgnoreCase(labelType)) {
-          // GEANT doesn't see to understand the legal VLAN range.
-          String value = pt.getLabel().getValue();
-          if (!Strings.isNullOrEmpty(value)) {
-            pt.getLabel().setValue(value.replace("4096", "4095"));
-          }
-        } else {
-          pt.getLabel().setLabeltype(SimpleStp.NSI_VLAN_LABEL_URN);
-          pt.getLabel().setValue("1-4095");
-        }
-      }
+    if (unusable > 0) {
+      log.warn("Found {} links with no common VLAN", unusable);
     }
 
-    return pt;
+    return new PortTable(biMap);
   }
 
   /**
@@ -632,32 +1057,11 @@ public class ConfigWriter {
    * @throws IllegalArgumentException If an error outputting to device is encountered.
    */
   private void write(String outputName, List<String> lines) throws IllegalArgumentException {
-    BufferedWriter writer; // Output writer for desired stream.
-    try {
-      // If no filename we wrtie to stdout.
-      if (outputName == null) {
-        writer = new BufferedWriter(new OutputStreamWriter(System.out));
-      } else {
-        Path path;
-        if (Strings.isNullOrEmpty(outDir)) {
-          path = Paths.get(outputName);
-        } else {
-          path = Paths.get(outDir).resolve(outputName);
-        }
-
-        writer = new BufferedWriter(new FileWriter(path.toString()));
-      }
-
-      for (String line : lines) {
-        writer.write(line);
-      }
-
-      // Flush output and close device if not stdout.
-      writer.flush();
+    StringBuilder sb = new StringBuilder();
+    lines.forEach(sb::append);
 
-      if (outputName != null) {
-        writer.close();
-      }
+    try {
+      sink.write(outputName, sb.toString().getBytes(StandardCharsets.UTF_8));
     } catch (IOException io) {
       throw new IllegalArgumentException(
               String.format("ERROR: Output file could not be created: %s\n%s\n",
@@ -680,31 +1084,15 @@ public class ConfigWriter {
   }
 
   public static String strip(String id) {
-    return id.replace(":", "_").replace("#", "_");
+    return Identifiers.strip(id);
   }
 
   public static String strip_networkUrn(String id) {
     // We have to strip the URN bit off the front and any "topology" off the end.
-    return strip_networkLocal(id.substring(SimpleStp.NSI_NETWORK_URN_PREFIX.length()));
+    return Identifiers.stripNetworkUrn(id);
   }
 
   public static String strip_networkLocal(String id) {
-    // We have to strip the URN bit off the front and any "topology" off the end.
-    String result = id.replaceAll(":topology$", ":");
-
-    // Now move any end topology network string after the year to the start
-    // so we don't violate the URN rules.
-    if (result.endsWith(":")) {
-      int point = result.lastIndexOf(':');
-      result = result.substring(0, point);
-    } else {
-      // We need to move the string.
-      int point = result.lastIndexOf(':');
-      String start = result.substring(point + 1, result.length());
-      String end = result.substring(0, point);
-      result = start + "." + end;
-    }
-
-    return result;
+    return Identifiers.stripNetworkLocal(id);
   }
 }
@@ -1,38 +1,74 @@
 package net.es.sense.sim;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.mail.MessagingException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.Response;
 import javax.xml.bind.JAXBException;
 import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import lombok.extern.slf4j.Slf4j;
 import net.es.nsi.common.constants.Nsi;
-import net.es.nsi.common.jaxb.NmlParser;
 import net.es.nsi.common.jaxb.NsaParser;
-import net.es.nsi.common.jaxb.nml.NmlTopologyType;
 import net.es.nsi.common.jaxb.nsa.NsaType;
-import net.es.nsi.common.util.ContentTransferEncoding;
-import net.es.nsi.common.util.XmlUtilities;
 import net.es.nsi.dds.lib.client.DdsClient;
 import net.es.nsi.dds.lib.client.DocumentResult;
 import net.es.nsi.dds.lib.client.DocumentsResult;
-import net.es.nsi.dds.lib.jaxb.dds.ContentType;
 import net.es.nsi.dds.lib.jaxb.dds.DocumentType;
 
 /**
  * An utility class for access the NSI-DDS service.
  *
+ * Document retrieval and decoding is spread over a bounded pool of worker
+ * threads, however, results are always collected in request order so the
+ * returned maps are identical to those of a sequential run.
+ *
+ * Every raw document retrieved from the DDS is recorded in a snapshot that
+ * can be saved and later replayed through this controller in place of the
+ * live DDS.
+ *
+ * When given a cache of documents from a previous run the controller lists
+ * document summaries only, and retrieves the full content of documents that
+ * are new or whose version has changed.  All other documents are taken from
+ * the cache.
+ *
  * @author hacksaw
  */
 @Slf4j
 public class DdsController {
-  private final DdsClient dds = new DdsClient();
+  private final DdsClient dds;
   private final String baseUrl;
+  private final int threads;
+
+  // Documents retrieved from the DDS, or the documents being replayed.
+  private final DdsSnapshot snapshot;
+  private final boolean replay;
+
+  // Documents from a previous run used to avoid retrieving unchanged documents.
+  private final DdsSnapshot cache;
+
+  // True to keep the retrieved documents in the snapshot.
+  private boolean recording = true;
+
+  // Port records derived from unchanged topology documents in a previous run.
+  private PortCache portCache;
+
+  // The number and content size of documents retrieved from the DDS.
+  private final AtomicLong documentsFetched = new AtomicLong();
+  private final AtomicLong bytesFetched = new AtomicLong();
 
   /**
    * Create the DDS controller.
@@ -40,7 +76,146 @@ public class DdsController {
    * @param baseUrl The URL of the NSI-DDS service.
    */
   public DdsController(String baseUrl) {
+    this(baseUrl, 1);
+  }
+
+  /**
+   * Create the DDS controller.
+   *
+   * @param baseUrl The URL of the NSI-DDS service.
+   * @param threads The number of worker threads used to fetch and decode documents.
+   */
+  public DdsController(String baseUrl, int threads) {
+    this(baseUrl, threads, null);
+  }
+
+  /**
+   * Create the DDS controller using a cache of previously retrieved documents
+   * so only new or changed documents are retrieved from the DDS.
+   *
+   * @param baseUrl The URL of the NSI-DDS service.
+   * @param threads The number of worker threads used to fetch and decode documents.
+   * @param cache The documents retrieved in a previous run, or null for none.
+   */
+  public DdsController(String baseUrl, int threads, DdsSnapshot cache) {
+    this.dds = new DdsClient();
     this.baseUrl = baseUrl;
+    this.threads = threads < 1 ? 1 : threads;
+    this.snapshot = new DdsSnapshot();
+    this.replay = false;
+    this.cache = cache;
+  }
+
+  /**
+   * Create a DDS controller replaying documents from a previously recorded
+   * snapshot instead of accessing the DDS.
+   *
+   * @param snapshot The recorded documents.
+   * @param threads The number of worker threads used to decode documents.
+   */
+  public DdsController(DdsSnapshot snapshot, int threads) {
+    this.dds = null;
+    this.baseUrl = null;
+    this.threads = threads < 1 ? 1 : threads;
+    this.snapshot = snapshot;
+    this.replay = true;
+    this.cache = null;
+  }
+
+  /**
+   * Get the snapshot of raw documents retrieved from the DDS.
+   *
+   * @return The snapshot, empty if documents are not being recorded.
+   */
+  public DdsSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Set whether retrieved documents are kept in the snapshot.  Only needed
+   * when the snapshot is written or served, since holding every document of
+   * a large federation costs memory for the whole run.  Replayed snapshots
+   * are always kept.
+   *
+   * @param recording True to keep retrieved documents.
+   */
+  public void setRecording(boolean recording) {
+    this.recording = recording;
+  }
+
+  /**
+   * Determine if retrieved documents are kept in the snapshot.
+   *
+   * @return True if documents are kept.
+   */
+  public boolean isRecording() {
+    return recording;
+  }
+
+  private void record(DdsDocument document) {
+    if (recording && !replay) {
+      snapshot.add(document);
+    }
+  }
+
+  /**
+   * Use a cache of the port records derived from each topology document so
+   * unchanged topologies are not parsed again.
+   *
+   * @param portCache The port cache, or null for none.
+   */
+  public void setPortCache(PortCache portCache) {
+    this.portCache = portCache;
+  }
+
+  /**
+   * Get the cache of port records derived from topology documents.
+   *
+   * @return The port cache, or null for none.
+   */
+  public PortCache getPortCache() {
+    return portCache;
+  }
+
+  /**
+   * Get the number of documents retrieved from the DDS, excluding documents
+   * from the cache or a replayed snapshot.
+   *
+   * @return The number of documents.
+   */
+  public long getDocumentsFetched() {
+    return documentsFetched.get();
+  }
+
+  /**
+   * Get the total content size of the documents retrieved from the DDS.
+   *
+   * @return The content size in bytes as transferred.
+   */
+  public long getBytesFetched() {
+    return bytesFetched.get();
+  }
+
+  /**
+   * Reset the number and size of retrieved documents so they only cover the
+   * next run.
+   */
+  public void resetFetched() {
+    documentsFetched.set(0);
+    bytesFetched.set(0);
+  }
+
+  /**
+   * Count a document retrieved from the DDS, including documents delivered
+   * in notifications.
+   *
+   * @param document The document.
+   */
+  void fetched(DdsDocument document) {
+    documentsFetched.incrementAndGet();
+    if (document.getContent() != null) {
+      bytesFetched.addAndGet(document.getContent().length());
+    }
   }
 
   /**
@@ -53,16 +228,14 @@ public class DdsController {
   public Map<String, NsaMap> getNsaDocuments() throws NotFoundException, IOException {
     Map<String, NsaMap> map = new ConcurrentHashMap<>();
 
-    DocumentsResult documents = dds.getDocumentsByType(baseUrl, Nsi.NSI_DOC_TYPE_NSA_V1);
-    if (documents.getStatus() != Response.Status.OK) {
-      throw new NotFoundException("DDS return status " + documents.getStatus());
-    }
+    List<DdsDocument> documents = getDocumentsByType(Nsi.NSI_DOC_TYPE_NSA_V1);
 
-    Date now = new Date();
-    for (DocumentType d : documents.getDocuments()) {
+    List<Callable<NsaMap>> tasks = new ArrayList<>();
+    Date now = getNow();
+    for (DdsDocument d : documents) {
       // Do not process the document if it has already expired.
       try {
-        Date date = XmlUtilities.xmlGregorianCalendarToDate(d.getExpires());
+        Date date = d.getExpiresDate();
         if (date.before(now)) {
           log.error("NSA document {} has expired.", d.getId());
           continue;
@@ -72,33 +245,21 @@ public class DdsController {
         continue;
       }
 
-      ContentType content = d.getContent();
-      try {
-        NsaType nsa = NsaParser.getInstance().readDocument(
-                net.es.nsi.common.util.ContentType.decode(
-                        content.getContentType(),
-                        ContentTransferEncoding.decode(
-                                content.getContentTransferEncoding(),
-                                content.getValue()
-                        )
-                )
-        );
-
-        NsaMap holder = new NsaMap();
-        holder.setNsaId(nsa.getId());
-        holder.setDocument(nsa);
-        map.put(nsa.getId(), holder);
-
-      } catch (IOException | MessagingException | JAXBException ex) {
-        throw new IOException("Encountered exception processing document " + d.getHref(), ex);
-      }
+      tasks.add(() -> decodeNsa(d));
+    }
+
+    for (NsaMap holder : execute(tasks)) {
+      map.put(holder.getNsaId(), holder);
     }
 
     return map;
   }
 
   /**
-   * Get a list of topology documents.
+   * Get a list of topology documents.  All topology documents are retrieved
+   * from the DDS in a single bulk request and matched back to the networks
+   * advertised by each NSA.  If the DDS does not support the bulk listing we
+   * fall back to retrieving each document individually.
    *
    * @param list The list of NSA from which to retrieve documents.
    * @return Returns a Map of all topology documents indexed by network identifier.
@@ -107,60 +268,329 @@ public class DdsController {
    */
   public Map<String, TopologyMap> getTopologyDocuments(Collection<NsaMap> list)
           throws NotFoundException, IOException {
-    Map<String, TopologyMap> map = new ConcurrentHashMap<>();
+    List<DdsDocument> documents;
+    try {
+      documents = getDocumentsByType(Nsi.NSI_DOC_TYPE_TOPOLOGY_V2);
+    } catch (NotFoundException ex) {
+      log.info("{} for bulk topology request, retrieving documents individually.", ex.getMessage());
+      return getTopologyDocumentsByNetwork(list);
+    }
+
+    // Index the returned documents by NSA and network identifier so we can
+    // match them against the networks each NSA advertises.
+    Map<String, DdsDocument> index = new HashMap<>();
+    for (DdsDocument d : documents) {
+      index.put(d.getKey(), d);
+    }
 
     // Iterate through each NSA.
-    Date now = new Date();
+    List<Callable<TopologyMap>> tasks = new ArrayList<>();
+    Date now = getNow();
+    for (NsaMap nsa : list) {
+      for (String networkId : nsa.getDocument().getNetworkId()) {
+        DdsDocument document = index.get(
+                DdsDocument.getKey(nsa.getNsaId(), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, networkId));
+        if (document == null) {
+          log.debug("DDS return status \"{}\" for nsaId = {}, networkId = {}",
+                  Response.Status.NOT_FOUND, nsa.getNsaId(), networkId);
+          continue;
+        }
+
+        tasks.add(() -> decodeTopology(networkId, document, now));
+      }
+    }
+
+    return toTopologyMap(execute(tasks));
+  }
+
+  /**
+   * Get a list of topology documents by issuing an individual request for
+   * each network advertised by each NSA.
+   *
+   * @param list The list of NSA from which to retrieve documents.
+   * @return Returns a Map of all topology documents indexed by network identifier.
+   * @throws NotFoundException
+   * @throws IOException
+   */
+  public Map<String, TopologyMap> getTopologyDocumentsByNetwork(Collection<NsaMap> list)
+          throws NotFoundException, IOException {
+    // Iterate through each NSA.
+    List<Callable<TopologyMap>> tasks = new ArrayList<>();
+    Date now = getNow();
     for (NsaMap nsa : list) {
       // We need to retrieve each NML topology document associated with a networkid.
       for (String networkId : nsa.getDocument().getNetworkId()) {
-        DocumentResult document = dds.getDocument(baseUrl, nsa.getNsaId(), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, networkId);
-        if (null == document.getStatus()) {
-          throw new NotFoundException(String.format("DDS return no status for nsaId = %s, networkId = %s",
-                  document.getStatus(), nsa.getNsaId(), networkId));
-        } else switch (document.getStatus()) {
-          case OK:
-            try {
-              Date date = XmlUtilities.xmlGregorianCalendarToDate(document.getDocument().getExpires());
-              if (date.before(now)) {
-                log.error("Topology document {} has expired.", document.getDocument().getId());
-                continue;
-              }
-
-              // We got a document so decode and parse into a NML structure.
-              ContentType content = document.getDocument().getContent();
-              NmlTopologyType topology = NmlParser.getInstance().readDocument(
-                      net.es.nsi.common.util.ContentType.decode(
-                              content.getContentType(),
-                              ContentTransferEncoding.decode(
-                                      content.getContentTransferEncoding(),
-                                      content.getValue()
-                              )
-                      )
-              );
-
-              // Store the retrieved document against the networkId.
-              TopologyMap holder = new TopologyMap();
-              holder.setNetworkId(networkId);
-              holder.setDocument(topology);
-              map.put(topology.getId(), holder);
-            } catch (DatatypeConfigurationException ex) {
-                log.error("Topology document {} has invalid expires date.", document.getDocument().getId());
-            } catch (IOException | MessagingException | JAXBException ex) {
-              throw new IOException("Encountered exception processing networkId " + networkId, ex);
-            }
-            break;
-          case NOT_FOUND:
-            log.debug("DDS return status \"{}\" for nsaId = {}, networkId = {}",
-                    document.getStatus(), nsa.getNsaId(), networkId);
-            break;
-          default:
-            throw new NotFoundException(String.format("DDS return status \"%s\" for nsaId = %s, networkId = %s",
-                    document.getStatus(), nsa.getNsaId(), networkId));
+        tasks.add(() -> getTopology(nsa.getNsaId(), networkId, now));
+      }
+    }
+
+    return toTopologyMap(execute(tasks));
+  }
+
+  /**
+   * Retrieve and decode a single topology document from the DDS.
+   *
+   * @param nsaId The NSA identifier owning the topology.
+   * @param networkId The network identifier of the topology.
+   * @param now The time against which document expiry is checked.
+   * @return The decoded topology, or null if it was not found or has expired.
+   * @throws NotFoundException If the DDS returned an unexpected status.
+   * @throws IOException If the document content could not be decoded.
+   */
+  private TopologyMap getTopology(String nsaId, String networkId, Date now)
+          throws NotFoundException, IOException {
+    DdsDocument document = getDocument(nsaId, Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, networkId);
+    if (document == null) {
+      return null;
+    }
+    return decodeTopology(networkId, document, now);
+  }
+
+  /**
+   * Get all documents of a specific type from the DDS, or from the snapshot
+   * when replaying.
+   *
+   * @param type The document type.
+   * @return The list of documents.
+   * @throws NotFoundException If the DDS did not return the document list.
+   */
+  private List<DdsDocument> getDocumentsByType(String type) throws NotFoundException, IOException {
+    if (replay) {
+      return snapshot.getDocumentsByType(type);
+    } else if (cache != null) {
+      try {
+        return getChangedDocumentsByType(type);
+      } catch (NotFoundException ex) {
+        log.info("{} for summary request, retrieving all documents of type {}.", ex.getMessage(), type);
+      }
+    }
+
+    DocumentsResult documents = dds.getDocumentsByType(baseUrl, type);
+    if (documents.getStatus() != Response.Status.OK || documents.getDocuments() == null) {
+      throw new NotFoundException("DDS return status " + documents.getStatus());
+    }
+
+    List<DdsDocument> result = new ArrayList<>(documents.getDocuments().size());
+    for (DocumentType d : documents.getDocuments()) {
+      DdsDocument document = DdsDocument.of(d);
+      fetched(document);
+      record(document);
+      result.add(document);
+    }
+    return result;
+  }
+
+  /**
+   * Get all documents of a specific type, only retrieving the content of
+   * documents that are new or have changed since they were cached.
+   *
+   * @param type The document type.
+   * @return The list of documents.
+   * @throws NotFoundException If the DDS did not return the summary list.
+   * @throws IOException If a changed document could not be retrieved.
+   */
+  private List<DdsDocument> getChangedDocumentsByType(String type) throws NotFoundException, IOException {
+    List<DdsDocument> summaries = getDocumentSummaries(type);
+
+    List<Callable<DdsDocument>> tasks = new ArrayList<>(summaries.size());
+    int changed = 0;
+    for (DdsDocument summary : summaries) {
+      DdsDocument cached = cache.getDocument(summary.getNsa(), type, summary.getId());
+      if (cached != null && cached.getContent() != null && summary.getVersion() != null
+              && summary.getVersion().equals(cached.getVersion())) {
+        // Unchanged so refresh the metadata and use the cached content.
+        cached.setHref(summary.getHref());
+        cached.setExpires(summary.getExpires());
+        cached.setLastDiscovered(summary.getLastDiscovered());
+        record(cached);
+        tasks.add(() -> cached);
+      } else {
+        changed++;
+        tasks.add(() -> getDocument(summary.getNsa(), type, summary.getId()));
+      }
+    }
+
+    log.info("Retrieving {} new or changed documents of type {}, {} unchanged.",
+            changed, type, summaries.size() - changed);
+
+    List<DdsDocument> result = new ArrayList<>(summaries.size());
+    for (DdsDocument document : execute(tasks)) {
+      if (document != null) {
+        result.add(document);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get a summary of all documents of a specific type from the DDS.  A
+   * summary holds the document metadata without the document content.
+   *
+   * @param type The document type.
+   * @return The list of document summaries.
+   * @throws NotFoundException If the DDS did not return the summary list.
+   */
+  private List<DdsDocument> getDocumentSummaries(String type) throws NotFoundException {
+    Client client = ClientBuilder.newClient();
+    try {
+      Response response = client.target(baseUrl)
+              .path("documents")
+              .queryParam("type", type)
+              .queryParam("summary", true)
+              .request(DdsXml.NSI_DDS_V1_XML)
+              .get();
+      try {
+        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+          throw new NotFoundException("DDS return status " + response.getStatus());
+        }
+
+        List<DdsDocument> result = new ArrayList<>();
+        for (DocumentType d : DdsXml.readDocuments(response.readEntity(InputStream.class))) {
+          result.add(DdsDocument.of(d));
+        }
+        return result;
+      } finally {
+        response.close();
+      }
+    } catch (ProcessingException | JAXBException | XMLStreamException ex) {
+      throw new NotFoundException("DDS summary request failed " + ex.getMessage(), ex);
+    } finally {
+      client.close();
+    }
+  }
+
+  /**
+   * Get a single document from the DDS, or from the snapshot when replaying.
+   *
+   * @param nsaId The NSA identifier owning the document.
+   * @param type The document type.
+   * @param id The document identifier.
+   * @return The document, or null if it was not found.
+   * @throws NotFoundException If the DDS returned an unexpected status.
+   */
+  private DdsDocument getDocument(String nsaId, String type, String id) throws NotFoundException {
+    if (replay) {
+      return snapshot.getDocument(nsaId, type, id);
+    }
+
+    DocumentResult document = dds.getDocument(baseUrl, nsaId, type, id);
+    if (null == document.getStatus()) {
+      throw new NotFoundException(String.format("DDS return no status for nsaId = %s, networkId = %s",
+              document.getStatus(), nsaId, id));
+    } else switch (document.getStatus()) {
+      case OK:
+        DdsDocument result = DdsDocument.of(document.getDocument());
+        fetched(result);
+        record(result);
+        return result;
+      case NOT_FOUND:
+        log.debug("DDS return status \"{}\" for nsaId = {}, networkId = {}",
+                document.getStatus(), nsaId, id);
+        return null;
+      default:
+        throw new NotFoundException(String.format("DDS return status \"%s\" for nsaId = %s, networkId = %s",
+                document.getStatus(), nsaId, id));
+    }
+  }
+
+  /**
+   * The time against which document expiry is checked.  When replaying we
+   * use the time the snapshot was recorded so replays are repeatable.
+   *
+   * @return The current time or the snapshot creation time.
+   */
+  private Date getNow() {
+    return replay ? snapshot.getCreated() : new Date();
+  }
+
+  /**
+   * Decode an NSA document.
+   *
+   * @param document The DDS document containing the NSA description.
+   * @return The decoded NSA.
+   * @throws IOException If the document content could not be decoded.
+   */
+  NsaMap decodeNsa(DdsDocument document) throws IOException {
+    try {
+      NsaType nsa = NsaParser.getInstance().readDocument(document.decode());
+
+      NsaMap holder = new NsaMap();
+      holder.setNsaId(nsa.getId());
+      holder.setDocument(nsa);
+      return holder;
+    } catch (IOException | MessagingException | JAXBException ex) {
+      throw new IOException("Encountered exception processing document " + document.getHref(), ex);
+    }
+  }
+
+  /**
+   * Decode a topology document if it has not yet expired.
+   *
+   * @param networkId The network identifier associated with the document.
+   * @param document The DDS document containing the topology.
+   * @param now The time against which document expiry is checked.
+   * @return The decoded topology, or null if the document has expired.
+   * @throws IOException If the document content could not be decoded.
+   */
+  TopologyMap decodeTopology(String networkId, DdsDocument document, Date now)
+          throws IOException {
+    try {
+      Date date = document.getExpiresDate();
+      if (date.before(now)) {
+        log.error("Topology document {} has expired.", document.getId());
+        return null;
+      }
+
+      // Reuse the port records derived from an unchanged document.
+      if (portCache != null) {
+        TopologyMap cached = portCache.get(document);
+        if (cached != null) {
+          return cached;
         }
       }
+
+      // We got a document so decode it and derive the port records we need.
+      // Nothing else from the document is retained.
+      TopologyMap topology = PortExtractor.extract(networkId, NmlPorts.read(document.decode()));
+      if (portCache != null) {
+        portCache.put(document, topology);
+      }
+      return topology;
+    } catch (DatatypeConfigurationException ex) {
+      log.error("Topology document {} has invalid expires date.", document.getId());
+      return null;
+    } catch (IOException | MessagingException | XMLStreamException ex) {
+      throw new IOException("Encountered exception processing networkId " + networkId, ex);
     }
+  }
 
+  /**
+   * Index decoded topologies by topology identifier, preserving request order.
+   *
+   * @param list The decoded topologies, null entries are skipped.
+   * @return Returns a Map of all topology documents indexed by network identifier.
+   */
+  private static Map<String, TopologyMap> toTopologyMap(List<TopologyMap> list) {
+    Map<String, TopologyMap> map = new ConcurrentHashMap<>();
+    for (TopologyMap holder : list) {
+      if (holder != null) {
+        map.put(holder.getId(), holder);
+      }
+    }
     return map;
   }
+
+  /**
+   * Run the list of tasks on the worker pool and return their results in
+   * the order the tasks were submitted.
+   *
+   * @param <T> The task result type.
+   * @param tasks The tasks to run.
+   * @return The task results in submission order.
+   * @throws NotFoundException If a task failed to locate a document.
+   * @throws IOException If a task failed to retrieve or decode a document.
+   */
+  private <T> List<T> execute(List<Callable<T>> tasks) throws NotFoundException, IOException {
+    return Workers.execute(tasks, threads, "dds-worker-%d");
+  }
 }
@@ -0,0 +1,140 @@
+package net.es.sense.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+import javax.mail.MessagingException;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import lombok.Data;
+import net.es.nsi.common.util.ContentTransferEncoding;
+import net.es.nsi.common.util.XmlUtilities;
+import net.es.nsi.dds.lib.jaxb.dds.ContentType;
+import net.es.nsi.dds.lib.jaxb.dds.DocumentType;
+
+/**
+ * A simple bean holding the raw content and metadata of a DDS document,
+ * independent of the JAXB representation returned by the DDS client so it
+ * can be recorded and replayed locally.
+ *
+ * @author hacksaw
+ */
+@Data
+public class DdsDocument {
+  private String nsa;
+  private String type;
+  private String id;
+  private String href;
+  private String version;
+  private String expires;
+  private String contentType;
+  private String contentTransferEncoding;
+  private String content;
+
+  // The last time this document was seen in the DDS.
+  private long lastDiscovered;
+
+  /**
+   * Create a document bean from the JAXB document returned by the DDS.
+   *
+   * @param document The DDS document.
+   * @return The document bean.
+   */
+  public static DdsDocument of(DocumentType document) {
+    DdsDocument result = new DdsDocument();
+    result.setNsa(document.getNsa());
+    result.setType(document.getType());
+    result.setId(document.getId());
+    result.setHref(document.getHref());
+    result.setVersion(toString(document.getVersion()));
+    result.setExpires(toString(document.getExpires()));
+    result.setLastDiscovered(System.currentTimeMillis());
+
+    ContentType c = document.getContent();
+    if (c != null) {
+      result.setContentType(c.getContentType());
+      result.setContentTransferEncoding(c.getContentTransferEncoding());
+      result.setContent(c.getValue());
+    }
+
+    return result;
+  }
+
+  /**
+   * Build the key uniquely identifying a document within the DDS.
+   *
+   * @param nsa The NSA identifier owning the document.
+   * @param type The document type.
+   * @param id The document identifier.
+   * @return The key.
+   */
+  public static String getKey(String nsa, String type, String id) {
+    return type + "/" + nsa + "/" + id;
+  }
+
+  /**
+   * Get the key uniquely identifying this document within the DDS.
+   *
+   * @return The key.
+   */
+  public String getKey() {
+    return getKey(nsa, type, id);
+  }
+
+  /**
+   * Get the document expiry time.
+   *
+   * @return The expiry time.
+   * @throws DatatypeConfigurationException If the expiry time is missing or invalid.
+   */
+  public Date getExpiresDate() throws DatatypeConfigurationException {
+    if (expires == null) {
+      throw new DatatypeConfigurationException("Missing expires date");
+    }
+
+    try {
+      return XmlUtilities.xmlGregorianCalendarToDate(
+              DatatypeFactory.newInstance().newXMLGregorianCalendar(expires));
+    } catch (IllegalArgumentException ex) {
+      throw new DatatypeConfigurationException("Invalid expires date " + expires, ex);
+    }
+  }
+
+  /**
+   * Decode the document content based on its transfer encoding and content type.
+   *
+   * @return A stream containing the decoded document.
+   * @throws IOException If the content could not be decoded.
+   * @throws MessagingException If the content transfer encoding is invalid.
+   */
+  public InputStream decode() throws IOException, MessagingException {
+    return net.es.nsi.common.util.ContentType.decode(contentType,
+            ContentTransferEncoding.decode(contentTransferEncoding, content));
+  }
+
+  /**
+   * Set the content to an XML document, gzip compressed and base64 encoded
+   * as the NSI-DDS transfers it.
+   *
+   * @param xml The XML document.
+   * @throws IOException If the content could not be compressed.
+   */
+  public void setXmlContent(byte[] xml) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(os)) {
+      gzip.write(xml);
+    }
+
+    setContentType(net.es.nsi.common.util.ContentType.XGZIP);
+    setContentTransferEncoding(ContentTransferEncoding.BASE64);
+    setContent(Base64.getEncoder().encodeToString(os.toByteArray()));
+  }
+
+  private static String toString(XMLGregorianCalendar calendar) {
+    return calendar == null ? null : calendar.toXMLFormat();
+  }
+}
@@ -0,0 +1,19 @@
+package net.es.sense.sim;
+
+import lombok.Data;
+
+/**
+ * A simple bean holding a document change event delivered by the NSI-DDS.
+ *
+ * @author hacksaw
+ */
+@Data
+public class DdsNotification {
+  // The DDS document event types.
+  public static final String NEW = "New";
+  public static final String UPDATED = "Updated";
+  public static final String DELETED = "Deleted";
+
+  private String event;
+  private DdsDocument document;
+}
@@ -0,0 +1,663 @@
+package net.es.sense.sim;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import com.google.common.escape.Escaper;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.xml.XmlEscapers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLStreamException;
+import lombok.extern.slf4j.Slf4j;
+import net.es.nsi.common.constants.Nsi;
+import net.es.nsi.common.jaxb.NsaParser;
+
+/**
+ * A lightweight in-process NSI-DDS relay serving the documents retrieved
+ * from the DDS, plus the discovery documents of the simulated OpenNSA
+ * instances, to all simulated SENSE-RM instances.
+ *
+ * Responses are encoded once each time the document set changes and then
+ * served from memory, so a large number of instances can load the full
+ * document set and subscribe for notifications concurrently.  Subscription
+ * filters are not evaluated; every subscriber is notified of all changes.
+ * Only callbacks on this host are accepted since the relay serves the
+ * simulated instances running alongside it.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class DdsRelay implements AutoCloseable {
+  // The path on which the relay is served.
+  public static final String PATH = "/dds";
+
+  // The NSA identifier of this relay reported in notifications.
+  private static final String PROVIDER_ID = "urn:ogf:network:es.net:2013:sense-sim:dds";
+
+  // How often we poll the simulated OpenNSA instances for their discovery documents.
+  private static final long POLL_TIME = TimeUnit.SECONDS.toMillis(30);
+
+  // Timeout for requests made to OpenNSA instances and subscriber callbacks.
+  private static final int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+  // How long the discovery documents of simulated OpenNSA instances remain valid.
+  private static final long EXPIRES_TIME = TimeUnit.DAYS.toMillis(365);
+
+  // Threads serving requests and delivering notifications.
+  private static final int HTTP_THREADS = 32;
+  private static final int NOTIFIER_THREADS = 8;
+
+  private static final String SUBSCRIPTION = "<%s%s id=\"%s\" href=\"%s\">\n"
+          + "  <requesterId>%s</requesterId>\n"
+          + "  <callback>%s</callback>\n"
+          + "  <filter>\n"
+          + "    <include>\n"
+          + "      <event>All</event>\n"
+          + "    </include>\n"
+          + "  </filter>\n"
+          + "</%s>\n";
+
+  private static final String NOTIFICATIONS_START
+          = "<tns:notifications xmlns:tns=\"%s\" providerId=\"%s\" id=\"%s\" href=\"%s\">\n";
+  private static final String NOTIFICATIONS_END = "</tns:notifications>\n";
+  private static final String DOCUMENTS_START = "<tns:documents xmlns:tns=\"%s\">\n";
+  private static final String DOCUMENTS_END = "</tns:documents>\n";
+
+  private final String address;
+  private final int port;
+  private final String baseUrl;
+
+  // Documents from the DDS, discovery documents from the simulated OpenNSA
+  // instances indexed by discovery URL, and the hash of the last discovery
+  // content retrieved from each instance.  The DDS documents are replaced as
+  // a whole so a publish never sees a partial set.
+  private volatile Map<String, DdsDocument> ddsDocuments = Collections.emptyMap();
+  private final Map<String, DdsDocument> peerDocuments = new ConcurrentHashMap<>();
+  private final Map<String, String> peerHashes = new ConcurrentHashMap<>();
+  private volatile List<String> peerUrls = Collections.emptyList();
+
+  // The current pre-encoded document set and our subscribers.
+  private volatile Content content = new Content(Collections.emptyList(), null);
+  private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+  private final CountDownLatch closed = new CountDownLatch(1);
+  private HttpServer server;
+  private ExecutorService httpExecutor;
+  private ExecutorService notifier;
+  private ScheduledExecutorService poller;
+
+  /**
+   * Create a relay.
+   *
+   * @param address The local address on which to serve the relay, and at
+   *    which subscribers reach it.
+   * @param port The local port on which to serve the relay.
+   */
+  public DdsRelay(String address, int port) {
+    this.address = address;
+    this.port = port;
+    this.baseUrl = "http://" + address + ":" + port + PATH;
+  }
+
+  /**
+   * Start serving requests and polling the simulated OpenNSA instances.
+   *
+   * @throws IOException If the relay endpoint could not be started.
+   */
+  public void start() throws IOException {
+    httpExecutor = Executors.newFixedThreadPool(HTTP_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("dds-relay-%d").setDaemon(true).build());
+    notifier = Executors.newFixedThreadPool(NOTIFIER_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("dds-relay-notifier-%d").setDaemon(true).build());
+    poller = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("dds-relay-poller-%d").setDaemon(true).build());
+
+    server = HttpServer.create(new InetSocketAddress(address, port), 0);
+    server.createContext(PATH, this::handle);
+    server.setExecutor(httpExecutor);
+    server.start();
+
+    poller.scheduleWithFixedDelay(this::poll, 0, POLL_TIME, TimeUnit.MILLISECONDS);
+    log.info("DDS relay serving {}", baseUrl);
+  }
+
+  /**
+   * Replace the set of documents served by the relay, notifying subscribers
+   * of any change.  Serialized with the publication of polled discovery
+   * documents so subscribers only see complete changes.
+   *
+   * @param documents The documents retrieved from the DDS.
+   * @param discoveryUrls The discovery URLs of the simulated OpenNSA instances.
+   */
+  public synchronized void update(Collection<DdsDocument> documents, List<String> discoveryUrls) {
+    Map<String, DdsDocument> replacement = new HashMap<>();
+    documents.forEach(d -> replacement.put(d.getKey(), d));
+    ddsDocuments = replacement;
+
+    // Forget any OpenNSA instance no longer in the simulation.
+    peerUrls = new ArrayList<>(discoveryUrls);
+    peerDocuments.keySet().retainAll(peerUrls);
+    peerHashes.keySet().retainAll(peerUrls);
+
+    publish();
+  }
+
+  /**
+   * Wait until the relay is closed.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public void await() throws InterruptedException {
+    closed.await();
+  }
+
+  /**
+   * Stop the relay.
+   */
+  @Override
+  public void close() {
+    if (server != null) {
+      server.stop(0);
+    }
+
+    for (ExecutorService executor : new ExecutorService[] { poller, notifier, httpExecutor }) {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+
+    closed.countDown();
+  }
+
+  /**
+   * Encode the current document set and notify subscribers of changes.
+   */
+  private synchronized void publish() {
+    List<DdsDocument> documents = new ArrayList<>(ddsDocuments.values());
+    documents.addAll(peerDocuments.values());
+
+    Content previous = content;
+    content = new Content(documents, baseUrl);
+
+    // Determine what changed since the last document set.
+    StringBuilder sb = new StringBuilder();
+    int count = 0;
+    for (Map.Entry<String, DdsDocument> entry : content.documents.entrySet()) {
+      DdsDocument old = previous.documents.get(entry.getKey());
+      if (old == null) {
+        appendNotification(sb, DdsNotification.NEW, content.fragments.get(entry.getKey()));
+        count++;
+      } else if (!Strings.nullToEmpty(old.getVersion()).equals(entry.getValue().getVersion())) {
+        appendNotification(sb, DdsNotification.UPDATED, content.fragments.get(entry.getKey()));
+        count++;
+      }
+    }
+
+    for (String key : Sets.difference(previous.documents.keySet(), content.documents.keySet())) {
+      appendNotification(sb, DdsNotification.DELETED, previous.fragments.get(key));
+      count++;
+    }
+
+    log.info("DDS relay serving {} documents, {} changed, {} subscribers",
+            content.documents.size(), count, subscriptions.size());
+
+    if (count > 0) {
+      byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+      subscriptions.values().forEach(s -> notify(s, body));
+    }
+  }
+
+  /**
+   * Poll the simulated OpenNSA instances for their discovery documents,
+   * publishing any that are new or have changed.
+   */
+  private void poll() {
+    boolean changed = false;
+    for (String url : peerUrls) {
+      byte[] bytes;
+      try {
+        bytes = get(url);
+      } catch (IOException ex) {
+        // The instance is most likely not running yet.
+        log.debug("Could not retrieve discovery document {} : {}", url, ex.getMessage());
+        continue;
+      }
+
+      String hash = Hashing.sha256().hashBytes(bytes).toString();
+      if (hash.equals(peerHashes.get(url))) {
+        continue;
+      }
+
+      try {
+        peerDocuments.put(url, toDocument(bytes));
+        peerHashes.put(url, hash);
+        changed = true;
+      } catch (IOException | JAXBException | DatatypeConfigurationException ex) {
+        log.error("Invalid discovery document {}", url, ex);
+      }
+    }
+
+    if (changed) {
+      publish();
+    }
+  }
+
+  /**
+   * Wrap an OpenNSA discovery document into a DDS document.
+   *
+   * @param bytes The discovery document.
+   * @return The DDS document.
+   */
+  private static DdsDocument toDocument(byte[] bytes)
+          throws IOException, JAXBException, DatatypeConfigurationException {
+    String nsaId = NsaParser.getInstance().readDocument(new ByteArrayInputStream(bytes)).getId();
+
+    long now = System.currentTimeMillis();
+    DdsDocument document = new DdsDocument();
+    document.setNsa(nsaId);
+    document.setType(Nsi.NSI_DOC_TYPE_NSA_V1);
+    document.setId(nsaId);
+    document.setVersion(toXmlDate(now));
+    document.setExpires(toXmlDate(now + EXPIRES_TIME));
+    document.setXmlContent(bytes);
+    document.setLastDiscovered(now);
+    return document;
+  }
+
+  private static String toXmlDate(long time) throws DatatypeConfigurationException {
+    GregorianCalendar calendar = new GregorianCalendar();
+    calendar.setTimeInMillis(time);
+    return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar).toXMLFormat();
+  }
+
+  /**
+   * Handle a request to the relay.
+   *
+   * @param exchange The HTTP exchange.
+   * @throws IOException If the response could not be sent.
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod().toUpperCase();
+      List<String> path = getPath(exchange);
+      if (path.isEmpty()) {
+        exchange.sendResponseHeaders(404, -1);
+      } else if ("documents".equals(path.get(0)) && "GET".equals(method)) {
+        getDocuments(exchange, path);
+      } else if ("subscriptions".equals(path.get(0))) {
+        if (path.size() == 1 && "POST".equals(method)) {
+          addSubscription(exchange);
+        } else if (path.size() == 1 && "GET".equals(method)) {
+          StringBuilder sb = new StringBuilder(DdsXml.XML_DECLARATION);
+          sb.append("<tns:subscriptions xmlns:tns=\"").append(DdsXml.NSI_DDS_NAMESPACE).append("\">\n");
+          subscriptions.values().forEach(s -> sb.append(s.toXml("subscription", null)));
+          sb.append("</tns:subscriptions>\n");
+          send(exchange, 200, sb.toString().getBytes(StandardCharsets.UTF_8), false);
+        } else if (path.size() == 2 && "GET".equals(method)) {
+          Subscription s = subscriptions.get(path.get(1));
+          if (s == null) {
+            exchange.sendResponseHeaders(404, -1);
+          } else {
+            String xml = DdsXml.XML_DECLARATION + s.toXml("tns:subscription", DdsXml.NSI_DDS_NAMESPACE);
+            send(exchange, 200, xml.getBytes(StandardCharsets.UTF_8), false);
+          }
+        } else if (path.size() == 2 && "DELETE".equals(method)) {
+          Subscription s = subscriptions.remove(path.get(1));
+          exchange.sendResponseHeaders(s == null ? 404 : 204, -1);
+        } else {
+          exchange.sendResponseHeaders(405, -1);
+        }
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Return the requested documents.  An unfiltered request for all documents
+   * is served directly from the pre-encoded responses.
+   */
+  private void getDocuments(HttpExchange exchange, List<String> path) throws IOException {
+    Content current = content;
+    Map<String, String> query = getQuery(exchange);
+    String nsa = path.size() > 1 ? path.get(1) : query.get("nsa");
+    String type = path.size() > 2 ? path.get(2) : query.get("type");
+    String id = path.size() > 3 ? path.get(3) : query.get("id");
+    boolean summary = Boolean.parseBoolean(query.get("summary"));
+
+    // A request for a specific document returns only that document.
+    if (path.size() > 3) {
+      DdsDocument document = current.documents.get(DdsDocument.getKey(nsa, type, id));
+      if (document == null) {
+        exchange.sendResponseHeaders(404, -1);
+      } else {
+        String xml = DdsXml.XML_DECLARATION + DdsXml.toXml(summary ? summarize(document) : document,
+                "tns:document", DdsXml.NSI_DDS_NAMESPACE);
+        send(exchange, 200, xml.getBytes(StandardCharsets.UTF_8), false);
+      }
+      return;
+    }
+
+    boolean gzip = Strings.nullToEmpty(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip");
+    if (nsa == null && type == null && id == null && !summary) {
+      send(exchange, 200, gzip ? current.allGzip : current.all, gzip);
+      return;
+    }
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    os.write(String.format(DdsXml.XML_DECLARATION + DOCUMENTS_START, DdsXml.NSI_DDS_NAMESPACE)
+            .getBytes(StandardCharsets.UTF_8));
+    for (Map.Entry<String, DdsDocument> entry : current.documents.entrySet()) {
+      DdsDocument d = entry.getValue();
+      if ((nsa == null || nsa.equals(d.getNsa())) && (type == null || type.equals(d.getType()))
+              && (id == null || id.equals(d.getId()))) {
+        if (summary) {
+          os.write(DdsXml.toXml(summarize(d), "document", null).getBytes(StandardCharsets.UTF_8));
+        } else {
+          os.write(current.fragments.get(entry.getKey()));
+        }
+      }
+    }
+    os.write(DOCUMENTS_END.getBytes(StandardCharsets.UTF_8));
+    send(exchange, 200, gzip ? gzip(os.toByteArray()) : os.toByteArray(), gzip);
+  }
+
+  /**
+   * Add a new subscription and send it the current document set.
+   */
+  private void addSubscription(HttpExchange exchange) throws IOException {
+    Map<String, String> request;
+    try (InputStream is = exchange.getRequestBody()) {
+      request = DdsXml.readElements(is, Sets.newHashSet("requesterId", "callback"));
+    } catch (XMLStreamException ex) {
+      log.error("Received invalid subscription request", ex);
+      exchange.sendResponseHeaders(400, -1);
+      return;
+    }
+
+    if (Strings.isNullOrEmpty(request.get("callback"))) {
+      exchange.sendResponseHeaders(400, -1);
+      return;
+    }
+
+    // The simulated instances run on this host, so we never deliver
+    // notifications anywhere else.
+    if (!isLocal(request.get("callback"))) {
+      log.error("Rejected DDS relay subscription with callback {}", request.get("callback"));
+      exchange.sendResponseHeaders(403, -1);
+      return;
+    }
+
+    String id = UUID.randomUUID().toString();
+    Subscription subscription = new Subscription(id, baseUrl + "/subscriptions/" + id,
+            request.get("requesterId"), request.get("callback"));
+    subscriptions.put(id, subscription);
+    log.info("New DDS relay subscription {} for {}", id, subscription.callback);
+
+    exchange.getResponseHeaders().add("Location", subscription.href);
+    String xml = DdsXml.XML_DECLARATION + subscription.toXml("tns:subscription", DdsXml.NSI_DDS_NAMESPACE);
+    send(exchange, 201, xml.getBytes(StandardCharsets.UTF_8), false);
+
+    // Send the initial notification of all documents.
+    Content current = content;
+    if (!current.documents.isEmpty()) {
+      StringBuilder sb = new StringBuilder();
+      current.fragments.values().forEach(f -> appendNotification(sb, DdsNotification.NEW, f));
+      notify(subscription, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Deliver a set of encoded notifications to a subscriber.
+   */
+  private void notify(Subscription subscription, byte[] notifications) {
+    notifier.execute(() -> {
+      try {
+        HttpURLConnection connection = (HttpURLConnection) new URL(subscription.callback).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", DdsXml.NSI_DDS_V1_XML);
+
+        byte[] start = String.format(DdsXml.XML_DECLARATION + NOTIFICATIONS_START, DdsXml.NSI_DDS_NAMESPACE,
+                PROVIDER_ID, subscription.id, subscription.href).getBytes(StandardCharsets.UTF_8);
+        byte[] end = NOTIFICATIONS_END.getBytes(StandardCharsets.UTF_8);
+        connection.setFixedLengthStreamingMode(start.length + notifications.length + end.length);
+        try (OutputStream os = connection.getOutputStream()) {
+          os.write(start);
+          os.write(notifications);
+          os.write(end);
+        }
+
+        int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+          log.error("Subscriber {} returned status {} for notification", subscription.callback, status);
+        }
+        connection.disconnect();
+      } catch (IOException ex) {
+        log.error("Failed to notify subscriber {} : {}", subscription.callback, ex.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Determine if a callback is an HTTP URL on this host.
+   *
+   * @param callback The callback URL.
+   * @return True if the callback host is a loopback or local interface address.
+   */
+  static boolean isLocal(String callback) {
+    try {
+      URL url = new URL(callback);
+      if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+        return false;
+      }
+
+      InetAddress host = InetAddress.getByName(url.getHost());
+      return host.isLoopbackAddress() || NetworkInterface.getByInetAddress(host) != null;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  private static void appendNotification(StringBuilder sb, String event, byte[] fragment) {
+    sb.append("<notification>\n<event>").append(event).append("</event>\n")
+            .append(new String(fragment, StandardCharsets.UTF_8))
+            .append("</notification>\n");
+  }
+
+  private static DdsDocument summarize(DdsDocument document) {
+    DdsDocument summary = copy(document);
+    summary.setContentType(null);
+    summary.setContentTransferEncoding(null);
+    summary.setContent(null);
+    return summary;
+  }
+
+  private static DdsDocument copy(DdsDocument document) {
+    DdsDocument copy = new DdsDocument();
+    copy.setNsa(document.getNsa());
+    copy.setType(document.getType());
+    copy.setId(document.getId());
+    copy.setHref(document.getHref());
+    copy.setVersion(document.getVersion());
+    copy.setExpires(document.getExpires());
+    copy.setContentType(document.getContentType());
+    copy.setContentTransferEncoding(document.getContentTransferEncoding());
+    copy.setContent(document.getContent());
+    copy.setLastDiscovered(document.getLastDiscovered());
+    return copy;
+  }
+
+  private static byte[] get(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(TIMEOUT);
+    connection.setReadTimeout(TIMEOUT);
+    try {
+      if (connection.getResponseCode() != 200) {
+        throw new IOException("Status " + connection.getResponseCode());
+      }
+      try (InputStream is = connection.getInputStream()) {
+        return ByteStreams.toByteArray(is);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body, boolean gzip) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", DdsXml.NSI_DDS_V1_XML);
+    if (gzip) {
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length / 4);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(os)) {
+      gzip.write(bytes);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Failed to compress response", ex);
+    }
+    return os.toByteArray();
+  }
+
+  private static List<String> getPath(HttpExchange exchange) throws UnsupportedEncodingException {
+    String path = exchange.getRequestURI().getRawPath().substring(PATH.length());
+    List<String> result = new ArrayList<>();
+    for (String segment : path.split("/")) {
+      if (!segment.isEmpty()) {
+        result.add(URLDecoder.decode(segment, "UTF-8"));
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, String> getQuery(HttpExchange exchange) throws UnsupportedEncodingException {
+    Map<String, String> result = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query != null) {
+      for (String param : query.split("&")) {
+        int eq = param.indexOf('=');
+        String name = URLDecoder.decode(eq < 0 ? param : param.substring(0, eq), "UTF-8");
+        result.put(name, eq < 0 ? "true" : URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return result;
+  }
+
+  private static String encode(String segment) {
+    try {
+      return URLEncoder.encode(segment, "UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * An immutable, pre-encoded set of documents served by the relay.
+   */
+  private static class Content {
+    // Documents and their encoded elements indexed by document key.
+    private final Map<String, DdsDocument> documents = new TreeMap<>();
+    private final Map<String, byte[]> fragments = new TreeMap<>();
+
+    // The encoded list of all documents, plain and compressed.
+    private final byte[] all;
+    private final byte[] allGzip;
+
+    Content(List<DdsDocument> list, String baseUrl) {
+      for (DdsDocument d : list) {
+        // Documents are referenced through the relay rather than their source.
+        DdsDocument document = copy(d);
+        if (baseUrl != null) {
+          document.setHref(baseUrl + "/documents/" + encode(d.getNsa()) + "/" + encode(d.getType())
+                  + "/" + encode(d.getId()));
+        }
+        documents.put(document.getKey(), document);
+        fragments.put(document.getKey(), DdsXml.toXml(document, "document", null)
+                .getBytes(StandardCharsets.UTF_8));
+      }
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try {
+        os.write(String.format(DdsXml.XML_DECLARATION + DOCUMENTS_START, DdsXml.NSI_DDS_NAMESPACE)
+                .getBytes(StandardCharsets.UTF_8));
+        for (byte[] fragment : fragments.values()) {
+          os.write(fragment);
+        }
+        os.write(DOCUMENTS_END.getBytes(StandardCharsets.UTF_8));
+      } catch (IOException ex) {
+        throw new IllegalStateException("Failed to encode documents", ex);
+      }
+      all = os.toByteArray();
+      allGzip = gzip(all);
+    }
+  }
+
+  /**
+   * A subscriber to the relay.
+   */
+  private static class Subscription {
+    private final String id;
+    private final String href;
+    private final String requesterId;
+    private final String callback;
+
+    Subscription(String id, String href, String requesterId, String callback) {
+      this.id = id;
+      this.href = href;
+      this.requesterId = requesterId;
+      this.callback = callback;
+    }
+
+    String toXml(String element, String namespace) {
+      Escaper escaper = XmlEscapers.xmlContentEscaper();
+      return String.format(SUBSCRIPTION, element,
+              namespace == null ? "" : " xmlns:tns=\"" + namespace + "\"", id, escaper.escape(href),
+              escaper.escape(Strings.nullToEmpty(requesterId)), escaper.escape(callback), element);
+    }
+  }
+}
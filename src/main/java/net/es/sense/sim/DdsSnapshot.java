@@ -0,0 +1,255 @@
+package net.es.sense.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A local copy of the raw documents retrieved from the NSI-DDS.  A snapshot
+ * is recorded while generating from a live DDS and can be written to a single
+ * compressed file, then read back to replay generation without any access to
+ * the DDS.
+ *
+ * The file is a gzip compressed stream holding a header (magic, format
+ * version, creation time, document count) followed by each document's
+ * metadata and content as length prefixed UTF-8 strings, and the time the
+ * document was last discovered in the DDS.
+ *
+ * The same file format is used as the local document cache when only
+ * retrieving new or changed documents from the DDS.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class DdsSnapshot {
+  private static final int MAGIC = 0x53454e53; // "SENS"
+  private static final int FORMAT = 2;
+
+  // Documents indexed by type, NSA, and document identifier.
+  private final Map<String, DdsDocument> documents = new ConcurrentSkipListMap<>();
+
+  // The time the documents were retrieved from the DDS.
+  private final Date created;
+
+  /**
+   * Create a new empty snapshot.
+   */
+  public DdsSnapshot() {
+    this(new Date());
+  }
+
+  private DdsSnapshot(Date created) {
+    this.created = created;
+  }
+
+  /**
+   * Get the time the documents in this snapshot were retrieved from the DDS.
+   *
+   * @return The creation time.
+   */
+  public Date getCreated() {
+    return created;
+  }
+
+  /**
+   * Add a document to the snapshot, replacing any existing document with
+   * the same type, NSA, and identifier.
+   *
+   * @param document The document to add.
+   */
+  public void add(DdsDocument document) {
+    documents.put(document.getKey(), document);
+  }
+
+  /**
+   * Remove a document from the snapshot.
+   *
+   * @param document The document to remove.
+   */
+  public void remove(DdsDocument document) {
+    documents.remove(document.getKey());
+  }
+
+  /**
+   * Get all documents of the specified type.
+   *
+   * @param type The document type.
+   * @return The list of matching documents.
+   */
+  public List<DdsDocument> getDocumentsByType(String type) {
+    return documents.values().stream()
+            .filter(d -> type.equals(d.getType()))
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * Get a specific document.
+   *
+   * @param nsa The NSA identifier owning the document.
+   * @param type The document type.
+   * @param id The document identifier.
+   * @return The document or null if not present.
+   */
+  public DdsDocument getDocument(String nsa, String type, String id) {
+    return documents.get(DdsDocument.getKey(nsa, type, id));
+  }
+
+  /**
+   * Get all documents in the snapshot.
+   *
+   * @return The documents.
+   */
+  public Collection<DdsDocument> getDocuments() {
+    return documents.values();
+  }
+
+  /**
+   * Write the snapshot to a compressed file.  The file is written alongside
+   * and then moved into place, so an interrupted write never leaves a
+   * truncated snapshot or cache behind.
+   *
+   * @param file The file to write.
+   * @throws IOException If the file could not be written.
+   */
+  public void write(String file) throws IOException {
+    Path target = Paths.get(file).toAbsolutePath();
+    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    List<DdsDocument> list = new ArrayList<>(documents.values());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(tmp.toFile()), 64 * 1024)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeLong(created.getTime());
+      out.writeInt(list.size());
+      for (DdsDocument d : list) {
+        writeString(out, d.getNsa());
+        writeString(out, d.getType());
+        writeString(out, d.getId());
+        writeString(out, d.getHref());
+        writeString(out, d.getVersion());
+        writeString(out, d.getExpires());
+        writeString(out, d.getContentType());
+        writeString(out, d.getContentTransferEncoding());
+        writeString(out, d.getContent());
+        out.writeLong(d.getLastDiscovered());
+      }
+    } catch (IOException ex) {
+      Files.deleteIfExists(tmp);
+      throw ex;
+    }
+
+    try {
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    log.info("Wrote {} documents to snapshot {}", list.size(), file);
+  }
+
+  /**
+   * Read a snapshot from a compressed file.
+   *
+   * @param file The file to read.
+   * @return The snapshot.
+   * @throws IOException If the file could not be read or is not a snapshot.
+   */
+  public static DdsSnapshot read(String file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file), 64 * 1024)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("File is not a DDS snapshot: " + file);
+      }
+
+      int format = in.readInt();
+      if (format < 1 || format > FORMAT) {
+        throw new IOException("Unsupported DDS snapshot format " + format + ": " + file);
+      }
+
+      DdsSnapshot snapshot = new DdsSnapshot(new Date(in.readLong()));
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        DdsDocument d = new DdsDocument();
+        d.setNsa(readString(in));
+        d.setType(readString(in));
+        d.setId(readString(in));
+        d.setHref(readString(in));
+        d.setVersion(readString(in));
+        d.setExpires(readString(in));
+        d.setContentType(readString(in));
+        d.setContentTransferEncoding(readString(in));
+        d.setContent(readString(in));
+        d.setLastDiscovered(format > 1 ? in.readLong() : snapshot.getCreated().getTime());
+        snapshot.add(d);
+      }
+
+      log.info("Read {} documents from snapshot {} created {}", count, file, snapshot.getCreated());
+      return snapshot;
+    }
+  }
+
+  /**
+   * Read a snapshot used as a document cache, returning an empty snapshot if
+   * the file does not yet exist.  An unreadable cache is discarded rather
+   * than failing the run since all documents can be retrieved again.
+   *
+   * @param file The file to read.
+   * @return The snapshot.
+   */
+  public static DdsSnapshot readOrCreate(String file) {
+    if (!new File(file).exists()) {
+      log.info("Snapshot {} does not exist, starting with an empty snapshot.", file);
+      return new DdsSnapshot();
+    }
+
+    try {
+      return read(file);
+    } catch (IOException ex) {
+      log.error("Discarding unreadable snapshot {} : {}", file, ex.getMessage());
+      return new DdsSnapshot();
+    }
+  }
+
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,227 @@
+package net.es.sense.sim;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Response;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Subscribes for document change notifications from the NSI-DDS and receives
+ * them on a small embedded HTTP endpoint.  Received notifications are queued
+ * for the generator to process in batches.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class DdsWatcher implements AutoCloseable {
+  // The path on which we receive DDS notifications.
+  public static final String PATH = "/notifications";
+
+  // Our requester identifier when subscribing to the DDS.
+  private static final String REQUESTER_ID = "urn:ogf:network:es.net:2013:sense-sim";
+
+  // The DDS subscription request asking for all document events.
+  private static final String SUBSCRIPTION_REQUEST = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<tns:subscriptionRequest xmlns:tns=\"http://schemas.ogf.org/nsi/2014/02/discovery/types\">\n"
+          + "  <requesterId>%s</requesterId>\n"
+          + "  <callback>%s</callback>\n"
+          + "  <filter>\n"
+          + "    <include>\n"
+          + "      <event>All</event>\n"
+          + "    </include>\n"
+          + "  </filter>\n"
+          + "</tns:subscriptionRequest>\n";
+
+  // How long we wait for related notifications to arrive before processing a batch.
+  private static final long SETTLE_TIME = TimeUnit.SECONDS.toMillis(2);
+
+  // How often we verify our subscription is still held by the DDS.
+  private static final long AUDIT_TIME = TimeUnit.MINUTES.toMillis(10);
+
+  private final String ddsUrl;
+  private final String address;
+  private final int port;
+  private final String callback;
+  private final Client client = ClientBuilder.newClient();
+  private final BlockingQueue<DdsNotification> queue = new LinkedBlockingQueue<>();
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private String subscription;
+
+  /**
+   * Create a watcher for the specified DDS.
+   *
+   * @param ddsUrl The URL of the NSI-DDS service.
+   * @param address The local address on which to receive notifications.
+   * @param port The local port on which to receive notifications.
+   * @param callback The URL the DDS will use to deliver notifications.
+   */
+  public DdsWatcher(String ddsUrl, String address, int port, String callback) {
+    this.ddsUrl = ddsUrl;
+    this.address = address;
+    this.port = port;
+    this.callback = callback;
+  }
+
+  /**
+   * Start the notification endpoint and subscribe to the DDS.
+   *
+   * @throws IOException If the endpoint could not be started or the
+   *    subscription was rejected.
+   */
+  public void start() throws IOException {
+    executor = Executors.newFixedThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("dds-notification-%d").setDaemon(true).build());
+    server = HttpServer.create(new InetSocketAddress(address, port), 0);
+    server.createContext(PATH, this::handle);
+    server.setExecutor(executor);
+    server.start();
+    log.info("Listening for DDS notifications on {}:{}", address, port);
+
+    subscribe();
+  }
+
+  /**
+   * Wait for the next batch of notifications.  Once a notification arrives we
+   * wait a short time to collect any related notifications so a burst of
+   * changes results in a single regeneration.
+   *
+   * @return The batch of notifications in arrival order.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public List<DdsNotification> take() throws InterruptedException {
+    DdsNotification first;
+    while ((first = queue.poll(AUDIT_TIME, TimeUnit.MILLISECONDS)) == null) {
+      audit();
+    }
+
+    Thread.sleep(SETTLE_TIME);
+    List<DdsNotification> batch = new ArrayList<>();
+    batch.add(first);
+    queue.drainTo(batch);
+    return batch;
+  }
+
+  /**
+   * Remove our subscription from the DDS and stop the notification endpoint.
+   */
+  @Override
+  public void close() {
+    if (subscription != null) {
+      try {
+        Response response = client.target(subscription).request(DdsXml.NSI_DDS_V1_XML).delete();
+        response.close();
+        log.info("Deleted DDS subscription {}", subscription);
+      } catch (ProcessingException ex) {
+        log.error("Failed to delete DDS subscription {}", subscription, ex);
+      }
+      subscription = null;
+    }
+
+    if (server != null) {
+      server.stop(0);
+    }
+
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+
+    client.close();
+  }
+
+  /**
+   * Register a subscription for all document events with the DDS.
+   *
+   * @throws IOException If the subscription was rejected.
+   */
+  private void subscribe() throws IOException {
+    String request = String.format(SUBSCRIPTION_REQUEST, REQUESTER_ID, callback);
+    try {
+      Response response = client.target(ddsUrl)
+              .path("subscriptions")
+              .request(DdsXml.NSI_DDS_V1_XML)
+              .post(Entity.entity(request, DdsXml.NSI_DDS_V1_XML));
+      try {
+        if (response.getStatus() != Response.Status.CREATED.getStatusCode()
+                && response.getStatus() != Response.Status.OK.getStatusCode()) {
+          throw new IOException("DDS rejected subscription with status " + response.getStatus());
+        }
+        subscription = response.getHeaderString("Location");
+      } finally {
+        response.close();
+      }
+    } catch (ProcessingException ex) {
+      throw new IOException("DDS subscription request failed", ex);
+    }
+
+    log.info("Subscribed to DDS {} with callback {}, subscription {}", ddsUrl, callback, subscription);
+  }
+
+  /**
+   * Verify the DDS still holds our subscription, subscribing again if it
+   * was dropped.
+   */
+  private void audit() {
+    try {
+      if (subscription != null) {
+        Response response = client.target(subscription).request(DdsXml.NSI_DDS_V1_XML).get();
+        int status = response.getStatus();
+        response.close();
+        if (status == Response.Status.OK.getStatusCode()) {
+          return;
+        }
+        log.info("DDS subscription {} returned status {}, subscribing again.", subscription, status);
+      }
+      subscribe();
+    } catch (IOException | ProcessingException ex) {
+      log.error("Failed to audit DDS subscription {}", subscription, ex);
+    }
+  }
+
+  /**
+   * Handle an incoming notification request from the DDS.
+   *
+   * @param exchange The HTTP exchange.
+   * @throws IOException If the response could not be sent.
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      List<DdsNotification> notifications;
+      try (InputStream is = exchange.getRequestBody()) {
+        notifications = DdsXml.readNotifications(is);
+      } catch (JAXBException | XMLStreamException ex) {
+        log.error("Received invalid DDS notification", ex);
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+
+      queue.addAll(notifications);
+      exchange.sendResponseHeaders(202, -1);
+    } finally {
+      exchange.close();
+    }
+  }
+}
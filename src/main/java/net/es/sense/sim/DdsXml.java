@@ -0,0 +1,194 @@
+package net.es.sense.sim;
+
+import com.google.common.escape.Escaper;
+import com.google.common.xml.XmlEscapers;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.es.nsi.dds.lib.jaxb.dds.DocumentType;
+
+/**
+ * Utilities for reading and writing raw NSI-DDS XML payloads that are not
+ * handled by the DDS client library, such as summary document listings,
+ * notifications, and the pre-encoded responses of the local DDS relay.
+ *
+ * @author hacksaw
+ */
+public class DdsXml {
+  // The media type used by the NSI-DDS REST interface.
+  public static final String NSI_DDS_V1_XML = "application/vnd.ogf.nsi.dds.v1+xml";
+
+  // The namespace of the NSI-DDS protocol types.
+  public static final String NSI_DDS_NAMESPACE = "http://schemas.ogf.org/nsi/2014/02/discovery/types";
+
+  // The XML declaration starting every payload.
+  public static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+  // The element names of a document and notification event within any DDS payload.
+  private static final String DOCUMENT = "document";
+  private static final String EVENT = "event";
+
+  // Payloads arrive from unauthenticated peers, so DTD and external entities
+  // are never processed.
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+  static {
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  private static JAXBContext context;
+
+  private static synchronized JAXBContext getContext() throws JAXBException {
+    if (context == null) {
+      context = JAXBContext.newInstance(DocumentType.class);
+    }
+    return context;
+  }
+
+  /**
+   * Read every document element contained in a DDS payload, ignoring the
+   * enclosing structure so the same method handles document lists and
+   * notification lists.
+   *
+   * @param is The stream containing the XML payload.
+   * @return The list of documents in payload order.
+   * @throws JAXBException If a document could not be parsed.
+   * @throws XMLStreamException If the payload is not valid XML.
+   */
+  public static List<DocumentType> readDocuments(InputStream is) throws JAXBException, XMLStreamException {
+    List<DocumentType> result = new ArrayList<>();
+    Unmarshaller unmarshaller = getContext().createUnmarshaller();
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(is);
+    try {
+      while (reader.hasNext()) {
+        if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
+                && DOCUMENT.equals(reader.getLocalName())) {
+          // The unmarshaller leaves the reader positioned after the element.
+          result.add(unmarshaller.unmarshal(reader, DocumentType.class).getValue());
+        } else {
+          reader.next();
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  /**
+   * Read the notifications contained in a DDS notification list, pairing
+   * each document with the event reported for it.
+   *
+   * @param is The stream containing the XML payload.
+   * @return The list of notifications in payload order.
+   * @throws JAXBException If a document could not be parsed.
+   * @throws XMLStreamException If the payload is not valid XML.
+   */
+  public static List<DdsNotification> readNotifications(InputStream is) throws JAXBException, XMLStreamException {
+    List<DdsNotification> result = new ArrayList<>();
+    Unmarshaller unmarshaller = getContext().createUnmarshaller();
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(is);
+    try {
+      String event = null;
+      while (reader.hasNext()) {
+        if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
+                && EVENT.equals(reader.getLocalName())) {
+          event = reader.getElementText().trim();
+          reader.next();
+        } else if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
+                && DOCUMENT.equals(reader.getLocalName())) {
+          DdsNotification notification = new DdsNotification();
+          notification.setEvent(event);
+          notification.setDocument(DdsDocument.of(unmarshaller.unmarshal(reader, DocumentType.class).getValue()));
+          result.add(notification);
+          event = null;
+        } else {
+          reader.next();
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  /**
+   * Read the text of the named elements from an XML payload.  Only the first
+   * occurrence of each element is returned.
+   *
+   * @param is The stream containing the XML payload.
+   * @param names The local names of the elements to read.
+   * @return The element text indexed by element name.
+   * @throws XMLStreamException If the payload is not valid XML.
+   */
+  public static Map<String, String> readElements(InputStream is, Set<String> names) throws XMLStreamException {
+    Map<String, String> result = new HashMap<>();
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(is);
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+                && names.contains(reader.getLocalName())
+                && !result.containsKey(reader.getLocalName())) {
+          result.put(reader.getLocalName(), reader.getElementText().trim());
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  /**
+   * Encode a document as an XML element.  Child elements are unqualified as
+   * defined by the DDS schema, so the element can be embedded within a
+   * document or notification list, or used as a root element if the caller
+   * supplies a prefixed name and declares the namespace.
+   *
+   * @param document The document to encode.
+   * @param element The element name.
+   * @param namespace Namespace declaration to add to the element, or null.
+   * @return The encoded element.
+   */
+  public static String toXml(DdsDocument document, String element, String namespace) {
+    Escaper attribute = XmlEscapers.xmlAttributeEscaper();
+    Escaper content = XmlEscapers.xmlContentEscaper();
+
+    StringBuilder sb = new StringBuilder();
+    sb.append('<').append(element);
+    if (namespace != null) {
+      sb.append(" xmlns:tns=\"").append(attribute.escape(namespace)).append('"');
+    }
+    appendAttribute(sb, "id", document.getId());
+    appendAttribute(sb, "href", document.getHref());
+    appendAttribute(sb, "version", document.getVersion());
+    appendAttribute(sb, "expires", document.getExpires());
+    sb.append(">\n");
+    sb.append("  <nsa>").append(content.escape(document.getNsa())).append("</nsa>\n");
+    sb.append("  <type>").append(content.escape(document.getType())).append("</type>\n");
+    if (document.getContent() != null) {
+      sb.append("  <content");
+      appendAttribute(sb, "contentType", document.getContentType());
+      appendAttribute(sb, "contentTransferEncoding", document.getContentTransferEncoding());
+      sb.append('>').append(content.escape(document.getContent())).append("</content>\n");
+    }
+    sb.append("</").append(element).append(">\n");
+    return sb.toString();
+  }
+
+  private static void appendAttribute(StringBuilder sb, String name, String value) {
+    if (value != null) {
+      sb.append(' ').append(name).append("=\"")
+              .append(XmlEscapers.xmlAttributeEscaper().escape(value)).append('"');
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package net.es.sense.sim;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes generated files to a directory on the local filesystem.
+ *
+ * A manifest of the content hash of every generated file is kept in the
+ * directory.  Files whose content has not changed since the last generation
+ * are left untouched.  Changed files are staged in a temporary directory
+ * and only moved into place once the generation is committed, each with an
+ * atomic rename, followed by the new manifest.  A generation that fails
+ * part way leaves the previous output as it was.
+ *
+ * The directory itself is not swapped because simulated instances run
+ * within it and keep their pid and log files there.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class DirectorySink implements OutputSink {
+  // The manifest file in sha256sum format.
+  public static final String MANIFEST = "manifest.sha256";
+
+  private static final String STAGING_PREFIX = ".staging-";
+
+  private final Path root;
+
+  // The content hash of each file in the last committed generation, and of
+  // each file written in the current generation.
+  private Map<String, String> manifest;
+  private final Map<String, String> current = new ConcurrentHashMap<>();
+
+  // The files staged in the current generation.
+  private final Set<String> staged = ConcurrentHashMap.newKeySet();
+  private Path staging;
+
+  private Set<String> changed = Collections.emptySet();
+
+  /**
+   * Create a sink for the specified directory, creating it if needed.
+   *
+   * @param dir The output directory, or null for the current directory.
+   * @throws IOException If the directory or its manifest could not be read.
+   */
+  public DirectorySink(String dir) throws IOException {
+    root = Paths.get(Strings.nullToEmpty(dir)).toAbsolutePath();
+    Files.createDirectories(root);
+    manifest = readManifest(root.resolve(MANIFEST));
+  }
+
+  /**
+   * Get the output directory.
+   *
+   * @return The output directory.
+   */
+  public Path getRoot() {
+    return root;
+  }
+
+  @Override
+  public void write(String name, byte[] content) throws IOException {
+    String hash = Hashing.sha256().hashBytes(content).toString();
+    current.put(name, hash);
+
+    // Leave the file alone if it already has this content.
+    if (hash.equals(manifest.get(name)) && Files.exists(root.resolve(name))) {
+      return;
+    }
+
+    Files.write(getStaging().resolve(name), content);
+    staged.add(name);
+  }
+
+  @Override
+  public synchronized void commit() throws IOException {
+    if (current.isEmpty()) {
+      changed = Collections.emptySet();
+      return;
+    }
+
+    Set<String> result = new TreeSet<>(staged);
+    for (String name : manifest.keySet()) {
+      if (!current.containsKey(name)) {
+        result.add(name);
+      }
+    }
+
+    // Move the changed files into place, then remove files no longer generated.
+    for (String name : staged) {
+      move(staging.resolve(name), root.resolve(name));
+    }
+
+    for (String name : manifest.keySet()) {
+      if (!current.containsKey(name)) {
+        Files.deleteIfExists(root.resolve(name));
+      }
+    }
+
+    // The manifest is replaced last to record the completed generation.
+    List<String> lines = new ArrayList<>();
+    new TreeSet<>(current.keySet()).forEach(name -> lines.add(current.get(name) + "  " + name));
+    Path tmp = getStaging().resolve(MANIFEST);
+    Files.write(tmp, lines, StandardCharsets.UTF_8);
+    move(tmp, root.resolve(MANIFEST));
+
+    deleteStaging();
+    manifest = new HashMap<>(current);
+    current.clear();
+    staged.clear();
+    changed = Collections.unmodifiableSet(result);
+    log.info("Committed {} files to {}, {} changed", manifest.size(), root, changed.size());
+  }
+
+  @Override
+  public Set<String> getChanged() {
+    return changed;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    deleteStaging();
+    current.clear();
+    staged.clear();
+  }
+
+  private synchronized Path getStaging() throws IOException {
+    if (staging == null) {
+      staging = Files.createTempDirectory(root, STAGING_PREFIX);
+    }
+    return staging;
+  }
+
+  private synchronized void deleteStaging() throws IOException {
+    if (staging != null) {
+      try (Stream<Path> files = Files.list(staging)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(staging);
+      staging = null;
+    }
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static Map<String, String> readManifest(Path file) throws IOException {
+    Map<String, String> result = new HashMap<>();
+    if (Files.exists(file)) {
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        int separator = line.indexOf("  ");
+        if (separator > 0) {
+          result.put(line.substring(separator + 2), line.substring(0, separator));
+        }
+      }
+    }
+    return result;
+  }
+}
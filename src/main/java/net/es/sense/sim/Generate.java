@@ -44,8 +44,29 @@ public class Generate {
             .logFile(options.getLog())
             .address(options.getAddress())
             .peersFile(options.getPeers())
+            .threads(options.getThreads())
+            .snapshotIn(options.getSnapshotIn())
+            .snapshotOut(options.getSnapshotOut())
+            .cacheFile(options.getCache())
+            .portCacheFile(options.getPortCache())
+            .synthetic(options.getSynthetic())
+            .relayPort(options.getRelay())
+            .changedFile(options.getChanged())
+            .registryFile(options.getRegistry())
+            .prune(options.getPrune())
+            .seeds(options.getSeeds())
+            .hops(options.getHops())
+            .amplify(options.getAmplify())
+            .reportFile(options.getReport())
+            .portAllocator(options.getPortAllocator())
+            .sink(options.getTar() == null ? new DirectorySink(options.getOut()) : TarSink.of(options.getTar()))
             .build();
-    cw.write();
+
+    if (options.isWatch()) {
+      cw.watch(options.getWatch(), options.getCallback());
+    } else {
+      cw.write();
+    }
   }
 
   /**
@@ -0,0 +1,145 @@
+package net.es.sense.sim;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.regex.Pattern;
+import net.es.nsi.common.SimpleStp;
+
+/**
+ * Normalizes the network and port identifiers used in OpenNSA configuration.
+ * The same network and port identifiers are seen over and over when
+ * processing a large federation, so parsed STPs and stripped network names
+ * are memoized, and identifier strings held by port records are interned so
+ * each distinct value is only held once.
+ *
+ * @author hacksaw
+ */
+public class Identifiers {
+  // The maximum number of memoized parse results of each kind.
+  private static final int MEMO_SIZE = 100000;
+
+  // The OpenNSA topology suffix of a network identifier.
+  private static final String TOPOLOGY = ":topology";
+
+  // The direction suffixes of a unidirectional port identifier.
+  private static final Pattern IN_SUFFIX = Pattern.compile("[:-]in$");
+  private static final Pattern OUT_SUFFIX = Pattern.compile("[:-]out$");
+
+  private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+  private static final LoadingCache<String, SimpleStp> STPS = CacheBuilder.newBuilder()
+          .maximumSize(MEMO_SIZE)
+          .build(CacheLoader.from((String id) -> new SimpleStp(id)));
+
+  private static final LoadingCache<String, String> NETWORKS = CacheBuilder.newBuilder()
+          .maximumSize(MEMO_SIZE)
+          .build(CacheLoader.from(id ->
+                  intern(stripNetworkLocal(id.substring(SimpleStp.NSI_NETWORK_URN_PREFIX.length())))));
+
+  /**
+   * Get the canonical instance of an identifier.
+   *
+   * @param id The identifier.
+   * @return The canonical instance, or null if the identifier is null.
+   */
+  public static String intern(String id) {
+    return id == null ? null : INTERNER.intern(id);
+  }
+
+  /**
+   * Parse an STP identifier, returning the previously parsed STP if the same
+   * identifier has already been seen.  The returned STP is shared and must
+   * not be modified.
+   *
+   * @param stpId The STP identifier.
+   * @return The parsed STP.
+   * @throws IllegalArgumentException If the STP identifier is invalid.
+   */
+  public static SimpleStp parseStp(String stpId) throws IllegalArgumentException {
+    return get(STPS, stpId);
+  }
+
+  /**
+   * Convert an identifier into an OpenNSA local name.
+   *
+   * @param id The identifier.
+   * @return The identifier with ':' and '#' replaced by '_'.
+   */
+  public static String strip(String id) {
+    return id.replace(':', '_').replace('#', '_');
+  }
+
+  /**
+   * Convert a network URN into the OpenNSA network name.
+   *
+   * @param id The network URN.
+   * @return The OpenNSA network name.
+   */
+  public static String stripNetworkUrn(String id) {
+    return get(NETWORKS, id);
+  }
+
+  /**
+   * Convert the local part of a network URN into the OpenNSA network name.
+   *
+   * @param id The network URN without the "urn:ogf:network:" prefix.
+   * @return The OpenNSA network name.
+   */
+  public static String stripNetworkLocal(String id) {
+    // We have to strip any "topology" off the end.
+    String result = id.endsWith(TOPOLOGY) ? id.substring(0, id.length() - TOPOLOGY.length()) + ":" : id;
+
+    // Now move any end topology network string after the year to the start
+    // so we don't violate the URN rules.
+    int point = result.lastIndexOf(':');
+    if (point == result.length() - 1) {
+      result = result.substring(0, point);
+    } else {
+      // We need to move the string.
+      String start = result.substring(point + 1);
+      String end = result.substring(0, point);
+      result = start + "." + end;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the OpenNSA remote port expression for a bidirectional port.
+   *
+   * @param stp The STP of the bidirectional port.
+   * @return The remote port expression.
+   */
+  public static String getRemote(SimpleStp stp) {
+    return stripNetworkUrn(stp.getNetworkId()) + TOPOLOGY + "#" + strip(stp.getLocalId()) + "-(in|out)";
+  }
+
+  /**
+   * Remove the direction suffix from a unidirectional port identifier.
+   *
+   * @param id The unidirectional port identifier.
+   * @return The identifier of the bidirectional port it likely belongs to.
+   */
+  public static String stripDirection(String id) {
+    return OUT_SUFFIX.matcher(IN_SUFFIX.matcher(id).replaceAll("")).replaceAll("");
+  }
+
+  /**
+   * Get a memoized value, throwing any exception raised while computing it
+   * as if it had been computed directly.
+   */
+  private static <T> T get(LoadingCache<String, T> cache, String key) {
+    try {
+      return cache.getUnchecked(key);
+    } catch (UncheckedExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package net.es.sense.sim;
+
+import lombok.Data;
+
+/**
+ * The listening ports allocated to a simulated instance: the OpenNSA port
+ * used in its nsaN.conf, discovery URL and provider URL, and the SENSE-NSI-RM
+ * port used in its senseN.yaml.
+ *
+ * @author hacksaw
+ */
+@Data
+public class InstancePorts {
+  private final int nsaPort;
+  private final int sensePort;
+}
@@ -0,0 +1,236 @@
+package net.es.sense.sim;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Assigns each simulated network a stable instance index.  The index
+ * determines the instance file names, ports, and databases, so a network
+ * keeps its index across runs when the registry is persisted to a file.
+ *
+ * New networks take the lowest free index.  A network that is no longer
+ * simulated is tombstoned rather than forgotten, keeping its index reserved
+ * so it gets the same index back if it returns.
+ *
+ * The file holds one "index networkId state nsaPort sensePort" line per
+ * network, where state is either "active" or "removed", and the ports are
+ * those allocated to the instance by the PortAllocator.  Lines without ports,
+ * as written before ports were allocated, are still accepted.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class InstanceRegistry {
+  // The default registry file name within the output directory.
+  public static final String FILENAME = "instances.registry";
+
+  private static final String ACTIVE = "active";
+  private static final String REMOVED = "removed";
+
+  // All registered networks indexed by network identifier, and the network
+  // assigned to each index.
+  private final Map<String, Integer> indexes = new HashMap<>();
+  private final SortedMap<Integer, String> networks = new TreeMap<>();
+  private final Map<String, Boolean> active = new HashMap<>();
+  private final Map<Integer, InstancePorts> ports = new HashMap<>();
+
+  private Path file;
+
+  /**
+   * Load the registry from a file and save all later changes back to it.
+   * An empty registry is started if the file does not yet exist.
+   *
+   * @param file The registry file.
+   * @throws IOException If the file could not be read.
+   */
+  public synchronized void load(Path file) throws IOException {
+    this.file = file;
+    indexes.clear();
+    networks.clear();
+    active.clear();
+    ports.clear();
+
+    if (!Files.exists(file)) {
+      log.info("Instance registry {} does not exist, starting with an empty registry.", file);
+      return;
+    }
+
+    int lineNumber = 0;
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+
+      String[] fields = line.split("\\s+");
+      if (fields.length != 3 && fields.length != 5) {
+        throw new IOException("Invalid instance registry entry at " + file + ":" + lineNumber);
+      }
+
+      try {
+        int index = Integer.parseInt(fields[0]);
+        put(fields[1], index, ACTIVE.equals(fields[2]));
+        if (fields.length == 5) {
+          ports.put(index, new InstancePorts(Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+        }
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("Invalid instance registry entry at " + file + ":" + lineNumber, ex);
+      }
+    }
+
+    log.info("Loaded {} instances from registry {}", networks.size(), file);
+  }
+
+  /**
+   * Save the registry to the file it was loaded from, if any.
+   *
+   * @throws IOException If the file could not be written.
+   */
+  public synchronized void save() throws IOException {
+    if (file == null) {
+      return;
+    }
+
+    List<String> lines = new ArrayList<>();
+    lines.add("# sense-sim instance registry: index networkId state nsaPort sensePort");
+    networks.forEach((index, networkId) -> {
+      InstancePorts instancePorts = ports.get(index);
+      lines.add(index + " " + networkId + " " + (active.get(networkId) ? ACTIVE : REMOVED)
+              + (instancePorts == null ? "" : " " + instancePorts.getNsaPort() + " " + instancePorts.getSensePort()));
+    });
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(tmp, lines, StandardCharsets.UTF_8);
+    try {
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Get the index of a network, assigning the lowest free index to a new
+   * network, and reactivating a tombstoned network with its previous index.
+   *
+   * @param networkId The network identifier.
+   * @return The instance index.
+   */
+  public synchronized int assign(String networkId) {
+    Integer index = indexes.get(networkId);
+    if (index == null) {
+      index = 0;
+      for (Integer used : networks.keySet()) {
+        if (used > index) {
+          break;
+        }
+        index = used + 1;
+      }
+      log.info("Assigning instance {} to network {}", index, networkId);
+    } else if (!active.get(networkId)) {
+      log.info("Reactivating instance {} for network {}", index, networkId);
+    }
+
+    put(networkId, index, true);
+    return index;
+  }
+
+  /**
+   * Tombstone every active network not in the specified collection.
+   *
+   * @param networkIds The networks that remain active.
+   */
+  public synchronized void retain(Collection<String> networkIds) {
+    for (Map.Entry<String, Boolean> entry : active.entrySet()) {
+      if (entry.getValue() && !networkIds.contains(entry.getKey())) {
+        log.info("Removing instance {} for network {}", indexes.get(entry.getKey()), entry.getKey());
+        entry.setValue(false);
+      }
+    }
+  }
+
+  /**
+   * Get the index of an active network.
+   *
+   * @param networkId The network identifier.
+   * @return The index, or null if the network is not active.
+   */
+  public synchronized Integer get(String networkId) {
+    return Boolean.TRUE.equals(active.get(networkId)) ? indexes.get(networkId) : null;
+  }
+
+  /**
+   * Get all active networks.
+   *
+   * @return Network identifiers indexed by instance index, in index order.
+   */
+  public synchronized SortedMap<Integer, String> getActive() {
+    SortedMap<Integer, String> result = new TreeMap<>();
+    networks.forEach((index, networkId) -> {
+      if (active.get(networkId)) {
+        result.put(index, networkId);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Get the ports allocated to an instance.
+   *
+   * @param index The instance index.
+   * @return The ports, or null if none are allocated.
+   */
+  public synchronized InstancePorts getPorts(int index) {
+    return ports.get(index);
+  }
+
+  /**
+   * Get the ports allocated to all instances, active or removed.
+   *
+   * @return The ports indexed by instance index, in index order.
+   */
+  public synchronized SortedMap<Integer, InstancePorts> getPorts() {
+    return new TreeMap<>(ports);
+  }
+
+  /**
+   * Record the ports allocated to an instance.
+   *
+   * @param index The instance index.
+   * @param instancePorts The ports, or null to release them.
+   */
+  public synchronized void setPorts(int index, InstancePorts instancePorts) {
+    if (instancePorts == null) {
+      ports.remove(index);
+    } else {
+      ports.put(index, instancePorts);
+    }
+  }
+
+  private void put(String networkId, int index, boolean state) {
+    if (index < 0) {
+      throw new IllegalArgumentException("Negative instance index " + index);
+    }
+
+    String existing = networks.get(index);
+    if (existing != null && !existing.equals(networkId)) {
+      throw new IllegalArgumentException("Instance " + index + " already assigned to " + existing);
+    }
+
+    indexes.put(networkId, index);
+    networks.put(index, networkId);
+    active.put(networkId, state);
+  }
+}
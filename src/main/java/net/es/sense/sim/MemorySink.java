@@ -0,0 +1,71 @@
+package net.es.sense.sim;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Holds generated files in memory, for tests and for embedding the generator
+ * within another application.
+ *
+ * @author hacksaw
+ */
+public class MemorySink implements OutputSink {
+  // Committed file content indexed by file name, and the files written in
+  // the current generation.
+  private volatile Map<String, byte[]> files = new ConcurrentSkipListMap<>();
+  private final Map<String, byte[]> current = new ConcurrentHashMap<>();
+  private volatile Set<String> changed = Collections.emptySet();
+
+  @Override
+  public void write(String name, byte[] content) {
+    current.put(name, content);
+  }
+
+  @Override
+  public synchronized void commit() {
+    Set<String> result = new TreeSet<>();
+    current.forEach((name, content) -> {
+      if (!Arrays.equals(content, files.get(name))) {
+        result.add(name);
+      }
+    });
+    files.keySet().stream().filter(name -> !current.containsKey(name)).forEach(result::add);
+
+    // The changes are published before the files so a reader seeing the new
+    // files also sees what changed.
+    changed = Collections.unmodifiableSet(result);
+    files = new ConcurrentSkipListMap<>(current);
+    current.clear();
+  }
+
+  @Override
+  public Set<String> getChanged() {
+    return changed;
+  }
+
+  /**
+   * Get all committed files.
+   *
+   * @return File content indexed by file name, in name order.
+   */
+  public Map<String, byte[]> getFiles() {
+    return Collections.unmodifiableMap(files);
+  }
+
+  /**
+   * Get the content of a committed file as text.
+   *
+   * @param name The file name.
+   * @return The file content, or null if no such file was generated.
+   */
+  public String getText(String name) {
+    byte[] content = files.get(name);
+    return content == null ? null : new String(content, StandardCharsets.UTF_8);
+  }
+}
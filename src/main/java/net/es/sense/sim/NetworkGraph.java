@@ -0,0 +1,352 @@
+package net.es.sense.sim;
+
+import com.google.common.base.Strings;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import net.es.nsi.common.SimpleStp;
+
+/**
+ * The inter-domain adjacency graph of the simulated networks, built from
+ * the isAlias relationships resolved between topologies and the additional
+ * adjacencies in the peers configuration.  Networks are identified by their
+ * OpenNSA network name, so topology URNs and the names used in peer
+ * configuration refer to the same node.
+ *
+ * The graph is used to report connectivity of the federation and to select
+ * the subset of networks worth simulating, since an isolated network can
+ * never carry a multi-domain path.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class NetworkGraph {
+  // Selection modes for the networks to simulate.
+  public static final String COMPONENT = "component";
+  public static final String LINKED = "linked";
+
+  // The OpenNSA topology suffix and port separator of a remote port.
+  private static final String TOPOLOGY = ":topology";
+  private static final String TOPOLOGY_PORT = ":topology#";
+
+  // The neighbouring networks of each network, in name order so traversal
+  // is deterministic.
+  private final SortedMap<String, SortedSet<String>> adjacency = new TreeMap<>();
+
+  // The number of port level links resolved between networks, counted
+  // from each end that resolved its isAlias.
+  private int links = 0;
+
+  // The unresolved isAlias targets of each network.
+  private final SortedMap<String, List<String>> dangling = new TreeMap<>();
+
+  /**
+   * Get the graph key of a network URN.
+   *
+   * @param networkId The network URN.
+   * @return The normalized OpenNSA network name.
+   */
+  public static String key(String networkId) {
+    return PortTable.normalize(Identifiers.stripNetworkUrn(networkId));
+  }
+
+  /**
+   * Get the graph key of the network owning an OpenNSA remote port.
+   *
+   * @param remote The remote port, for example "es.net:2013:topology#port-(in|out)".
+   * @return The normalized OpenNSA network name, or null if the remote port
+   *    does not name a network.
+   */
+  public static String remoteKey(String remote) {
+    if (Strings.isNullOrEmpty(remote)) {
+      return null;
+    }
+
+    int index = remote.indexOf(TOPOLOGY_PORT);
+    return index <= 0 ? null : PortTable.normalize(remote.substring(0, index));
+  }
+
+  /**
+   * Add a network to the graph.
+   *
+   * @param networkId The network URN.
+   */
+  public void addNetwork(String networkId) {
+    add(key(networkId));
+  }
+
+  /**
+   * Add a resolved port level link between two networks.  Links within a
+   * single network do not contribute to the graph.
+   *
+   * @param networkId The network URN of the local port.
+   * @param remoteNetworkId The network URN of the remote port.
+   */
+  public void addLink(String networkId, String remoteNetworkId) {
+    link(key(networkId), key(remoteNetworkId));
+  }
+
+  /**
+   * Record an isAlias relationship that could not be resolved to a port.
+   *
+   * @param networkId The network URN of the local port.
+   * @param isAlias The unresolved isAlias target.
+   */
+  public void addDangling(String networkId, String isAlias) {
+    String network = key(networkId);
+    add(network);
+    dangling.computeIfAbsent(network, k -> new ArrayList<>()).add(isAlias);
+  }
+
+  /**
+   * Add the networks and adjacencies from the peers configuration.
+   *
+   * @param peers Additional port adjacencies indexed by network identifier.
+   */
+  public void addPeers(Map<String, Peer> peers) {
+    for (Peer peer : peers.values()) {
+      if (peer.getNetworkId() == null || !peer.getNetworkId().startsWith(SimpleStp.NSI_NETWORK_URN_PREFIX)
+              || peer.getPort() == null) {
+        continue;
+      }
+
+      // Peer networks are named with the OpenNSA topology URN.
+      String name = peer.getNetworkId().substring(SimpleStp.NSI_NETWORK_URN_PREFIX.length());
+      if (name.endsWith(TOPOLOGY)) {
+        name = name.substring(0, name.length() - TOPOLOGY.length());
+      }
+      String network = PortTable.normalize(name);
+      add(network);
+
+      for (Port port : peer.getPort()) {
+        String remote = remoteKey(port.getRemote());
+        if (remote != null) {
+          link(network, remote);
+        }
+      }
+    }
+  }
+
+  private void add(String network) {
+    adjacency.computeIfAbsent(network, k -> new TreeSet<>());
+  }
+
+  private void link(String network, String remote) {
+    add(network);
+    add(remote);
+    if (!network.equals(remote)) {
+      adjacency.get(network).add(remote);
+      adjacency.get(remote).add(network);
+      links++;
+    }
+  }
+
+  /**
+   * Determine if a network is in the graph.
+   *
+   * @param networkId The network URN.
+   * @return True if the network is in the graph.
+   */
+  public boolean contains(String networkId) {
+    return adjacency.containsKey(key(networkId));
+  }
+
+  /**
+   * Get all networks in the graph.
+   *
+   * @return The network keys in name order.
+   */
+  public Set<String> getNetworks() {
+    return Collections.unmodifiableSet(adjacency.keySet());
+  }
+
+  /**
+   * Get the neighbouring networks of a network.
+   *
+   * @param network The network key.
+   * @return The neighbouring network keys, empty if none.
+   */
+  public Set<String> getNeighbours(String network) {
+    Set<String> neighbours = adjacency.get(network);
+    return neighbours == null ? Collections.emptySet() : Collections.unmodifiableSet(neighbours);
+  }
+
+  /**
+   * Get the number of neighbouring networks of a network.
+   *
+   * @param network The network key.
+   * @return The degree.
+   */
+  public int getDegree(String network) {
+    return getNeighbours(network).size();
+  }
+
+  /**
+   * Get the number of port level links resolved between networks.
+   *
+   * @return The number of links.
+   */
+  public int getLinks() {
+    return links;
+  }
+
+  /**
+   * Get the unresolved isAlias targets of each network.
+   *
+   * @return The unresolved targets indexed by network key.
+   */
+  public Map<String, List<String>> getDangling() {
+    return Collections.unmodifiableMap(dangling);
+  }
+
+  /**
+   * Get the connected components of the graph.
+   *
+   * @return The components, largest first, with ties ordered by the name of
+   *    their first network.
+   */
+  public List<Set<String>> getComponents() {
+    List<Set<String>> components = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    for (String network : adjacency.keySet()) {
+      if (!visited.contains(network)) {
+        components.add(traverse(Collections.singleton(network), Integer.MAX_VALUE, visited));
+      }
+    }
+
+    // A stable sort keeps ties in name order.
+    components.sort((a, b) -> Integer.compare(b.size(), a.size()));
+    return components;
+  }
+
+  /**
+   * Get the networks with at least one link to another network.
+   *
+   * @return The linked network keys.
+   */
+  public Set<String> getLinked() {
+    return adjacency.entrySet().stream()
+            .filter(e -> !e.getValue().isEmpty())
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  /**
+   * Select the networks to simulate.
+   *
+   * @param mode COMPONENT for the largest connected component, LINKED for
+   *    networks with at least one link, or null for all networks.
+   * @return The selected network keys.
+   * @throws IllegalArgumentException If the mode is not known.
+   */
+  public Set<String> select(String mode) throws IllegalArgumentException {
+    if (Strings.isNullOrEmpty(mode)) {
+      return getNetworks();
+    } else if (COMPONENT.equalsIgnoreCase(mode)) {
+      List<Set<String>> components = getComponents();
+      return components.isEmpty() ? Collections.emptySet() : components.get(0);
+    } else if (LINKED.equalsIgnoreCase(mode)) {
+      return getLinked();
+    }
+    throw new IllegalArgumentException("Unknown network selection " + mode);
+  }
+
+  /**
+   * Get the networks within a number of hops of a set of seed networks.
+   * Seeds may be given as network URNs or OpenNSA network names.
+   *
+   * @param seeds The seed networks.
+   * @param hops The maximum number of hops from a seed network.
+   * @return The network keys in the neighbourhood, including the seeds.
+   * @throws IllegalArgumentException If none of the seeds are in the graph,
+   *    rather than selecting no networks at all.
+   */
+  public Set<String> getNeighbourhood(Collection<String> seeds, int hops) throws IllegalArgumentException {
+    List<String> start = new ArrayList<>();
+    for (String seed : seeds) {
+      String network = seed.startsWith(SimpleStp.NSI_NETWORK_URN_PREFIX) ? key(seed) : PortTable.normalize(seed);
+      if (adjacency.containsKey(network)) {
+        start.add(network);
+      } else {
+        log.warn("Seed network {} is not in the network graph", seed);
+      }
+    }
+
+    if (start.isEmpty()) {
+      throw new IllegalArgumentException("None of the seed networks " + seeds + " are in the network graph");
+    }
+    return traverse(start, hops, new HashSet<>());
+  }
+
+  /**
+   * Breadth first traversal from a set of networks.
+   *
+   * @param start The network keys to start from.
+   * @param hops The maximum number of hops to traverse.
+   * @param visited The networks already visited, updated with those reached.
+   * @return The networks reached, including the start networks.
+   */
+  private Set<String> traverse(Collection<String> start, int hops, Set<String> visited) {
+    Set<String> reached = new TreeSet<>();
+    Deque<String> queue = new ArrayDeque<>();
+    Map<String, Integer> distance = new TreeMap<>();
+    for (String network : start) {
+      if (adjacency.containsKey(network) && visited.add(network)) {
+        reached.add(network);
+        queue.add(network);
+        distance.put(network, 0);
+      }
+    }
+
+    while (!queue.isEmpty()) {
+      String network = queue.remove();
+      int d = distance.get(network);
+      if (d >= hops) {
+        continue;
+      }
+
+      for (String neighbour : adjacency.get(network)) {
+        if (visited.add(neighbour)) {
+          reached.add(neighbour);
+          queue.add(neighbour);
+          distance.put(neighbour, d + 1);
+        }
+      }
+    }
+    return reached;
+  }
+
+  /**
+   * Log a summary of the connectivity of the graph.
+   */
+  public void logSummary() {
+    List<Set<String>> components = getComponents();
+    int[] degrees = adjacency.values().stream().mapToInt(Set::size).sorted().toArray();
+    long isolated = Arrays.stream(degrees).filter(d -> d == 0).count();
+    int danglingCount = dangling.values().stream().mapToInt(List::size).sum();
+
+    log.info("Network graph: {} networks, {} links, {} components, largest component {} networks, {} isolated",
+            adjacency.size(), links, components.size(), components.isEmpty() ? 0 : components.get(0).size(), isolated);
+    if (degrees.length > 0) {
+      log.info("Network degree: min {}, median {}, max {}, mean {}", degrees[0], degrees[degrees.length / 2],
+              degrees[degrees.length - 1], String.format("%.2f", Arrays.stream(degrees).average().orElse(0)));
+    }
+    if (danglingCount > 0) {
+      log.info("Network graph: {} unresolved isAlias in {} networks", danglingCount, dangling.size());
+      dangling.forEach((network, targets) -> log.debug("Unresolved isAlias in {}: {}", network, targets));
+    }
+  }
+}
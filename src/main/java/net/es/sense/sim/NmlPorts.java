@@ -0,0 +1,210 @@
+package net.es.sense.sim;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import lombok.Data;
+import net.es.nsi.common.jaxb.nml.NmlLabelGroupType;
+import net.es.nsi.common.jaxb.nml.NmlLabelType;
+import net.es.nsi.common.jaxb.nml.NmlPortGroupRelationType;
+import net.es.nsi.common.jaxb.nml.NmlPortGroupType;
+import net.es.nsi.common.jaxb.nml.NmlPortRelationType;
+import net.es.nsi.common.jaxb.nml.NmlPortType;
+
+/**
+ * The port information extracted from an NML topology document that is
+ * needed to generate OpenNSA port configuration: the bidirectional ports
+ * and their unidirectional members, and the inbound port groups and ports
+ * with their labels and isAlias relations.
+ *
+ * The document is read with a streaming parser that skips everything else,
+ * so we never build the full JAXB tree for large topologies.  Inbound port
+ * groups and ports are returned as sparsely populated NML types so existing
+ * label normalization and STP parsing can be applied unchanged.
+ *
+ * @author hacksaw
+ */
+@Data
+public class NmlPorts {
+  // NML element local names and relation types we extract.
+  private static final String TOPOLOGY = "Topology";
+  private static final String BIDIRECTIONAL_PORT = "BidirectionalPort";
+  private static final String PORT_GROUP = "PortGroup";
+  private static final String PORT = "Port";
+  private static final String LABEL_GROUP = "LabelGroup";
+  private static final String LABEL = "Label";
+  private static final String RELATION = "Relation";
+  private static final String HAS_INBOUND_PORT = "#hasInboundPort";
+  private static final String IS_ALIAS = "#isAlias";
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+  static {
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  // The topology identifier.
+  private String id;
+
+  // Bidirectional port identifiers mapped to the identifiers of their
+  // unidirectional members, in document order.
+  private final Map<String, List<String>> bidirectionalPorts = new LinkedHashMap<>();
+
+  // Inbound port groups and ports of the topology.
+  private final List<NmlPortGroupType> inboundPortGroups = new ArrayList<>();
+  private final List<NmlPortType> inboundPorts = new ArrayList<>();
+
+  /**
+   * Extract the port information from an NML topology document.
+   *
+   * @param is The stream containing the NML document.
+   * @return The extracted port information.
+   * @throws XMLStreamException If the document is not a valid NML topology.
+   */
+  public static NmlPorts read(InputStream is) throws XMLStreamException {
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(is);
+    try {
+      while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+        reader.next();
+      }
+
+      if (!TOPOLOGY.equals(reader.getLocalName())) {
+        throw new XMLStreamException("Expected NML Topology but found " + reader.getLocalName(),
+                reader.getLocation());
+      }
+
+      NmlPorts ports = new NmlPorts();
+      ports.setId(reader.getAttributeValue(null, "id"));
+      while (nextChild(reader)) {
+        if (BIDIRECTIONAL_PORT.equals(reader.getLocalName())) {
+          ports.readBidirectionalPort(reader);
+        } else if (RELATION.equals(reader.getLocalName()) && isType(reader, HAS_INBOUND_PORT)) {
+          ports.readInboundRelation(reader);
+        } else {
+          skip(reader);
+        }
+      }
+      return ports;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void readBidirectionalPort(XMLStreamReader reader) throws XMLStreamException {
+    String portId = reader.getAttributeValue(null, "id");
+    List<String> members = new ArrayList<>(2);
+    while (nextChild(reader)) {
+      if (PORT_GROUP.equals(reader.getLocalName()) || PORT.equals(reader.getLocalName())) {
+        members.add(reader.getAttributeValue(null, "id"));
+      }
+      skip(reader);
+    }
+    bidirectionalPorts.put(portId, members);
+  }
+
+  private void readInboundRelation(XMLStreamReader reader) throws XMLStreamException {
+    while (nextChild(reader)) {
+      if (PORT_GROUP.equals(reader.getLocalName())) {
+        inboundPortGroups.add(readPortGroup(reader));
+      } else if (PORT.equals(reader.getLocalName())) {
+        inboundPorts.add(readPort(reader));
+      } else {
+        skip(reader);
+      }
+    }
+  }
+
+  private static NmlPortGroupType readPortGroup(XMLStreamReader reader) throws XMLStreamException {
+    NmlPortGroupType pg = new NmlPortGroupType();
+    pg.setId(reader.getAttributeValue(null, "id"));
+    while (nextChild(reader)) {
+      if (LABEL_GROUP.equals(reader.getLocalName())) {
+        NmlLabelGroupType lgt = new NmlLabelGroupType();
+        lgt.setLabeltype(reader.getAttributeValue(null, "labeltype"));
+        lgt.setValue(reader.getElementText().trim());
+        pg.getLabelGroup().add(lgt);
+      } else if (RELATION.equals(reader.getLocalName()) && isType(reader, IS_ALIAS)) {
+        NmlPortGroupRelationType relation = new NmlPortGroupRelationType();
+        relation.setType(reader.getAttributeValue(null, "type"));
+        while (nextChild(reader)) {
+          if (PORT_GROUP.equals(reader.getLocalName())) {
+            NmlPortGroupType alias = new NmlPortGroupType();
+            alias.setId(reader.getAttributeValue(null, "id"));
+            relation.getPortGroup().add(alias);
+          }
+          skip(reader);
+        }
+        pg.getRelation().add(relation);
+      } else {
+        skip(reader);
+      }
+    }
+    return pg;
+  }
+
+  private static NmlPortType readPort(XMLStreamReader reader) throws XMLStreamException {
+    NmlPortType p = new NmlPortType();
+    p.setId(reader.getAttributeValue(null, "id"));
+    while (nextChild(reader)) {
+      if (LABEL.equals(reader.getLocalName())) {
+        NmlLabelType label = new NmlLabelType();
+        label.setLabeltype(reader.getAttributeValue(null, "labeltype"));
+        label.setValue(reader.getElementText().trim());
+        p.setLabel(label);
+      } else if (RELATION.equals(reader.getLocalName()) && isType(reader, IS_ALIAS)) {
+        NmlPortRelationType relation = new NmlPortRelationType();
+        relation.setType(reader.getAttributeValue(null, "type"));
+        while (nextChild(reader)) {
+          if (PORT.equals(reader.getLocalName())) {
+            NmlPortType alias = new NmlPortType();
+            alias.setId(reader.getAttributeValue(null, "id"));
+            relation.getPort().add(alias);
+          }
+          skip(reader);
+        }
+        p.getRelation().add(relation);
+      } else {
+        skip(reader);
+      }
+    }
+    return p;
+  }
+
+  private static boolean isType(XMLStreamReader reader, String type) {
+    String value = reader.getAttributeValue(null, "type");
+    return value != null && value.endsWith(type);
+  }
+
+  /**
+   * Advance to the next child of the current element.
+   *
+   * @return True if positioned on the start of a child element, false if
+   *    positioned on the end of the current element.
+   */
+  private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+    throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+  }
+
+  /**
+   * Skip over the current element and all its children.
+   */
+  private static void skip(XMLStreamReader reader) throws XMLStreamException {
+    while (nextChild(reader)) {
+      skip(reader);
+    }
+  }
+}
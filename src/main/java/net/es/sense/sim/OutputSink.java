@@ -0,0 +1,48 @@
+package net.es.sense.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A destination for the files generated by the tool.  Each generation writes
+ * the complete set of files and then commits them as the new output.  Files
+ * may be written concurrently from multiple threads, so implementations must
+ * be thread safe.
+ *
+ * @author hacksaw
+ */
+public interface OutputSink extends Closeable {
+  /**
+   * Write a generated file as part of the current generation.
+   *
+   * @param name The file name relative to the output root.
+   * @param content The file content.
+   * @throws IOException If the file could not be written.
+   */
+  void write(String name, byte[] content) throws IOException;
+
+  /**
+   * Publish the files written since the last commit as the complete output.
+   *
+   * @throws IOException If the output could not be published.
+   */
+  void commit() throws IOException;
+
+  /**
+   * Get the names of the files added, changed, or removed by the last commit.
+   *
+   * @return The changed file names.
+   */
+  Set<String> getChanged();
+
+  /**
+   * Complete the output, discarding anything not yet committed.  No further
+   * files may be written.
+   *
+   * @throws IOException If the output could not be completed.
+   */
+  @Override
+  default void close() throws IOException {
+  }
+}
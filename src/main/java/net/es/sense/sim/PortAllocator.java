@@ -0,0 +1,267 @@
+package net.es.sense.sim;
+
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Allocates the OpenNSA and SENSE-NSI-RM listening ports of each simulated
+ * instance from configurable port ranges, so no two instances, and no
+ * instance and another service on the host, share a port.
+ *
+ * An instance prefers the port at its index within each range, which with
+ * the default ranges gives 9000 + index and 20000 + index.  If that port is excluded, already allocated, or found in use on the host
+ * when probing is enabled, the instance takes the next free port in the
+ * range once all other instances have their preferred ports, so one
+ * unavailable port does not shift the ports of every later instance.
+ * Allocations are kept in the instance registry so an instance keeps its
+ * ports across runs for as long as they remain valid.  Only new allocations
+ * are probed since running instances hold their own ports.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class PortAllocator {
+  public static final int MIN = 1;
+  public static final int MAX = 65535;
+
+  // The default ranges stay clear of privileged ports and below the Linux
+  // ephemeral range, and keep the historical OpenNSA ports.  The historical
+  // SENSE-NSI-RM ports of 800 + index ran through privileged and well-known
+  // ports, so they are only available through COMPATIBLE_SENSE_PORTS.
+  public static final String DEFAULT_NSA_PORTS = "9000-19999";
+  public static final String DEFAULT_SENSE_PORTS = "20000-31999";
+  public static final String COMPATIBLE_SENSE_PORTS = "800-8999,20000-31999";
+
+  // Well-known ports of services likely to share a host with the simulation:
+  // MS SQL, Oracle, NFS, Docker, MySQL, PostgreSQL serving the instance
+  // databases, RabbitMQ, Redis, HTTP alternates, Cassandra, Kafka,
+  // Elasticsearch, memcached, the RabbitMQ console and MongoDB.
+  public static final String DEFAULT_EXCLUDED = "1433,1521,2049,2375-2376,3306,5432,5672,6379,"
+          + "8080,8443,9042,9092,9200,9300,11211,15672,27017";
+
+  // The ports in each range in allocation order.
+  private final int[] nsaPorts;
+  private final int[] sensePorts;
+  private final BitSet nsaSet;
+  private final BitSet senseSet;
+  private final BitSet excluded;
+  private final boolean probe;
+
+  // Ports allocated to instances in the registry.
+  private final BitSet used = new BitSet(MAX + 1);
+
+  /**
+   * Create an allocator with the default ranges and exclusions and no
+   * probing.
+   */
+  public PortAllocator() {
+    this(DEFAULT_NSA_PORTS, DEFAULT_SENSE_PORTS, DEFAULT_EXCLUDED, false);
+  }
+
+  /**
+   * Create an allocator.
+   *
+   * @param nsaPorts The OpenNSA port ranges, such as "9000-19999", or null
+   *    for the default.
+   * @param sensePorts The SENSE-NSI-RM port ranges, or null for the default.
+   * @param excluded Ports never allocated, or null for the default.
+   * @param probe True to skip ports already in use on the local host.
+   * @throws IllegalArgumentException If a list of ports is invalid.
+   */
+  public PortAllocator(String nsaPorts, String sensePorts, String excluded, boolean probe)
+          throws IllegalArgumentException {
+    this.nsaSet = parse(nsaPorts == null ? DEFAULT_NSA_PORTS : nsaPorts);
+    this.senseSet = parse(sensePorts == null ? DEFAULT_SENSE_PORTS : sensePorts);
+    this.excluded = parse(excluded == null ? DEFAULT_EXCLUDED : excluded);
+    this.probe = probe;
+
+    if (nsaSet.isEmpty() || senseSet.isEmpty()) {
+      throw new IllegalArgumentException("Empty port range");
+    }
+
+    this.nsaPorts = nsaSet.stream().toArray();
+    this.sensePorts = senseSet.stream().toArray();
+  }
+
+  /**
+   * Parse a comma separated list of ports and port ranges.
+   *
+   * @param value The list, such as "800-8999,20000-31999".
+   * @return The ports.
+   * @throws IllegalArgumentException If the value is not a valid list of ports.
+   */
+  public static BitSet parse(String value) throws IllegalArgumentException {
+    BitSet bits = new BitSet(MAX + 1);
+    if (Strings.isNullOrEmpty(value)) {
+      return bits;
+    }
+
+    for (String element : value.split(",")) {
+      element = element.trim();
+      if (element.isEmpty()) {
+        continue;
+      }
+
+      try {
+        int dash = element.indexOf('-');
+        int from, to;
+        if (dash < 0) {
+          from = to = Integer.parseInt(element);
+        } else {
+          from = Integer.parseInt(element.substring(0, dash).trim());
+          to = Integer.parseInt(element.substring(dash + 1).trim());
+        }
+
+        if (from < MIN || to > MAX || from > to) {
+          throw new IllegalArgumentException("Invalid port range \"" + element + "\" in \"" + value + "\"");
+        }
+        bits.set(from, to + 1);
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Invalid port range \"" + element + "\" in \"" + value + "\"");
+      }
+    }
+
+    return bits;
+  }
+
+  /**
+   * Never allocate a port, such as one the generator itself listens on.
+   *
+   * @param port The port, ignored if not positive.
+   */
+  public synchronized void exclude(int port) {
+    if (port >= MIN && port <= MAX) {
+      excluded.set(port);
+    }
+  }
+
+  /**
+   * Allocate ports to all active instances of the registry.  Recorded ports
+   * are kept unless they are no longer in their range, are now excluded, or
+   * collide with the ports of a lower instance index.  Tombstoned instances
+   * keep their ports reserved along with their index.
+   *
+   * @param registry The instance registry, updated with the allocations.
+   * @throws IllegalArgumentException If a range has no free port left.
+   */
+  public synchronized void allocate(InstanceRegistry registry) throws IllegalArgumentException {
+    used.clear();
+    for (Map.Entry<Integer, InstancePorts> entry : registry.getPorts().entrySet()) {
+      InstancePorts ports = entry.getValue();
+      if (isValid(ports.getNsaPort(), nsaSet) && isValid(ports.getSensePort(), senseSet)
+              && ports.getNsaPort() != ports.getSensePort()) {
+        used.set(ports.getNsaPort());
+        used.set(ports.getSensePort());
+      } else {
+        log.info("Releasing ports {} of instance {}", ports, entry.getKey());
+        registry.setPorts(entry.getKey(), null);
+      }
+    }
+
+    // Give every new instance its preferred ports first, then the next free
+    // ports to those displaced.
+    Map<Integer, int[]> allocated = new TreeMap<>();
+    for (int index : registry.getActive().keySet()) {
+      if (registry.getPorts(index) == null) {
+        allocated.put(index, new int[] { preferred(nsaPorts, index), preferred(sensePorts, index) });
+      }
+    }
+
+    allocated.forEach((index, ports) -> {
+      int nsaPort = ports[0] > 0 ? ports[0] : next(nsaPorts, index, "OpenNSA");
+      int sensePort = ports[1] > 0 ? ports[1] : next(sensePorts, index, "SENSE-NSI-RM");
+      registry.setPorts(index, new InstancePorts(nsaPort, sensePort));
+    });
+    log.info("Allocated ports to {} instances", allocated.size());
+  }
+
+  /**
+   * Get the ports of an instance, allocating them if the registry has none.
+   *
+   * @param registry The instance registry, updated with any allocation.
+   * @param index The instance index.
+   * @return The ports.
+   * @throws IllegalArgumentException If a range has no free port left.
+   */
+  public synchronized InstancePorts allocate(InstanceRegistry registry, int index)
+          throws IllegalArgumentException {
+    InstancePorts ports = registry.getPorts(index);
+    if (ports == null) {
+      int nsaPort = preferred(nsaPorts, index);
+      if (nsaPort < 0) {
+        nsaPort = next(nsaPorts, index, "OpenNSA");
+      }
+      int sensePort = preferred(sensePorts, index);
+      if (sensePort < 0) {
+        sensePort = next(sensePorts, index, "SENSE-NSI-RM");
+      }
+      ports = new InstancePorts(nsaPort, sensePort);
+      registry.setPorts(index, ports);
+      log.debug("Allocated ports {} to instance {}", ports, index);
+    }
+    return ports;
+  }
+
+  private boolean isValid(int port, BitSet range) {
+    return range.get(port) && !excluded.get(port) && !used.get(port);
+  }
+
+  // Take the port at the index within a range if it is free, else -1.
+  private int preferred(int[] range, int index) {
+    if (index < range.length && isAvailable(range[index])) {
+      used.set(range[index]);
+      return range[index];
+    }
+    return -1;
+  }
+
+  // Take the first free port after the preferred port of an index, wrapping
+  // around the end of the range.
+  private int next(int[] range, int index, String name) {
+    int start = index < range.length ? index + 1 : 0;
+    for (int i = 0; i < range.length; i++) {
+      int port = range[(start + i) % range.length];
+      if (isAvailable(port)) {
+        used.set(port);
+        return port;
+      }
+    }
+
+    throw new IllegalArgumentException("No free " + name + " port left for instance " + index);
+  }
+
+  private boolean isAvailable(int port) {
+    if (excluded.get(port) || used.get(port)) {
+      return false;
+    }
+
+    if (probe && !isFree(port)) {
+      log.info("Port {} is in use on this host, skipping", port);
+      excluded.set(port);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Determine if a port is free on the local host by binding to it.
+   *
+   * @param port The port.
+   * @return True if nothing is listening on the port.
+   */
+  static boolean isFree(int port) {
+    try (ServerSocket socket = new ServerSocket()) {
+      socket.setReuseAddress(false);
+      socket.bind(new InetSocketAddress(port));
+      return true;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package net.es.sense.sim;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A cache of the port records derived from each topology document, so a
+ * topology that has not changed since the previous run is not parsed again.
+ * Entries are keyed by DDS document key and validated against the document
+ * version and a hash of its content.
+ *
+ * Only the port records as extracted from a single topology are cached; the
+ * isAlias resolution between topologies is always rerun.  Entries not used
+ * during a run are dropped when the cache is written.
+ *
+ * The file is a gzip compressed stream holding a header (magic, format
+ * version, entry count) followed by each entry's key, version, content hash,
+ * topology identifiers, port records, and the index of the port record each
+ * unidirectional member belongs to.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class PortCache {
+  private static final int MAGIC = 0x53505254; // "SPRT"
+  private static final int FORMAT = 2;
+
+  // Cache entries from the previous run, and those used in this run.
+  private final Map<String, Entry> previous = new ConcurrentHashMap<>();
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+  /**
+   * Get the cached port records for a document.  Only the fields derived
+   * from the document itself are cached, the remote port of each record is
+   * resolved again for every generation.
+   *
+   * @param document The topology document.
+   * @return The cached port records, or null if the document is not cached
+   *    or has changed.
+   */
+  public TopologyMap get(DdsDocument document) {
+    Entry entry = previous.get(document.getKey());
+    if (entry == null || !entry.matches(document.getVersion(), hash(document))) {
+      return null;
+    }
+
+    current.put(document.getKey(), entry);
+    return entry.topology;
+  }
+
+  /**
+   * Add the port records derived from a document to the cache.
+   *
+   * @param document The topology document.
+   * @param topology The derived port records.
+   */
+  public void put(DdsDocument document, TopologyMap topology) {
+    current.put(document.getKey(), new Entry(document.getVersion(), hash(document), topology));
+  }
+
+  /**
+   * Get the number of entries used in this run.
+   *
+   * @return The number of entries.
+   */
+  public int size() {
+    return current.size();
+  }
+
+  /**
+   * Write the entries used in this run to a compressed file.
+   *
+   * @param file The file to write.
+   * @throws IOException If the file could not be written.
+   */
+  public void write(String file) throws IOException {
+    List<Map.Entry<String, Entry>> list = new ArrayList<>(current.entrySet());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(file), 64 * 1024)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeInt(list.size());
+      for (Map.Entry<String, Entry> e : list) {
+        DdsSnapshot.writeString(out, e.getKey());
+        e.getValue().write(out);
+      }
+    }
+
+    log.info("Wrote {} topologies to port cache {}", list.size(), file);
+  }
+
+  /**
+   * Read a port cache from a compressed file, returning an empty cache if
+   * the file does not yet exist.  An unreadable cache is discarded rather
+   * than failing the run since all entries can be derived again.
+   *
+   * @param file The file to read.
+   * @return The port cache.
+   */
+  public static PortCache readOrCreate(String file) {
+    PortCache cache = new PortCache();
+    if (!new File(file).exists()) {
+      log.info("Port cache {} does not exist, starting with an empty cache.", file);
+      return cache;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file), 64 * 1024)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+        log.error("Discarding port cache {} with unsupported format.", file);
+        return cache;
+      }
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String key = DdsSnapshot.readString(in);
+        cache.previous.put(key, Entry.read(in));
+      }
+
+      log.info("Read {} topologies from port cache {}", count, file);
+    } catch (IOException ex) {
+      log.error("Discarding unreadable port cache {} : {}", file, ex.getMessage());
+      cache.previous.clear();
+    }
+    return cache;
+  }
+
+  private static String hash(DdsDocument document) {
+    String content = document.getContent();
+    return content == null ? null : Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * The port records derived from one version of a topology document.
+   */
+  private static class Entry {
+    private final String version;
+    private final String hash;
+    private final TopologyMap topology;
+
+    Entry(String version, String hash, TopologyMap topology) {
+      this.version = version;
+      this.hash = hash;
+      this.topology = topology;
+    }
+
+    boolean matches(String version, String hash) {
+      return this.hash != null && this.hash.equals(hash)
+              && (this.version == null ? version == null : this.version.equals(version));
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      DdsSnapshot.writeString(out, version);
+      DdsSnapshot.writeString(out, hash);
+      DdsSnapshot.writeString(out, topology.getNetworkId());
+      DdsSnapshot.writeString(out, topology.getId());
+
+      // Port records are written in order so members can refer to them by index.
+      Map<PortMap, Integer> indexes = new IdentityHashMap<>();
+      out.writeInt(topology.getPorts().size());
+      for (PortMap pm : topology.getPorts()) {
+        indexes.put(pm, indexes.size());
+        DdsSnapshot.writeString(out, pm.getType());
+        DdsSnapshot.writeString(out, pm.getNetworkId());
+        DdsSnapshot.writeString(out, pm.getNetworkLabel());
+        DdsSnapshot.writeString(out, pm.getPortId());
+        DdsSnapshot.writeString(out, pm.getPortName());
+        DdsSnapshot.writeString(out, pm.getVlans().toString());
+        DdsSnapshot.writeString(out, pm.getIsAlias());
+        out.writeLong(pm.getBandwidth());
+        DdsSnapshot.writeString(out, pm.getInter());
+      }
+
+      out.writeInt(topology.getMembers().size());
+      for (Map.Entry<String, PortMap> member : topology.getMembers().entrySet()) {
+        DdsSnapshot.writeString(out, member.getKey());
+        out.writeInt(indexes.get(member.getValue()));
+      }
+    }
+
+    static Entry read(DataInputStream in) throws IOException {
+      String version = DdsSnapshot.readString(in);
+      String hash = DdsSnapshot.readString(in);
+
+      TopologyMap topology = new TopologyMap();
+      topology.setNetworkId(Identifiers.intern(DdsSnapshot.readString(in)));
+      topology.setId(DdsSnapshot.readString(in));
+
+      int count = in.readInt();
+      List<PortMap> ports = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        PortMap pm = new PortMap();
+        pm.setType(Identifiers.intern(DdsSnapshot.readString(in)));
+        pm.setNetworkId(Identifiers.intern(DdsSnapshot.readString(in)));
+        pm.setNetworkLabel(Identifiers.intern(DdsSnapshot.readString(in)));
+        pm.setPortId(DdsSnapshot.readString(in));
+        pm.setPortName(DdsSnapshot.readString(in));
+        try {
+          pm.setVlans(VlanSet.parse(DdsSnapshot.readString(in)));
+        } catch (IllegalArgumentException ex) {
+          throw new IOException(ex.getMessage());
+        }
+        pm.setIsAlias(DdsSnapshot.readString(in));
+        pm.setBandwidth(in.readLong());
+        pm.setInter(Identifiers.intern(DdsSnapshot.readString(in)));
+        ports.add(pm);
+      }
+      topology.setPorts(ports);
+
+      count = in.readInt();
+      Map<String, PortMap> members = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        String member = DdsSnapshot.readString(in);
+        int index = in.readInt();
+        if (index < 0 || index >= ports.size()) {
+          throw new IOException("Invalid port index " + index);
+        }
+        members.put(member, ports.get(index));
+      }
+      topology.setMembers(members);
+
+      return new Entry(version, hash, topology);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package net.es.sense.sim;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import net.es.nsi.common.Nml;
+import net.es.nsi.common.SimpleStp;
+import net.es.nsi.common.jaxb.nml.NmlLabelGroupType;
+import net.es.nsi.common.jaxb.nml.NmlPortGroupType;
+import net.es.nsi.common.jaxb.nml.NmlPortType;
+
+/**
+ * Derives the compact port records needed for OpenNSA configuration from
+ * the ports extracted from a single NML topology document.  This is run as
+ * each topology is decoded so only the port records are retained, and the
+ * isAlias relationships between topologies are resolved later from them.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class PortExtractor {
+  /**
+   * Derive the port records for a topology.
+   *
+   * @param networkId The network identifier of the topology.
+   * @param nml The ports extracted from the topology document.
+   * @return The topology port records.
+   */
+  public static TopologyMap extract(String networkId, NmlPorts nml) {
+    // Create a reverse map from unidirectional ports to bidirectional parent.
+    List<PortMap> biMap = new ArrayList<>();
+    Map<String, PortMap> uniToBiMap = new HashMap<>();
+    int inter = 0;
+    for (Map.Entry<String, List<String>> bi : nml.getBidirectionalPorts().entrySet()) {
+      // We will collect all the needed configuration in this structure.
+      PortMap pm = new PortMap();
+
+      // Parse the port identifier into an STP so we can decompose the
+      // elements into what will be needed by OpenNSA configuration.  The
+      // parsed STP is reused when resolving isAlias relations to this port.
+      SimpleStp stp = Identifiers.parseStp(bi.getKey());
+
+      // Values repeated across many ports are interned.
+      pm.setPortId(stp.getId());
+      pm.setPortName(Identifiers.strip(stp.getLocalId()));
+      pm.setType("ethernet");
+      pm.setInter(Identifiers.intern("em" + Integer.toString(inter++)));
+      pm.setBandwidth(100000);
+      pm.setNetworkId(Identifiers.intern(stp.getNetworkId()));
+      pm.setNetworkLabel(Identifiers.intern(stp.getNetworkLabel()));
+
+      biMap.add(pm);
+
+      // Now index the unidirectional members to the port map entry.
+      for (String member : bi.getValue()) {
+        uniToBiMap.put(member, pm);
+      }
+    }
+
+    // Now we index all the unidirectional inbound port groups, merging the
+    // VLAN of every label group into the parent bidirectional port.
+    for (NmlPortGroupType pg : nml.getInboundPortGroups()) {
+      try {
+        // Find the parent bidirectional port.
+        SimpleStp stp = Identifiers.parseStp(pg.getId());
+        PortMap bi = uniToBiMap.get(stp.getId());
+        if (bi == null) {
+          log.error("Could not find bidirectional port matching {} ", stp.getStpId());
+          continue;
+        }
+
+        VlanSet vlans = bi.getVlans();
+        for (NmlLabelGroupType lgt : pg.getLabelGroup()) {
+          vlans = vlans.union(toVlans(stp.getId(), lgt.getLabeltype(), lgt.getValue()));
+        }
+        bi.setVlans(vlans);
+
+        // Look for isAlias entry.
+        String isAlias = Nml.getIsAlias(pg.getRelation());
+        if (!Strings.isNullOrEmpty(isAlias)) {
+          bi.setIsAlias(isAlias);
+        }
+      } catch (IllegalArgumentException ex) {
+        log.error("Skipping stp: {} : {}", ex.getMessage(), ex.getLocalizedMessage());
+      }
+    }
+
+    // Now we index all the unidirectional inbound port.
+    for (NmlPortType p : nml.getInboundPorts()) {
+      try {
+        // Find the parent bidirectional port.
+        SimpleStp stp = Identifiers.parseStp(p.getId());
+        PortMap bi = uniToBiMap.get(stp.getId());
+        if (bi == null) {
+          log.error("Could not find bidirectional port matching {} ", stp.getStpId());
+          continue;
+        }
+
+        if (p.getLabel() != null) {
+          bi.setVlans(bi.getVlans().union(
+                  toVlans(stp.getId(), p.getLabel().getLabeltype(), p.getLabel().getValue())));
+        }
+
+        // Look for isAlias entry.
+        String isAlias = Nml.getIsAliasPort(p.getRelation());
+        if (!Strings.isNullOrEmpty(isAlias)) {
+          log.debug("Port {} isAlias {}", stp.getId(), isAlias);
+          bi.setIsAlias(isAlias);
+        }
+      } catch (IllegalArgumentException ex) {
+        log.error("Skipping stp: {} : {}", ex.getMessage(), ex.getLocalizedMessage());
+      }
+    }
+
+    TopologyMap holder = new TopologyMap();
+    holder.setNetworkId(Identifiers.intern(networkId));
+    holder.setId(nml.getId());
+    holder.setPorts(biMap);
+    holder.setMembers(uniToBiMap);
+    return holder;
+  }
+
+  /**
+   * Convert an NML label into the set of VLAN usable by the simulator.  MPLS
+   * and any other label types are converted to the full VLAN range.
+   *
+   * @param portId The port advertising the label, for logging.
+   * @param labelType The NML label type.
+   * @param value The label value.
+   * @return The VLAN, empty if the label is unusable.
+   */
+  private static VlanSet toVlans(String portId, String labelType, String value) {
+    if (Strings.isNullOrEmpty(labelType)) {
+      return VlanSet.EMPTY;
+    } else if (!SimpleStp.NSI_VLAN_LABEL_URN.equalsIgnoreCase(labelType)) {
+      return VlanSet.ALL;
+    }
+
+    try {
+      return VlanSet.parse(value);
+    } catch (IllegalArgumentException ex) {
+      log.error("Ignoring label on port {} : {}", portId, ex.getMessage());
+      return VlanSet.EMPTY;
+    }
+  }
+}
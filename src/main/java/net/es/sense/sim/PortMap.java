@@ -2,7 +2,6 @@ package net.es.sense.sim;
 
 import lombok.Data;
 import lombok.ToString;
-import net.es.nsi.common.jaxb.nml.NmlBidirectionalPortType;
 
 /**
  * A bean holding port related information needed to generate OpenNSA
@@ -13,15 +12,24 @@ import net.es.nsi.common.jaxb.nml.NmlBidirectionalPortType;
 @Data
 @ToString
 public class PortMap {
-  private NmlBidirectionalPortType port;
   private String type;
   private String networkId;
   private String networkLabel;
   private String portId;
   private String portName;
-  private String label;
+  private VlanSet vlans = VlanSet.EMPTY;
   private String isAlias;
   private String remote;
   private long bandwidth;
   private String inter;
+
+  /**
+   * Get the OpenNSA label of this port, VLAN 0 if no usable VLAN were
+   * advertised.
+   *
+   * @return The label.
+   */
+  public String getLabel() {
+    return "vlan:" + (vlans.isEmpty() ? "0" : vlans.toString());
+  }
 }
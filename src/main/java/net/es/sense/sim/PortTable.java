@@ -0,0 +1,74 @@
+package net.es.sense.sim;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The port records of all topologies indexed by network identifier, so the
+ * ports of a single network can be found without scanning every port in the
+ * federation.  Network identifiers are matched case-insensitively.
+ *
+ * @author hacksaw
+ */
+public class PortTable {
+  // Port records indexed by normalized network identifier, in insertion order.
+  private final Map<String, List<PortMap>> networks = new HashMap<>();
+  private int size = 0;
+
+  /**
+   * Create a table from a list of port records.
+   *
+   * @param ports The port records to index.
+   */
+  public PortTable(Collection<PortMap> ports) {
+    ports.forEach(this::add);
+  }
+
+  /**
+   * Add a port record to the table.  Records without a network identifier
+   * can never be matched so are ignored.
+   *
+   * @param port The port record.
+   */
+  public final void add(PortMap port) {
+    if (port.getNetworkId() != null) {
+      networks.computeIfAbsent(normalize(port.getNetworkId()), k -> new ArrayList<>()).add(port);
+      size++;
+    }
+  }
+
+  /**
+   * Get the port records of a network.
+   *
+   * @param networkId The network identifier, matched case-insensitively.
+   * @return The port records of the network, empty if none.
+   */
+  public List<PortMap> get(String networkId) {
+    List<PortMap> ports = networks.get(normalize(networkId));
+    return ports == null ? Collections.emptyList() : Collections.unmodifiableList(ports);
+  }
+
+  /**
+   * Get the total number of port records in the table.
+   *
+   * @return The number of port records.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Normalize a network identifier for case-insensitive lookup.
+   *
+   * @param networkId The network identifier.
+   * @return The normalized identifier.
+   */
+  public static String normalize(String networkId) {
+    return networkId.toLowerCase(Locale.ROOT);
+  }
+}
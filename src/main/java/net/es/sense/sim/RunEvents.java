@@ -0,0 +1,42 @@
+package net.es.sense.sim;
+
+/**
+ * Emits the phases of a run and the emission of each instance as profiler
+ * events.  The events are opaque to RunReport so it does not depend on an
+ * event API that may be missing from the JDK.
+ *
+ * @author hacksaw
+ */
+interface RunEvents {
+  /**
+   * Begin a phase event.
+   *
+   * @param phase The phase name.
+   * @return The event.
+   */
+  Object beginPhase(String phase);
+
+  /**
+   * Begin the event of emitting an instance.
+   *
+   * @param index The instance index.
+   * @param network The OpenNSA network name of the instance.
+   * @return The event.
+   */
+  Object beginInstance(int index, String network);
+
+  /**
+   * Record the number of ports of an instance event.
+   *
+   * @param event The event.
+   * @param ports The number of ports.
+   */
+  void setPorts(Object event, int ports);
+
+  /**
+   * End and commit an event.
+   *
+   * @param event The event.
+   */
+  void commit(Object event);
+}
@@ -0,0 +1,240 @@
+package net.es.sense.sim;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Instrumentation of a generation run: the time spent in each phase, counts
+ * of the documents, ports and instances processed, and the peak heap.  Each
+ * phase and instance is also emitted as a custom JFR event when built with
+ * the jfr profile and running on a JVM with Flight Recorder, so a recording
+ * taken with -XX:StartFlightRecording shows the phases alongside the usual
+ * profile.  The report is written as
+ * JSON so generator performance can be tracked across runs.
+ *
+ * Phases run more than once, such as the emission of each instance, are
+ * aggregated by name with their total time and count.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class RunReport {
+  // Phase names.
+  public static final String TEMPLATES = "templates";
+  public static final String PEERS = "peers";
+  public static final String NSA = "nsa";
+  public static final String TOPOLOGY = "topology";
+  public static final String SNAPSHOT = "snapshot";
+  public static final String AMPLIFY = "amplify";
+  public static final String PORT_CONFIG = "portConfig";
+  public static final String SELECT = "select";
+  public static final String EMIT = "emit";
+  public static final String INSTANCE = "instance";
+  public static final String TAC = "tac";
+  public static final String SCRIPTS = "scripts";
+  public static final String SCHEMA = "schema";
+  public static final String DISCOVERY = "discovery";
+  public static final String PROVIDERS = "providers";
+  public static final String COMMIT = "commit";
+
+  // Counter names.
+  public static final String NSA_DOCUMENTS = "nsaDocuments";
+  public static final String TOPOLOGY_DOCUMENTS = "topologyDocuments";
+  public static final String DOCUMENTS_FETCHED = "documentsFetched";
+  public static final String BYTES_FETCHED = "bytesFetched";
+  public static final String NETWORKS = "networks";
+  public static final String LINKS = "links";
+  public static final String PORTS = "ports";
+  public static final String INSTANCES_GENERATED = "instancesGenerated";
+  public static final String INSTANCES_SKIPPED = "instancesSkipped";
+  public static final String FILES_CHANGED = "filesChanged";
+
+  // The JFR events, null if they were not built or the JVM has no JFR.
+  private static final RunEvents EVENTS = loadEvents();
+
+  private static RunEvents loadEvents() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return Class.forName("net.es.sense.sim.GeneratorEvents")
+              .asSubclass(RunEvents.class).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError ex) {
+      log.debug("JFR events not available: {}", ex.toString());
+      return null;
+    }
+  }
+
+  // Total nanoseconds and number of runs of each phase, in first run order.
+  private final Map<String, long[]> phases = new LinkedHashMap<>();
+  private final Map<String, Long> counters = new LinkedHashMap<>();
+  private Instant started = Instant.now();
+  private long start = System.nanoTime();
+
+  /**
+   * A timed phase, ended by closing it.
+   */
+  public class Phase implements AutoCloseable {
+    private final String name;
+    private final long begin = System.nanoTime();
+    private final Object event;
+
+    private Phase(String name, Object event) {
+      this.name = name;
+      this.event = event;
+    }
+
+    /**
+     * Record the number of ports of an instance in its JFR event.
+     *
+     * @param ports The number of ports.
+     */
+    public void setPorts(int ports) {
+      if (event != null) {
+        EVENTS.setPorts(event, ports);
+      }
+    }
+
+    @Override
+    public void close() {
+      record(name, System.nanoTime() - begin);
+      if (event != null) {
+        EVENTS.commit(event);
+      }
+    }
+  }
+
+  /**
+   * Start a phase.
+   *
+   * @param name The phase name.
+   * @return The phase, to be closed when it ends.
+   */
+  public Phase phase(String name) {
+    return new Phase(name, EVENTS != null ? EVENTS.beginPhase(name) : null);
+  }
+
+  /**
+   * Start the emission of an instance, timed as the INSTANCE phase.
+   *
+   * @param index The instance index.
+   * @param network The OpenNSA network name of the instance.
+   * @return The phase, to be closed when the instance has been written.
+   */
+  public Phase instance(int index, String network) {
+    return new Phase(INSTANCE, EVENTS != null ? EVENTS.beginInstance(index, network) : null);
+  }
+
+  private synchronized void record(String name, long nanos) {
+    long[] totals = phases.computeIfAbsent(name, k -> new long[2]);
+    totals[0] += nanos;
+    totals[1]++;
+  }
+
+  /**
+   * Add to a counter.
+   *
+   * @param name The counter name.
+   * @param value The value to add.
+   */
+  public synchronized void count(String name, long value) {
+    counters.merge(name, value, Long::sum);
+  }
+
+  /**
+   * Get the value of a counter.
+   *
+   * @param name The counter name.
+   * @return The value, zero if never counted.
+   */
+  public synchronized long getCount(String name) {
+    return counters.getOrDefault(name, 0L);
+  }
+
+  /**
+   * Get the total time spent in a phase.
+   *
+   * @param name The phase name.
+   * @return The total time in nanoseconds, zero if the phase never ran.
+   */
+  public synchronized long getNanos(String name) {
+    long[] totals = phases.get(name);
+    return totals == null ? 0 : totals[0];
+  }
+
+  /**
+   * Clear all phases and counters to start a new run, and the peak heap
+   * usage so it covers only the new run.
+   */
+  public synchronized void reset() {
+    phases.clear();
+    counters.clear();
+    started = Instant.now();
+    start = System.nanoTime();
+    getHeapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+  }
+
+  /**
+   * Get the report as a tree of maps and lists ready for JSON serialization.
+   *
+   * @return The report.
+   */
+  public synchronized Map<String, Object> toMap() {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("started", started.toString());
+    report.put("durationMillis", millis(System.nanoTime() - start));
+
+    List<Map<String, Object>> list = new ArrayList<>();
+    phases.forEach((name, totals) -> {
+      Map<String, Object> phase = new LinkedHashMap<>();
+      phase.put("name", name);
+      phase.put("millis", millis(totals[0]));
+      phase.put("count", totals[1]);
+      list.add(phase);
+    });
+    report.put("phases", list);
+    report.put("counters", new LinkedHashMap<>(counters));
+
+    // The sum of the peaks of each heap pool, an upper bound of the peak heap.
+    Map<String, Object> memory = new LinkedHashMap<>();
+    memory.put("peakHeapBytes", getHeapPools().stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum());
+    memory.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+    report.put("memory", memory);
+    return report;
+  }
+
+  /**
+   * Write the report as JSON.
+   *
+   * @param file The file to write.
+   * @throws IOException If the report could not be written.
+   */
+  public void write(String file) throws IOException {
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    mapper.writeValue(new File(file), toMap());
+    log.info("Wrote run report {}", file);
+  }
+
+  private static double millis(long nanos) {
+    return Math.round(nanos / 1000.0) / 1000.0;
+  }
+
+  private static List<MemoryPoolMXBean> getHeapPools() {
+    List<MemoryPoolMXBean> pools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pools.add(pool);
+      }
+    }
+    return pools;
+  }
+}
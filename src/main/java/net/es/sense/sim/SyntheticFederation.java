@@ -0,0 +1,397 @@
+package net.es.sense.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import net.es.nsi.common.SimpleStp;
+import net.es.nsi.common.constants.Nsi;
+
+/**
+ * Generates a synthetic federation of NSA and NML topology documents so the
+ * simulation can be generated and stress tested at any scale without access
+ * to an NSI-DDS.  The documents are returned as a DDS snapshot and replayed
+ * through the normal decoding path, so everything downstream of the DDS is
+ * exercised unchanged and the federation can be recorded with -snapshot-out.
+ *
+ * Network i is named n<i>.sim with topology urn:ogf:network:n<i>.sim:2020:topology
+ * and NSA urn:ogf:network:n<i>.sim:2020:nsa.  Each network has the requested
+ * number of edge ports plus one inter-domain port "to-<peer>" for each link,
+ * whose inbound and outbound members are isAlias of the peer's outbound and
+ * inbound members.  All ports advertise the same VLAN range.
+ *
+ * The inter-domain links form a ring, a random tree, or a scale-free graph
+ * grown by preferential attachment.  Generation is driven by a seeded random
+ * number generator and documents carry a fixed version, so the same
+ * parameters always produce identical documents.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+@Data
+public class SyntheticFederation {
+  // Inter-domain link structures.
+  public static final String RING = "ring";
+  public static final String TREE = "tree";
+  public static final String SCALE_FREE = "scale-free";
+
+  // Fixed document version and expiry so generation is reproducible.
+  private static final String VERSION = "2020-01-01T00:00:00.000Z";
+  private static final String EXPIRES = "2099-12-31T00:00:00.000Z";
+
+  private static final String NSA_NS = "http://schemas.ogf.org/nsi/2014/02/discovery/nsa";
+  private static final String NML_NS = "http://schemas.ogf.org/nml/2013/05/base#";
+  private static final String ETHERNET = "http://schemas.ogf.org/nml/2012/10/ethernet";
+  private static final String UPA = "vnd.ogf.nsi.cs.v2.role.uPA";
+
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  // The number of networks in the federation.
+  private int networks = 100;
+
+  // The number of edge ports without an inter-domain link in each network.
+  private int ports = 4;
+
+  // The VLAN advertised on every port.
+  private VlanSet vlans = VlanSet.range(1779, 1799);
+
+  // The inter-domain link structure.
+  private String structure = RING;
+
+  // The number of links added for each network of a scale-free federation.
+  private int degree = 2;
+
+  // The seed of the random number generator.
+  private long seed = 1;
+
+  /**
+   * Parse a federation description of comma separated key=value pairs, for
+   * example "networks=1000,ports=8,structure=scale-free,degree=2,seed=7".
+   * The VLAN may be given as a list of ranges, "vlans=100,200-300", and a
+   * bare number is taken as the number of networks.
+   *
+   * @param spec The federation description.
+   * @return The federation.
+   * @throws IllegalArgumentException If the description is invalid.
+   */
+  public static SyntheticFederation parse(String spec) throws IllegalArgumentException {
+    SyntheticFederation federation = new SyntheticFederation();
+    if (spec == null) {
+      return federation;
+    }
+
+    // Values containing commas are continued by elements without a key.
+    List<String[]> pairs = new ArrayList<>();
+    for (String element : spec.split(",")) {
+      element = element.trim();
+      if (element.isEmpty()) {
+        continue;
+      }
+
+      int equals = element.indexOf('=');
+      if (equals > 0) {
+        pairs.add(new String[] { element.substring(0, equals).trim(), element.substring(equals + 1).trim() });
+      } else if (pairs.isEmpty()) {
+        pairs.add(new String[] { "networks", element });
+      } else {
+        String[] last = pairs.get(pairs.size() - 1);
+        last[1] = last[1] + "," + element;
+      }
+    }
+
+    for (String[] pair : pairs) {
+      try {
+        switch (pair[0].toLowerCase()) {
+          case "networks":
+            federation.setNetworks(Integer.parseInt(pair[1]));
+            break;
+          case "ports":
+            federation.setPorts(Integer.parseInt(pair[1]));
+            break;
+          case "vlans":
+            federation.setVlans(VlanSet.parse(pair[1]));
+            break;
+          case "structure":
+            federation.setStructure(pair[1].toLowerCase());
+            break;
+          case "degree":
+            federation.setDegree(Integer.parseInt(pair[1]));
+            break;
+          case "seed":
+            federation.setSeed(Long.parseLong(pair[1]));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown synthetic federation parameter " + pair[0]);
+        }
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Invalid synthetic federation parameter " + pair[0] + "=" + pair[1]);
+      }
+    }
+
+    federation.validate();
+    return federation;
+  }
+
+  /**
+   * Validate the federation parameters.
+   *
+   * @throws IllegalArgumentException If a parameter is out of range.
+   */
+  public void validate() throws IllegalArgumentException {
+    if (networks < 1) {
+      throw new IllegalArgumentException("Synthetic federation needs at least one network");
+    } else if (ports < 0) {
+      throw new IllegalArgumentException("Synthetic federation ports cannot be negative");
+    } else if (degree < 1) {
+      throw new IllegalArgumentException("Synthetic federation degree must be at least 1");
+    } else if (vlans == null || vlans.isEmpty()) {
+      throw new IllegalArgumentException("Synthetic federation needs at least one VLAN");
+    } else if (!RING.equals(structure) && !TREE.equals(structure) && !SCALE_FREE.equals(structure)) {
+      throw new IllegalArgumentException("Unknown synthetic federation structure " + structure);
+    }
+  }
+
+  /**
+   * Get the OpenNSA style name of a network.
+   *
+   * @param index The network index.
+   * @return The network name, zero padded so names sort in index order.
+   */
+  public String getName(int index) {
+    int width = Integer.toString(networks - 1).length();
+    return String.format("n%0" + width + "d.sim", index);
+  }
+
+  /**
+   * Get the topology identifier of a network.
+   *
+   * @param index The network index.
+   * @return The topology identifier.
+   */
+  public String getNetworkId(int index) {
+    return SimpleStp.NSI_NETWORK_URN_PREFIX + getName(index) + ":2020:topology";
+  }
+
+  /**
+   * Get the NSA identifier of a network.
+   *
+   * @param index The network index.
+   * @return The NSA identifier.
+   */
+  public String getNsaId(int index) {
+    return SimpleStp.NSI_NETWORK_URN_PREFIX + getName(index) + ":2020:nsa";
+  }
+
+  /**
+   * Generate the inter-domain links of the federation.
+   *
+   * @return The peer network indexes of each network, in the order the
+   *    links were created.
+   */
+  public List<List<Integer>> getLinks() {
+    validate();
+
+    List<List<Integer>> links = new ArrayList<>(networks);
+    for (int i = 0; i < networks; i++) {
+      links.add(new ArrayList<>());
+    }
+
+    Random random = new Random(seed);
+    Set<Long> pairs = new HashSet<>();
+    if (RING.equals(structure)) {
+      for (int i = 0; networks > 1 && i < networks; i++) {
+        link(links, pairs, i, (i + 1) % networks);
+      }
+    } else if (TREE.equals(structure)) {
+      for (int i = 1; i < networks; i++) {
+        link(links, pairs, i, random.nextInt(i));
+      }
+    } else {
+      // Each new network links to distinct existing networks chosen with a
+      // probability proportional to their degree.
+      List<Integer> ends = new ArrayList<>();
+      for (int i = 1; i < networks; i++) {
+        Set<Integer> targets = new LinkedHashSet<>();
+        int count = Math.min(degree, i);
+        while (targets.size() < count) {
+          targets.add(ends.isEmpty() ? random.nextInt(i) : ends.get(random.nextInt(ends.size())));
+        }
+
+        for (int target : targets) {
+          if (link(links, pairs, i, target)) {
+            ends.add(i);
+            ends.add(target);
+          }
+        }
+      }
+    }
+    return links;
+  }
+
+  private static boolean link(List<List<Integer>> links, Set<Long> pairs, int a, int b) {
+    long pair = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    if (a == b || !pairs.add(pair)) {
+      return false;
+    }
+    links.get(a).add(b);
+    links.get(b).add(a);
+    return true;
+  }
+
+  /**
+   * Generate the NSA and topology documents of the federation.
+   *
+   * @return A snapshot holding the generated documents.
+   * @throws IOException If a document could not be generated.
+   */
+  public DdsSnapshot generate() throws IOException {
+    List<List<Integer>> links = getLinks();
+
+    DdsSnapshot snapshot = new DdsSnapshot();
+    int total = 0;
+    for (int i = 0; i < networks; i++) {
+      try {
+        snapshot.add(document(getNsaId(i), Nsi.NSI_DOC_TYPE_NSA_V1, getNsaId(i), nsa(i)));
+        snapshot.add(document(getNsaId(i), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, getNetworkId(i), topology(i, links.get(i))));
+      } catch (XMLStreamException ex) {
+        throw new IOException("Could not generate documents for " + getName(i), ex);
+      }
+      total += links.get(i).size();
+    }
+
+    log.info("Generated synthetic {} federation of {} networks, {} links, {} documents",
+            structure, networks, total / 2, snapshot.getDocuments().size());
+    return snapshot;
+  }
+
+  private static DdsDocument document(String nsaId, String type, String id, byte[] xml) throws IOException {
+    DdsDocument document = new DdsDocument();
+    document.setNsa(nsaId);
+    document.setType(type);
+    document.setId(id);
+    document.setHref("/documents/" + id);
+    document.setVersion(VERSION);
+    document.setExpires(EXPIRES);
+    document.setXmlContent(xml);
+    return document;
+  }
+
+  /**
+   * Generate the NSA discovery document of a network.
+   */
+  private byte[] nsa(int index) throws XMLStreamException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(os, StandardCharsets.UTF_8.name());
+    writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+    writer.writeStartElement("nsa", "nsa", NSA_NS);
+    writer.writeNamespace("nsa", NSA_NS);
+    writer.writeAttribute("id", getNsaId(index));
+    writer.writeAttribute("version", VERSION);
+    writer.writeAttribute("expires", EXPIRES);
+    element(writer, "name", getName(index));
+    element(writer, "softwareVersion", "sense-sim");
+    element(writer, "startTime", VERSION);
+    element(writer, "networkId", getNetworkId(index));
+    writer.writeEmptyElement("feature");
+    writer.writeAttribute("type", UPA);
+    writer.writeEndElement();
+    writer.writeEndDocument();
+    writer.close();
+    return os.toByteArray();
+  }
+
+  /**
+   * Generate the NML topology document of a network.
+   */
+  private byte[] topology(int index, List<Integer> peers) throws XMLStreamException {
+    String networkId = getNetworkId(index);
+
+    // Edge ports first, then a port towards each peer.
+    List<String> names = new ArrayList<>(ports + peers.size());
+    List<String> remotes = new ArrayList<>(ports + peers.size());
+    for (int p = 1; p <= ports; p++) {
+      names.add("port-" + p);
+      remotes.add(null);
+    }
+    for (int peer : peers) {
+      names.add("to-" + getName(peer));
+      remotes.add(getNetworkId(peer) + ":to-" + getName(index));
+    }
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(os, StandardCharsets.UTF_8.name());
+    writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+    writer.writeStartElement("nml", "Topology", NML_NS);
+    writer.writeNamespace("nml", NML_NS);
+    writer.writeAttribute("id", networkId);
+    writer.writeAttribute("version", VERSION);
+    nmlElement(writer, "name", getName(index));
+
+    for (String name : names) {
+      writer.writeStartElement("nml", "BidirectionalPort", NML_NS);
+      writer.writeAttribute("id", networkId + ":" + name);
+      nmlElement(writer, "name", name);
+      for (String direction : new String[] { ":in", ":out" }) {
+        writer.writeEmptyElement("nml", "PortGroup", NML_NS);
+        writer.writeAttribute("id", networkId + ":" + name + direction);
+      }
+      writer.writeEndElement();
+    }
+
+    // Inbound members are an alias of the peer's outbound member and the
+    // reverse.
+    portGroups(writer, "hasInboundPort", networkId, names, remotes, ":in", ":out");
+    portGroups(writer, "hasOutboundPort", networkId, names, remotes, ":out", ":in");
+
+    writer.writeEndElement();
+    writer.writeEndDocument();
+    writer.close();
+    return os.toByteArray();
+  }
+
+  private void portGroups(XMLStreamWriter writer, String relation, String networkId, List<String> names,
+          List<String> remotes, String local, String remote) throws XMLStreamException {
+    writer.writeStartElement("nml", "Relation", NML_NS);
+    writer.writeAttribute("type", NML_NS + relation);
+    for (int p = 0; p < names.size(); p++) {
+      writer.writeStartElement("nml", "PortGroup", NML_NS);
+      writer.writeAttribute("encoding", ETHERNET);
+      writer.writeAttribute("id", networkId + ":" + names.get(p) + local);
+      writer.writeStartElement("nml", "LabelGroup", NML_NS);
+      writer.writeAttribute("labeltype", SimpleStp.NSI_VLAN_LABEL_URN);
+      writer.writeCharacters(vlans.toString());
+      writer.writeEndElement();
+      if (remotes.get(p) != null) {
+        writer.writeStartElement("nml", "Relation", NML_NS);
+        writer.writeAttribute("type", NML_NS + "isAlias");
+        writer.writeEmptyElement("nml", "PortGroup", NML_NS);
+        writer.writeAttribute("id", remotes.get(p) + remote);
+        writer.writeEndElement();
+      }
+      writer.writeEndElement();
+    }
+    writer.writeEndElement();
+  }
+
+  private static void element(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+    writer.writeStartElement(name);
+    writer.writeCharacters(value);
+    writer.writeEndElement();
+  }
+
+  private static void nmlElement(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+    writer.writeStartElement("nml", name, NML_NS);
+    writer.writeCharacters(value);
+    writer.writeEndElement();
+  }
+}
@@ -0,0 +1,112 @@
+package net.es.sense.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Streams generated files into a gzip compressed tar archive, so a complete
+ * simulation can be piped to a remote host without touching local disk.
+ * Entries are written in the order files are generated, and are not
+ * withdrawn if the generation later fails.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class TarSink implements OutputSink {
+  // The name used to request the archive be written to standard output.
+  public static final String STDOUT = "-";
+
+  // Regular file modes for generated files and scripts.
+  private static final int MODE_FILE = 0100644;
+  private static final int MODE_SCRIPT = 0100755;
+
+  private final TarArchiveOutputStream tar;
+  private final Date modified = new Date();
+  private final Set<String> written = new TreeSet<>();
+  private Set<String> changed = Collections.emptySet();
+  private int count = 0;
+
+  /**
+   * Create a sink writing to the specified stream.
+   *
+   * @param os The stream to write the archive to.
+   * @throws IOException If the archive could not be started.
+   */
+  public TarSink(OutputStream os) throws IOException {
+    tar = new TarArchiveOutputStream(new GZIPOutputStream(new BufferedOutputStream(os, 64 * 1024), 64 * 1024));
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+  }
+
+  /**
+   * Create a sink writing to a file, or to standard output.
+   *
+   * @param file The archive file name, or "-" for standard output.
+   * @return The sink.
+   * @throws IOException If the file could not be created.
+   */
+  public static TarSink of(String file) throws IOException {
+    if (STDOUT.equals(file)) {
+      // Closing the archive must not close standard output for the JVM.
+      return new TarSink(new FilterOutputStream(System.out) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      });
+    }
+    return new TarSink(new FileOutputStream(file));
+  }
+
+  @Override
+  public synchronized void write(String name, byte[] content) throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(content.length);
+    entry.setModTime(modified);
+    entry.setMode(name.endsWith(".sh") ? MODE_SCRIPT : MODE_FILE);
+    tar.putArchiveEntry(entry);
+    tar.write(content);
+    tar.closeArchiveEntry();
+    written.add(name);
+    count++;
+  }
+
+  /**
+   * Entries are streamed as they are written so there is nothing to publish,
+   * every file written is reported as changed.
+   */
+  @Override
+  public synchronized void commit() throws IOException {
+    tar.flush();
+    changed = Collections.unmodifiableSet(new TreeSet<>(written));
+    written.clear();
+  }
+
+  @Override
+  public synchronized Set<String> getChanged() {
+    return changed;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    tar.finish();
+    tar.close();
+    log.info("Wrote {} files to archive", count);
+  }
+}
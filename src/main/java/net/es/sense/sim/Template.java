@@ -0,0 +1,164 @@
+package net.es.sense.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A text template compiled once into alternating literal and named
+ * placeholder segments, then rendered any number of times.  Placeholders are
+ * written as {{name}}, a syntax that does not collide with the ${...} and
+ * %... expressions used inside YAML, logback and OpenNSA configuration.
+ *
+ * Rendering appends into a buffer reused by each thread, so rendering
+ * thousands of instance configurations only allocates the resulting string.
+ *
+ * @author hacksaw
+ */
+public class Template {
+  private static final String OPEN = "{{";
+  private static final String CLOSE = "}}";
+
+  // A rendering buffer reused by each thread.
+  private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+
+  // The literal text before each placeholder, plus the trailing literal, so
+  // literals.length == names.length + 1.
+  private final String[] literals;
+  private final String[] names;
+  private final int length;
+
+  private Template(List<String> literals, List<String> names) {
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.names = names.toArray(new String[names.size()]);
+    this.length = literals.stream().mapToInt(String::length).sum();
+  }
+
+  /**
+   * Compile a template.
+   *
+   * @param text The template text.
+   * @return The compiled template.
+   * @throws IllegalArgumentException If a placeholder is not terminated or has no name.
+   */
+  public static Template compile(String text) throws IllegalArgumentException {
+    List<String> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+
+    int start = 0;
+    int open;
+    while ((open = text.indexOf(OPEN, start)) >= 0) {
+      int close = text.indexOf(CLOSE, open + OPEN.length());
+      if (close < 0) {
+        throw new IllegalArgumentException("Unterminated template placeholder at offset " + open);
+      }
+
+      String name = text.substring(open + OPEN.length(), close).trim();
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException("Empty template placeholder at offset " + open);
+      }
+
+      literals.add(text.substring(start, open));
+      names.add(name);
+      start = close + CLOSE.length();
+    }
+    literals.add(text.substring(start));
+
+    return new Template(literals, names);
+  }
+
+  /**
+   * Compile a template that may still use positional String.format %s and %d
+   * specifiers instead of named placeholders.  If the text contains no named
+   * placeholders each positional specifier is replaced, in order, by the
+   * corresponding name so existing templates keep working.
+   *
+   * @param text The template text.
+   * @param positional The placeholder names in positional order.
+   * @return The compiled template.
+   * @throws IllegalArgumentException If the number of positional specifiers
+   *    does not match the number of names.
+   */
+  public static Template compile(String text, List<String> positional) throws IllegalArgumentException {
+    if (text.contains(OPEN)) {
+      return compile(text);
+    }
+
+    StringBuilder sb = new StringBuilder(text.length());
+    int count = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '%' && i + 1 < text.length()) {
+        char next = text.charAt(i + 1);
+        if (next == 's' || next == 'd') {
+          if (count >= positional.size()) {
+            throw new IllegalArgumentException("Template has more than " + positional.size() + " positional arguments");
+          }
+          sb.append(OPEN).append(positional.get(count++)).append(CLOSE);
+          i++;
+          continue;
+        } else if (next == '%') {
+          sb.append('%');
+          i++;
+          continue;
+        }
+      }
+      sb.append(c);
+    }
+
+    if (count != positional.size()) {
+      throw new IllegalArgumentException("Template has " + count + " positional arguments, expected "
+              + positional.size());
+    }
+
+    return compile(sb.toString());
+  }
+
+  /**
+   * Get the names of the placeholders used in this template.
+   *
+   * @return The placeholder names in order of first use.
+   */
+  public Set<String> getNames() {
+    Set<String> result = new LinkedHashSet<>();
+    Collections.addAll(result, names);
+    return result;
+  }
+
+  /**
+   * Render the template into a buffer.
+   *
+   * @param values The placeholder values indexed by name.
+   * @param sb The buffer to append to.
+   * @return The buffer.
+   * @throws IllegalArgumentException If a placeholder has no value.
+   */
+  public StringBuilder render(Map<String, ?> values, StringBuilder sb) throws IllegalArgumentException {
+    for (int i = 0; i < names.length; i++) {
+      sb.append(literals[i]);
+      Object value = values.get(names[i]);
+      if (value == null) {
+        throw new IllegalArgumentException("No value for template placeholder " + names[i]);
+      }
+      sb.append(value);
+    }
+    return sb.append(literals[names.length]);
+  }
+
+  /**
+   * Render the template to a string.
+   *
+   * @param values The placeholder values indexed by name.
+   * @return The rendered text.
+   * @throws IllegalArgumentException If a placeholder has no value.
+   */
+  public String render(Map<String, ?> values) throws IllegalArgumentException {
+    StringBuilder sb = BUFFER.get();
+    sb.setLength(0);
+    sb.ensureCapacity(length + 64 * names.length);
+    return render(values, sb).toString();
+  }
+}
@@ -1,15 +1,19 @@
 package net.es.sense.sim;
 
+import java.util.List;
+import java.util.Map;
 import lombok.Data;
-import net.es.nsi.common.jaxb.nml.NmlTopologyType;
 
 /**
- * A simple bean mapping between network identifier and NM document.
+ * A simple bean mapping between network identifier and the port records
+ * derived from its NML document.
  *
  * @author hacksaw
  */
 @Data
 public class TopologyMap {
   String networkId;
-  NmlTopologyType document;
+  String id;
+  List<PortMap> ports;
+  Map<String, PortMap> members;
 }
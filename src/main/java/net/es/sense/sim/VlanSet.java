@@ -0,0 +1,172 @@
+package net.es.sense.sim;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.BitSet;
+
+/**
+ * An immutable set of VLAN identifiers held as a 4096 bit set.  Label values
+ * in any of the NSI range syntaxes ("100", "1779-1799", "100,200-300") are
+ * parsed once, clamped to the legal range, and rendered back as the minimal
+ * list of ranges.  Equal sets share a single instance since most ports of a
+ * network advertise the same ranges.
+ *
+ * @author hacksaw
+ */
+public class VlanSet {
+  // The legal VLAN range accepted by OpenNSA.
+  public static final int MIN = 1;
+  public static final int MAX = 4095;
+
+  private static final Interner<VlanSet> INTERNER = Interners.newWeakInterner();
+
+  public static final VlanSet EMPTY = of(new BitSet());
+  public static final VlanSet ALL = range(MIN, MAX);
+
+  private final BitSet bits;
+
+  private VlanSet(BitSet bits) {
+    this.bits = bits;
+  }
+
+  private static VlanSet of(BitSet bits) {
+    return INTERNER.intern(new VlanSet(bits));
+  }
+
+  /**
+   * Get the set holding a single range of VLAN, clamped to the legal range.
+   *
+   * @param from The first VLAN in the range.
+   * @param to The last VLAN in the range.
+   * @return The set.
+   */
+  public static VlanSet range(int from, int to) {
+    BitSet bits = new BitSet(MAX + 1);
+    set(bits, from, to);
+    return of(bits);
+  }
+
+  /**
+   * Parse a label value holding a comma separated list of VLAN and VLAN
+   * ranges.  Values outside the legal range are dropped.
+   *
+   * @param value The label value.
+   * @return The set, empty if the value is empty.
+   * @throws IllegalArgumentException If the value is not a valid list of ranges.
+   */
+  public static VlanSet parse(String value) throws IllegalArgumentException {
+    if (Strings.isNullOrEmpty(value)) {
+      return EMPTY;
+    }
+
+    BitSet bits = new BitSet(MAX + 1);
+    for (String element : value.split(",")) {
+      element = element.trim();
+      if (element.isEmpty()) {
+        continue;
+      }
+
+      try {
+        int dash = element.indexOf('-');
+        if (dash < 0) {
+          int vlan = Integer.parseInt(element);
+          set(bits, vlan, vlan);
+        } else {
+          set(bits, Integer.parseInt(element.substring(0, dash).trim()),
+                  Integer.parseInt(element.substring(dash + 1).trim()));
+        }
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Invalid VLAN range \"" + element + "\" in \"" + value + "\"");
+      }
+    }
+
+    return of(bits);
+  }
+
+  private static void set(BitSet bits, int from, int to) {
+    int low = Math.max(Math.min(from, to), MIN);
+    int high = Math.min(Math.max(from, to), MAX);
+    if (low <= high) {
+      bits.set(low, high + 1);
+    }
+  }
+
+  /**
+   * Get the union of this set with another.
+   *
+   * @param other The other set.
+   * @return The VLAN in either set.
+   */
+  public VlanSet union(VlanSet other) {
+    BitSet result = (BitSet) bits.clone();
+    result.or(other.bits);
+    return of(result);
+  }
+
+  /**
+   * Get the intersection of this set with another.
+   *
+   * @param other The other set.
+   * @return The VLAN in both sets.
+   */
+  public VlanSet intersection(VlanSet other) {
+    BitSet result = (BitSet) bits.clone();
+    result.and(other.bits);
+    return of(result);
+  }
+
+  /**
+   * Determine if this set has any VLAN in common with another.
+   *
+   * @param other The other set.
+   * @return True if there is at least one common VLAN.
+   */
+  public boolean intersects(VlanSet other) {
+    return bits.intersects(other.bits);
+  }
+
+  public boolean contains(int vlan) {
+    return bits.get(vlan);
+  }
+
+  public boolean isEmpty() {
+    return bits.isEmpty();
+  }
+
+  public int size() {
+    return bits.cardinality();
+  }
+
+  /**
+   * Render the set as the minimal comma separated list of ranges.
+   *
+   * @return The ranges, or an empty string if the set is empty.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int from = bits.nextSetBit(0); from >= 0; from = bits.nextSetBit(from)) {
+      int to = bits.nextClearBit(from) - 1;
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(from);
+      if (to > from) {
+        sb.append('-').append(to);
+      }
+      from = to + 1;
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || (o instanceof VlanSet && bits.equals(((VlanSet) o).bits));
+  }
+
+  @Override
+  public int hashCode() {
+    return bits.hashCode();
+  }
+}
@@ -0,0 +1,86 @@
+package net.es.sense.sim;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a list of independent tasks on a bounded worker pool, returning their
+ * results in the order the tasks were submitted so callers get the same
+ * output regardless of the number of threads.
+ *
+ * @author hacksaw
+ */
+public class Workers {
+  /**
+   * Run the list of tasks and return their results in submission order.
+   *
+   * @param <T> The task result type.
+   * @param tasks The tasks to run.
+   * @param threads The maximum number of worker threads.
+   * @param nameFormat The worker thread name format.
+   * @return The task results in submission order.
+   * @throws IOException If a task failed with a checked exception.
+   */
+  public static <T> List<T> execute(List<Callable<T>> tasks, int threads, String nameFormat)
+          throws IOException {
+    List<T> results = new ArrayList<>(tasks.size());
+
+    // No need for a pool if we are only running a single thread.
+    if (threads <= 1 || tasks.size() < 2) {
+      for (Callable<T> task : tasks) {
+        try {
+          results.add(task.call());
+        } catch (Exception ex) {
+          throw rethrow(ex);
+        }
+      }
+      return results;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()),
+            new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+    try {
+      List<Future<T>> futures = new ArrayList<>(tasks.size());
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running tasks", ex);
+    } catch (ExecutionException ex) {
+      throw rethrow(ex.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return results;
+  }
+
+  /**
+   * Convert a worker failure back into the exceptions declared by callers.
+   *
+   * @param ex The failure.
+   * @return An IOException to throw if the failure was not already unchecked.
+   */
+  private static IOException rethrow(Throwable ex) {
+    if (ex instanceof RuntimeException) {
+      throw (RuntimeException) ex;
+    } else if (ex instanceof Error) {
+      throw (Error) ex;
+    } else if (ex instanceof IOException) {
+      return (IOException) ex;
+    }
+    return new IOException(ex);
+  }
+}
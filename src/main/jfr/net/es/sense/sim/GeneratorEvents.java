@@ -0,0 +1,82 @@
+package net.es.sense.sim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Custom Java Flight Recorder events for the generator phases and the
+ * emission of each instance, so a flight recording of a run shows where the
+ * time went alongside the usual CPU, allocation and GC events.
+ *
+ * This class needs the jdk.jfr API of JDK 11 or JDK 8u262 and later, so it
+ * is kept out of the main source tree and only compiled by the jfr profile.
+ * RunReport loads it by name when both it and JFR are available.
+ *
+ * @author hacksaw
+ */
+final class GeneratorEvents implements RunEvents {
+  private static final String CATEGORY = "SENSE-SIM";
+
+  @Name("net.es.sense.sim.Phase")
+  @Label("Generator Phase")
+  @Description("A phase of configuration generation.")
+  @Category(CATEGORY)
+  static class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+  }
+
+  @Name("net.es.sense.sim.Instance")
+  @Label("Instance Emission")
+  @Description("Rendering and writing the files of one simulated instance.")
+  @Category(CATEGORY)
+  static class InstanceEvent extends Event {
+    @Label("Index")
+    int index;
+
+    @Label("Network")
+    String network;
+
+    @Label("Ports")
+    int ports;
+  }
+
+  GeneratorEvents() {
+  }
+
+  @Override
+  public Object beginPhase(String phase) {
+    PhaseEvent event = new PhaseEvent();
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public Object beginInstance(int index, String network) {
+    InstanceEvent event = new InstanceEvent();
+    event.index = index;
+    event.network = network;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void setPorts(Object event, int ports) {
+    if (event instanceof InstanceEvent) {
+      ((InstanceEvent) event).ports = ports;
+    }
+  }
+
+  @Override
+  public void commit(Object event) {
+    Event e = (Event) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.commit();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package net.es.sense.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class AmplifierTest {
+  private static TopologyMap topology(String networkId, String local, String isAlias) {
+    PortMap pm = new PortMap();
+    pm.setType("ethernet");
+    pm.setNetworkId(networkId);
+    pm.setPortId(networkId + ":" + local);
+    pm.setPortName(local);
+    pm.setIsAlias(isAlias);
+    pm.setInter("em0");
+
+    Map<String, PortMap> members = new LinkedHashMap<>();
+    members.put(pm.getPortId() + ":in", pm);
+    members.put(pm.getPortId() + ":out", pm);
+
+    TopologyMap topology = new TopologyMap();
+    topology.setNetworkId(networkId);
+    topology.setId(networkId);
+    topology.setPorts(new ArrayList<>(Arrays.asList(pm)));
+    topology.setMembers(members);
+    return topology;
+  }
+
+  @Test
+  public void testAmplify() throws Exception {
+    String a = "urn:ogf:network:a.net:2013:";
+    String b = "urn:ogf:network:b.net:2013:";
+    Map<String, TopologyMap> topologies = new HashMap<>();
+    topologies.put(a, topology(a, "to_b", b + ":to_a:out"));
+    topologies.put(b, topology(b, "to_a", a + ":to_b:out"));
+
+    Map<String, TopologyMap> result = new Amplifier(3).amplifyTopologies(topologies);
+    assertEquals(6, result.size());
+    assertEquals("urn:ogf:network:c2.a.net:2013:", Amplifier.clone(a, 2));
+
+    // Every isAlias resolves to a port whose isAlias points back.
+    Map<String, PortMap> members = new HashMap<>();
+    result.values().forEach(t -> members.putAll(t.getMembers()));
+    int bridges = 0;
+    for (TopologyMap t : result.values()) {
+      for (PortMap pm : t.getPorts()) {
+        PortMap remote = members.get(pm.getIsAlias());
+        assertNotNull(pm.getIsAlias(), remote);
+        assertSame(pm, members.get(remote.getIsAlias()));
+        if (pm.getPortName().startsWith("amplify-")) {
+          bridges++;
+        }
+      }
+    }
+    assertEquals(4, bridges);
+
+    // The decoded topologies are left unchanged.
+    assertEquals(b + ":to_a:out", topologies.get(a).getPorts().get(0).getIsAlias());
+    assertEquals(1, topologies.get(a).getPorts().size());
+  }
+}
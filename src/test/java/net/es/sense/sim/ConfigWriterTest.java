@@ -1,6 +1,13 @@
 package net.es.sense.sim;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -29,4 +36,66 @@ public class ConfigWriterTest {
     assertEquals("tb.es.net:2013",
             ConfigWriter.strip_networkUrn("urn:ogf:network:tb.es.net:2013:"));
   }
+
+  @Test
+  public void testRelayUrl() throws Exception {
+    MemorySink sink = new MemorySink();
+    ConfigWriter.builder()
+            .userId("sense")
+            .password("sense")
+            .schemaFile("src/main/resources/schema.sql")
+            .rmFile("src/main/resources/sense-rm.yaml")
+            .logFile("src/main/resources/logback.xml")
+            .peersFile("src/test/resources/peers.yaml")
+            .address("simhost")
+            .threads(1)
+            .synthetic(SyntheticFederation.parse("networks=2,ports=1"))
+            .sink(sink)
+            .build()
+            .write();
+
+    // Without -relay the instances use a relay on the default port.
+    assertTrue(sink.getText("sense0.yaml").contains("    - http://simhost:8401/dds\n"));
+    assertTrue(sink.getText("sense1.yaml").contains("    - http://simhost:8401/dds\n"));
+  }
+
+  @Test
+  public void testSeedWithEdgePeers() throws Exception {
+    // The shipped peers include GEANT ports with a "-" remote, which have no
+    // remote network and must pass through the selection unchanged.
+    String peersFile = "src/main/resources/peers.yaml";
+    Map<String, Peer> peers = Peers.getPeers(peersFile);
+    NetworkGraph graph = new NetworkGraph();
+    graph.addPeers(peers);
+    Set<String> selected = new TreeSet<>(graph.getNeighbourhood(
+            Arrays.asList("ham.ccs.nsi.geant.net:2017", "es.net:2013"), 0));
+
+    MemorySink sink = new MemorySink();
+    ConfigWriter writer = ConfigWriter.builder()
+            .userId("sense")
+            .password("sense")
+            .peersFile(peersFile)
+            .address("simhost")
+            .threads(1)
+            .seeds(Arrays.asList("ham.ccs.nsi.geant.net:2017", "es.net:2013"))
+            .hops(0)
+            .sink(sink)
+            .build();
+    Template rm = Template.compile("{{network}}\n");
+    Template log = Template.compile("{{filename}}\n");
+    PortTable portConfig = new PortTable(Collections.emptyList());
+
+    assertTrue(writer.writeNSA(rm, log, "urn:ogf:network:ham.ccs.nsi.geant.net:2017:nsa",
+            "urn:ogf:network:ham.ccs.nsi.geant.net:2017:topology", portConfig, 0, peers, selected).isPresent());
+
+    // The only es.net peer port links to netlab.es.net, which is not selected.
+    assertFalse(writer.writeNSA(rm, log, "urn:ogf:network:es.net:2013:nsa",
+            "urn:ogf:network:es.net:2013:topology", portConfig, 1, peers, selected).isPresent());
+
+    sink.commit();
+    String nrm = sink.getText("nsa0.nrm");
+    assertTrue(nrm, nrm.contains("ethernet dtn-0 - vlan:1-4095 100000 fk0 -\n"));
+    assertTrue(nrm, nrm.contains("ethernet dtn-1 - vlan:1-4095"));
+    assertFalse(sink.getFiles().containsKey("nsa1.nrm"));
+  }
 }
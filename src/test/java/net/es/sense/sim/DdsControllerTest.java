@@ -0,0 +1,181 @@
+package net.es.sense.sim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import net.es.nsi.common.constants.Nsi;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Retrieves documents through a document cache from an in-process stand-in
+ * for the NSI-DDS, checking only new or changed documents are retrieved.
+ *
+ * @author hacksaw
+ */
+public class DdsControllerTest {
+  private static final String SUMMARY = "summary=true";
+
+  private final SyntheticFederation federation = SyntheticFederation.parse("networks=3,ports=1");
+
+  // The stand-in DDS, the documents it serves, and the requests it received.
+  private HttpServer server;
+  private String ddsUrl;
+  private DdsSnapshot dds;
+  private volatile boolean failSummary = false;
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    dds = federation.generate();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    ddsUrl = "http://localhost:" + server.getAddress().getPort() + "/dds";
+    server.createContext("/dds/documents", this::handle);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath().substring("/dds/documents".length());
+      String query = exchange.getRequestURI().getRawQuery();
+      requests.add(query == null ? path : path + "?" + query);
+
+      String xml;
+      if (path.length() > 1) {
+        // A single document as /nsa/type/id.
+        String[] segments = path.substring(1).split("/");
+        DdsDocument document = segments.length == 3 ? dds.getDocument(segments[0], segments[1], segments[2]) : null;
+        if (document == null) {
+          exchange.sendResponseHeaders(404, -1);
+          return;
+        }
+        xml = DdsXml.XML_DECLARATION + DdsXml.toXml(document, "tns:document", DdsXml.NSI_DDS_NAMESPACE);
+      } else {
+        boolean summary = query != null && query.contains(SUMMARY);
+        if (summary && failSummary) {
+          exchange.sendResponseHeaders(500, -1);
+          return;
+        }
+
+        String type = getType(query);
+        StringBuilder sb = new StringBuilder(DdsXml.XML_DECLARATION);
+        sb.append("<tns:documents xmlns:tns=\"").append(DdsXml.NSI_DDS_NAMESPACE).append("\">\n");
+        for (DdsDocument document : dds.getDocuments()) {
+          if (type == null || type.equals(document.getType())) {
+            sb.append(DdsXml.toXml(summary ? summarize(document) : document, "document", null));
+          }
+        }
+        xml = sb.append("</tns:documents>\n").toString();
+      }
+
+      byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", DdsXml.NSI_DDS_V1_XML);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static String getType(String query) throws IOException {
+    if (query != null) {
+      for (String param : query.split("&")) {
+        if (param.startsWith("type=")) {
+          // A "+" in the document types may arrive unencoded.
+          return URLDecoder.decode(param.substring(5).replace("+", "%2B"), "UTF-8");
+        }
+      }
+    }
+    return null;
+  }
+
+  private static DdsDocument summarize(DdsDocument document) {
+    DdsDocument summary = new DdsDocument();
+    summary.setNsa(document.getNsa());
+    summary.setType(document.getType());
+    summary.setId(document.getId());
+    summary.setHref(document.getHref());
+    summary.setVersion(document.getVersion());
+    summary.setExpires(document.getExpires());
+    return summary;
+  }
+
+  // The identifiers of the documents retrieved individually.
+  private Set<String> getFetched() {
+    return requests.stream()
+            .filter(r -> r.length() > 1 && !r.startsWith("?"))
+            .map(r -> r.substring(r.lastIndexOf('/') + 1))
+            .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private DdsDocument topology(DdsSnapshot snapshot, int index) {
+    return snapshot.getDocument(federation.getNsaId(index), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2,
+            federation.getNetworkId(index));
+  }
+
+  @Test
+  public void testChangedDocuments() throws Exception {
+    // The cache holds an old version of the first topology, and the second
+    // without its content.
+    DdsSnapshot cache = federation.generate();
+    topology(cache, 0).setVersion("2000-01-01T00:00:00.000Z");
+    topology(cache, 1).setContent(null);
+
+    DdsController controller = new DdsController(ddsUrl, 2, cache);
+    Map<String, NsaMap> nsas = controller.getNsaDocuments();
+    Map<String, TopologyMap> topologies = controller.getTopologyDocuments(nsas.values());
+    assertEquals(3, nsas.size());
+    assertEquals(3, topologies.size());
+
+    // Only the changed documents were retrieved, after a summary of each type.
+    assertEquals(requests.toString(), 2, requests.stream().filter(r -> r.contains(SUMMARY)).count());
+    assertEquals(new TreeSet<>(Arrays.asList(federation.getNetworkId(0), federation.getNetworkId(1))),
+            getFetched());
+    assertEquals(2, controller.getDocumentsFetched());
+
+    // The unchanged documents come from the cache, the others from the DDS.
+    DdsSnapshot snapshot = controller.getSnapshot();
+    assertEquals(6, snapshot.getDocuments().size());
+    assertSame(topology(cache, 2), topology(snapshot, 2));
+    assertNotSame(topology(cache, 0), topology(snapshot, 0));
+    assertEquals(topology(dds, 0).getVersion(), topology(snapshot, 0).getVersion());
+    assertEquals(topology(dds, 1).getContent(), topology(snapshot, 1).getContent());
+  }
+
+  @Test
+  public void testSummaryFailure() throws Exception {
+    failSummary = true;
+    DdsController controller = new DdsController(ddsUrl, 2, federation.generate());
+    Map<String, NsaMap> nsas = controller.getNsaDocuments();
+    assertEquals(3, controller.getTopologyDocuments(nsas.values()).size());
+
+    // Both types fall back to the full listing.
+    assertTrue(getFetched().isEmpty());
+    assertEquals(requests.toString(), 2,
+            requests.stream().filter(r -> r.startsWith("?") && !r.contains(SUMMARY)).count());
+    assertEquals(6, controller.getDocumentsFetched());
+  }
+}
@@ -0,0 +1,310 @@
+package net.es.sense.sim;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import net.es.nsi.common.constants.Nsi;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a real relay on the loopback interface and exercises it over HTTP.
+ *
+ * @author hacksaw
+ */
+public class DdsRelayTest {
+  private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+  private static final Pattern DOCUMENT = Pattern.compile("<document ");
+  private static final Pattern EVENT = Pattern.compile("<event>(\\w+)</event>");
+
+  private DdsRelay relay;
+  private String relayUrl;
+  private DdsSnapshot snapshot;
+
+  // Subscriber callbacks and the notification bodies each received.
+  private HttpServer subscribers;
+  private String subscriberUrl;
+  private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+
+  @Before
+  public void setUp() throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    relay = new DdsRelay("localhost", port);
+    relayUrl = "http://localhost:" + port + DdsRelay.PATH;
+    relay.start();
+
+    snapshot = SyntheticFederation.parse("networks=3,ports=1").generate();
+    relay.update(snapshot.getDocuments(), Collections.emptyList());
+
+    subscribers = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    subscriberUrl = "http://localhost:" + subscribers.getAddress().getPort() + "/callback/";
+    subscribers.createContext("/callback", exchange -> {
+      try (InputStream is = exchange.getRequestBody()) {
+        received.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new CopyOnWriteArrayList<>())
+                .add(new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8));
+      }
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    subscribers.setExecutor(Executors.newFixedThreadPool(4));
+    subscribers.start();
+  }
+
+  @After
+  public void tearDown() {
+    relay.close();
+    subscribers.stop(0);
+  }
+
+  private static class Reply {
+    int status;
+    String encoding;
+    String location;
+    byte[] body;
+  }
+
+  private static Reply request(String method, String url, String body, boolean gzip) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod(method);
+    if (gzip) {
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+    }
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", DdsXml.NSI_DDS_V1_XML);
+      try (OutputStream os = connection.getOutputStream()) {
+        os.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    Reply reply = new Reply();
+    reply.status = connection.getResponseCode();
+    reply.encoding = connection.getHeaderField("Content-Encoding");
+    reply.location = connection.getHeaderField("Location");
+    InputStream is = reply.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    reply.body = is == null ? new byte[0] : ByteStreams.toByteArray(is);
+    connection.disconnect();
+    return reply;
+  }
+
+  private static String subscription(String callback) {
+    return DdsXml.XML_DECLARATION
+            + "<tns:subscriptionRequest xmlns:tns=\"" + DdsXml.NSI_DDS_NAMESPACE + "\">\n"
+            + "  <requesterId>urn:ogf:network:test:2020:nsa</requesterId>\n"
+            + "  <callback>" + callback + "</callback>\n"
+            + "</tns:subscriptionRequest>\n";
+  }
+
+  private static int count(Pattern pattern, String text) {
+    Matcher matcher = pattern.matcher(text);
+    int count = 0;
+    while (matcher.find()) {
+      count++;
+    }
+    return count;
+  }
+
+  private static List<String> events(List<String> notifications) {
+    List<String> result = new ArrayList<>();
+    for (String notification : notifications) {
+      Matcher matcher = EVENT.matcher(notification);
+      while (matcher.find()) {
+        result.add(matcher.group(1));
+      }
+    }
+    return result;
+  }
+
+  private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!condition.getAsBoolean()) {
+      assertTrue(message, System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+  }
+
+  @Test
+  public void testDocuments() throws Exception {
+    // The full listing, plain and compressed.
+    Reply plain = request("GET", relayUrl + "/documents", null, false);
+    assertEquals(200, plain.status);
+    String all = new String(plain.body, StandardCharsets.UTF_8);
+    assertEquals(6, count(DOCUMENT, all));
+    assertTrue(all.contains("<content"));
+
+    Reply gzip = request("GET", relayUrl + "/documents", null, true);
+    assertEquals(200, gzip.status);
+    assertEquals("gzip", gzip.encoding);
+    assertEquals(all, new String(ByteStreams.toByteArray(
+            new GZIPInputStream(new ByteArrayInputStream(gzip.body))), StandardCharsets.UTF_8));
+
+    // Filtered listings and summaries.
+    Reply topologies = request("GET", relayUrl + "/documents?type=" + URLEncoder.encode(Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, "UTF-8"),
+            null, true);
+    assertEquals("gzip", topologies.encoding);
+    String text = new String(ByteStreams.toByteArray(
+            new GZIPInputStream(new ByteArrayInputStream(topologies.body))), StandardCharsets.UTF_8);
+    assertEquals(3, count(DOCUMENT, text));
+
+    String summary = new String(request("GET", relayUrl + "/documents?summary", null, false).body,
+            StandardCharsets.UTF_8);
+    assertEquals(6, count(DOCUMENT, summary));
+    assertFalse(summary.contains("<content"));
+
+    // A single document, referenced through the relay.
+    DdsDocument document = snapshot.getDocumentsByType(Nsi.NSI_DOC_TYPE_TOPOLOGY_V2).get(0);
+    String href = relayUrl + "/documents/" + URLEncoder.encode(document.getNsa(), "UTF-8")
+            + "/" + URLEncoder.encode(document.getType(), "UTF-8")
+            + "/" + URLEncoder.encode(document.getId(), "UTF-8");
+    assertTrue(all.contains("href=\"" + href + "\""));
+    Reply single = request("GET", href, null, false);
+    assertEquals(200, single.status);
+    String xml = new String(single.body, StandardCharsets.UTF_8);
+    assertTrue(xml.contains("<tns:document"));
+    assertTrue(xml.contains("id=\"" + document.getId() + "\""));
+    assertTrue(xml.contains(document.getContent()));
+
+    assertEquals(404, request("GET", relayUrl + "/documents/a/b/c", null, false).status);
+    assertEquals(404, request("GET", relayUrl + "/unknown", null, false).status);
+  }
+
+  @Test
+  public void testConcurrentSubscribers() throws Exception {
+    int subscriberCount = 20;
+    ExecutorService executor = Executors.newFixedThreadPool(subscriberCount);
+    List<String> locations = new ArrayList<>();
+    try {
+      List<Callable<Reply>> tasks = new ArrayList<>();
+      for (int i = 0; i < subscriberCount; i++) {
+        String callback = subscriberUrl + i;
+        tasks.add(() -> request("POST", relayUrl + "/subscriptions", subscription(callback), false));
+      }
+      for (Future<Reply> future : executor.invokeAll(tasks)) {
+        Reply reply = future.get();
+        assertEquals(201, reply.status);
+        assertTrue(reply.location.startsWith(relayUrl + "/subscriptions/"));
+        locations.add(reply.location);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    String list = new String(request("GET", relayUrl + "/subscriptions", null, false).body, StandardCharsets.UTF_8);
+    assertEquals(subscriberCount, count(Pattern.compile("<callback>"), list));
+
+    // Every subscriber is sent the current documents.
+    await(() -> received.size() == subscriberCount, "Initial notifications");
+    for (List<String> notifications : received.values()) {
+      assertEquals(Collections.nCopies(6, DdsNotification.NEW), events(notifications));
+    }
+
+    // A changed and a removed document are fanned out to every subscriber.
+    List<DdsDocument> documents = new ArrayList<>(snapshot.getDocuments());
+    DdsDocument removed = documents.remove(0);
+    DdsDocument changed = documents.get(0);
+    changed.setVersion("2021-01-01T00:00:00.000Z");
+    relay.update(documents, Collections.emptyList());
+
+    await(() -> received.values().stream().allMatch(n -> n.size() == 2), "Change notifications");
+    for (List<String> notifications : received.values()) {
+      List<String> events = events(notifications.subList(1, 2));
+      assertEquals(2, events.size());
+      assertTrue(events.contains(DdsNotification.UPDATED));
+      assertTrue(events.contains(DdsNotification.DELETED));
+      assertTrue(notifications.get(1).contains("id=\"" + removed.getId() + "\""));
+    }
+
+    // Subscriptions can be read and removed.
+    assertEquals(200, request("GET", locations.get(0), null, false).status);
+    assertEquals(204, request("DELETE", locations.get(0), null, false).status);
+    assertEquals(404, request("GET", locations.get(0), null, false).status);
+    assertEquals(404, request("DELETE", locations.get(0), null, false).status);
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    assertEquals(201, request("POST", relayUrl + "/subscriptions", subscription(subscriberUrl + 0), false).status);
+    await(() -> received.size() == 1, "Initial notification");
+    List<String> notifications = received.values().iterator().next();
+    assertEquals(Collections.nCopies(6, DdsNotification.NEW), events(notifications));
+
+    // Republishing the same documents from several threads must never be
+    // seen as documents being deleted and created again.
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        tasks.add(() -> {
+          for (int j = 0; j < 100; j++) {
+            relay.update(snapshot.getDocuments(), Collections.emptyList());
+          }
+          return null;
+        });
+      }
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // A real change is still delivered, and is the only one.
+    List<DdsDocument> documents = new ArrayList<>(snapshot.getDocuments());
+    documents.get(0).setVersion("2021-01-01T00:00:00.000Z");
+    relay.update(documents, Collections.emptyList());
+    await(() -> events(notifications).contains(DdsNotification.UPDATED), "Change notification");
+    assertEquals(Collections.singletonList(DdsNotification.UPDATED),
+            events(notifications.subList(1, notifications.size())));
+  }
+
+  @Test
+  public void testRejectedSubscriptions() throws Exception {
+    // Callbacks must be on this host.
+    assertEquals(403, request("POST", relayUrl + "/subscriptions",
+            subscription("http://192.0.2.1/callback"), false).status);
+    assertEquals(403, request("POST", relayUrl + "/subscriptions",
+            subscription("file:///etc/passwd"), false).status);
+
+    // Requests without a callback, and requests using a DTD, are invalid.
+    assertEquals(400, request("POST", relayUrl + "/subscriptions", subscription(""), false).status);
+    assertEquals(400, request("POST", relayUrl + "/subscriptions", DdsXml.XML_DECLARATION
+            + "<!DOCTYPE r [<!ENTITY x SYSTEM \"file:///etc/hostname\">]>\n"
+            + "<subscriptionRequest><callback>" + subscriberUrl + "&x;</callback></subscriptionRequest>\n",
+            false).status);
+
+    String list = new String(request("GET", relayUrl + "/subscriptions", null, false).body, StandardCharsets.UTF_8);
+    assertFalse(list.contains("<callback>"));
+    assertTrue(received.isEmpty());
+  }
+}
@@ -0,0 +1,87 @@
+package net.es.sense.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class DdsSnapshotTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void roundTrip() throws IOException {
+    DdsDocument nsa = new DdsDocument();
+    nsa.setNsa("urn:ogf:network:es.net:2013:nsa");
+    nsa.setType("vnd.ogf.nsi.nsa.v1+xml");
+    nsa.setId("urn:ogf:network:es.net:2013:nsa");
+    nsa.setVersion("2019-01-29T14:39:56.000Z");
+    nsa.setExpires("2020-01-29T14:39:56.000Z");
+    nsa.setContentType("application/x-gzip");
+    nsa.setContentTransferEncoding("base64");
+    nsa.setContent("H4sIAAAAAAAAAA==");
+
+    DdsDocument topology = new DdsDocument();
+    topology.setNsa("urn:ogf:network:es.net:2013:nsa");
+    topology.setType("vnd.ogf.nsi.topology.v2+xml");
+    topology.setId("urn:ogf:network:es.net:2013:");
+    topology.setExpires("2020-01-29T14:39:56.000Z");
+    topology.setContent("<nml:Topology/>");
+
+    DdsSnapshot snapshot = new DdsSnapshot();
+    snapshot.add(nsa);
+    snapshot.add(topology);
+
+    File file = File.createTempFile("dds", ".snapshot");
+    file.deleteOnExit();
+    snapshot.write(file.getAbsolutePath());
+
+    DdsSnapshot result = DdsSnapshot.read(file.getAbsolutePath());
+    Assert.assertEquals(snapshot.getCreated(), result.getCreated());
+    Assert.assertEquals(2, result.getDocuments().size());
+    Assert.assertEquals(nsa, result.getDocument(nsa.getNsa(), nsa.getType(), nsa.getId()));
+    Assert.assertEquals(topology, result.getDocumentsByType("vnd.ogf.nsi.topology.v2+xml").get(0));
+    Assert.assertNull(result.getDocument(nsa.getNsa(), nsa.getType(), "urn:ogf:network:missing"));
+  }
+
+  @Test
+  public void truncatedCache() throws IOException {
+    DdsSnapshot snapshot = new DdsSnapshot();
+    for (int i = 0; i < 100; i++) {
+      DdsDocument document = new DdsDocument();
+      document.setNsa("urn:ogf:network:es.net:2013:nsa");
+      document.setType("vnd.ogf.nsi.topology.v2+xml");
+      document.setId("urn:ogf:network:es.net:2013:" + i);
+      document.setContent("<nml:Topology id=\"" + i + "\"/>");
+      snapshot.add(document);
+    }
+
+    // The file is replaced as a whole with nothing left beside it.
+    File file = new File(folder.getRoot(), "dds.cache");
+    Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+    snapshot.write(file.getPath());
+    Assert.assertEquals(Arrays.asList("dds.cache"), Arrays.asList(folder.getRoot().list()));
+    Assert.assertEquals(100, DdsSnapshot.readOrCreate(file.getPath()).getDocuments().size());
+
+    // A cache cut short by an interrupted run is discarded.
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+    Assert.assertTrue(DdsSnapshot.readOrCreate(file.getPath()).getDocuments().isEmpty());
+
+    // A replayed snapshot must still be complete.
+    try {
+      DdsSnapshot.read(file.getPath());
+      throw new AssertionError("Read a truncated snapshot");
+    } catch (IOException ex) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package net.es.sense.sim;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import net.es.nsi.common.constants.Nsi;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the watcher, and the watch loop of the generator, against an
+ * in-process stand-in for the NSI-DDS that accepts subscriptions.
+ * Notifications are delivered by posting to the watcher callback as the DDS
+ * would.
+ *
+ * @author hacksaw
+ */
+public class DdsWatcherTest {
+  private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // The stand-in DDS and the requests it received.
+  private HttpServer dds;
+  private String ddsUrl;
+  private final List<String> subscriptions = new CopyOnWriteArrayList<>();
+  private final List<String> deleted = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    dds = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    ddsUrl = "http://localhost:" + dds.getAddress().getPort() + "/dds";
+    dds.createContext("/dds/subscriptions", this::handle);
+    dds.start();
+  }
+
+  @After
+  public void tearDown() {
+    dds.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if ("POST".equals(method)) {
+        try (InputStream is = exchange.getRequestBody()) {
+          subscriptions.add(new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8));
+        }
+        exchange.getResponseHeaders().add("Location", ddsUrl + "/subscriptions/1");
+        exchange.sendResponseHeaders(201, -1);
+      } else if ("DELETE".equals(method)) {
+        deleted.add(exchange.getRequestURI().getPath());
+        exchange.sendResponseHeaders(204, -1);
+      } else {
+        exchange.sendResponseHeaders(200, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static int post(String url, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", DdsXml.NSI_DDS_V1_XML);
+    try (OutputStream os = connection.getOutputStream()) {
+      os.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    int status = connection.getResponseCode();
+    connection.disconnect();
+    return status;
+  }
+
+  private static String notifications(String event, DdsDocument... documents) {
+    StringBuilder sb = new StringBuilder(DdsXml.XML_DECLARATION);
+    sb.append("<tns:notifications xmlns:tns=\"").append(DdsXml.NSI_DDS_NAMESPACE)
+            .append("\" providerId=\"urn:ogf:network:test:dds\" id=\"1\" href=\"http://localhost/1\">\n");
+    for (DdsDocument document : documents) {
+      sb.append("<notification>\n<event>").append(event).append("</event>\n")
+              .append(DdsXml.toXml(document, "document", null))
+              .append("</notification>\n");
+    }
+    return sb.append("</tns:notifications>\n").toString();
+  }
+
+  private static DdsDocument topology(SyntheticFederation federation, int index) throws IOException {
+    return federation.generate().getDocumentsByType(Nsi.NSI_DOC_TYPE_TOPOLOGY_V2).stream()
+            .filter(d -> d.getId().equals(federation.getNetworkId(index)))
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("No topology for network " + index));
+  }
+
+  // The run report, or null while it is not completely written.
+  private static JsonNode readReport(File file) {
+    try {
+      return new ObjectMapper().readTree(file);
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!condition.getAsBoolean()) {
+      assertTrue(message, System.currentTimeMillis() < deadline);
+      Thread.sleep(100);
+    }
+  }
+
+  @Test
+  public void testSubscribeAndBatch() throws Exception {
+    int port = freePort();
+    String callback = "http://localhost:" + port + DdsWatcher.PATH;
+    SyntheticFederation federation = SyntheticFederation.parse("networks=3,ports=1");
+
+    try (DdsWatcher watcher = new DdsWatcher(ddsUrl, "localhost", port, callback)) {
+      watcher.start();
+
+      // Subscribed for all events with our callback.
+      assertEquals(1, subscriptions.size());
+      assertTrue(subscriptions.get(0).contains("<callback>" + callback + "</callback>"));
+      assertTrue(subscriptions.get(0).contains("<event>All</event>"));
+
+      // Notifications arriving close together are returned as one batch.
+      assertEquals(202, post(callback, notifications(DdsNotification.UPDATED, topology(federation, 0))));
+      assertEquals(202, post(callback, notifications(DdsNotification.DELETED,
+              topology(federation, 1), topology(federation, 2))));
+
+      List<DdsNotification> batch = watcher.take();
+      assertEquals(3, batch.size());
+      assertEquals(DdsNotification.UPDATED, batch.get(0).getEvent());
+      assertEquals(federation.getNetworkId(0), batch.get(0).getDocument().getId());
+      assertEquals(DdsNotification.DELETED, batch.get(2).getEvent());
+      assertEquals(federation.getNetworkId(2), batch.get(2).getDocument().getId());
+
+      // Anything other than a notification list is rejected.
+      assertEquals(400, post(callback, "not xml"));
+      assertEquals(400, post(callback, "<?xml version=\"1.0\"?>\n"
+              + "<!DOCTYPE n [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>\n"
+              + "<notifications><notification><event>&x;</event></notification></notifications>\n"));
+    }
+
+    // The subscription is removed on close.
+    assertEquals(1, deleted.size());
+    assertEquals("/dds/subscriptions/1", deleted.get(0));
+  }
+
+  @Test
+  public void testWatchRegeneratesAffectedInstance() throws Exception {
+    int port = freePort();
+    MemorySink sink = new MemorySink();
+    File report = new File(folder.getRoot(), "run.json");
+    ConfigWriter writer = ConfigWriter.builder()
+            .userId("sense")
+            .password("sense")
+            .schemaFile("src/main/resources/schema.sql")
+            .rmFile("src/main/resources/sense-rm.yaml")
+            .logFile("src/main/resources/logback.xml")
+            .peersFile("src/test/resources/peers.yaml")
+            .address("localhost")
+            .threads(2)
+            .ddsUrl(ddsUrl)
+            .synthetic(SyntheticFederation.parse("networks=4,ports=2"))
+            .sink(sink)
+            .reportFile(report.getPath())
+            .build();
+
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread thread = new Thread(() -> {
+      try {
+        writer.watch(port, null);
+      } catch (Exception ex) {
+        failure.set(ex);
+      }
+    });
+    thread.start();
+
+    try {
+      await(() -> sink.getText("nsa3.nrm") != null || failure.get() != null, "Initial generation");
+      assertNull(failure.get());
+      assertEquals(1, subscriptions.size());
+      String nrm = sink.getText("nsa0.nrm");
+      String yaml = sink.getText("sense0.yaml");
+
+      // A new edge port in the first network only changes its port file.
+      DdsDocument updated = topology(SyntheticFederation.parse("networks=4,ports=3"), 0);
+      updated.setVersion("2021-01-01T00:00:00.000Z");
+      String callback = "http://localhost:" + port + DdsWatcher.PATH;
+      assertEquals(202, post(callback, notifications(DdsNotification.UPDATED, updated)));
+
+      await(() -> sink.getText("nsa0.nrm").contains("port-2"), "Regeneration");
+      Set<String> changed = sink.getChanged();
+      assertEquals(changed.toString(), 1, changed.size());
+      assertTrue(changed.contains("nsa0.nrm"));
+      assertTrue(!nrm.contains("port-2"));
+      assertEquals(yaml, sink.getText("sense0.yaml"));
+      assertTrue(!sink.getText("nsa1.nrm").contains("port-2"));
+
+      // The report of the regeneration, replacing that of the initial run
+      // which fetched nothing, only covers the notified document.
+      await(() -> {
+        JsonNode json = readReport(report);
+        return json != null && json.get("counters").path(RunReport.DOCUMENTS_FETCHED).asInt() > 0;
+      }, "Run report");
+      JsonNode json = readReport(report);
+      assertEquals(1, json.get("counters").get(RunReport.DOCUMENTS_FETCHED).asInt());
+      assertEquals(updated.getContent().length(), json.get("counters").get(RunReport.BYTES_FETCHED).asInt());
+      boolean topology = false;
+      for (JsonNode phase : json.get("phases")) {
+        if (RunReport.TOPOLOGY.equals(phase.get("name").asText())) {
+          assertEquals(1, phase.get("count").asInt());
+          topology = true;
+        }
+      }
+      assertTrue(topology);
+    } finally {
+      thread.interrupt();
+      thread.join(TIMEOUT);
+    }
+
+    assertNull(failure.get());
+    assertEquals(1, deleted.size());
+  }
+}
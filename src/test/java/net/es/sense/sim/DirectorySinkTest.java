@@ -0,0 +1,68 @@
+package net.es.sense.sim;
+
+import com.google.common.collect.Sets;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class DirectorySinkTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testIncremental() throws Exception {
+    File dir = folder.newFolder("out");
+
+    DirectorySink sink = new DirectorySink(dir.getPath());
+    sink.write("nsa0.conf", bytes("a"));
+    sink.write("nsa1.conf", bytes("b"));
+    assertFalse(new File(dir, "nsa0.conf").exists());
+    sink.commit();
+    assertEquals(Sets.newHashSet("nsa0.conf", "nsa1.conf"), sink.getChanged());
+    assertTrue(new File(dir, DirectorySink.MANIFEST).exists());
+    long modified = new File(dir, "nsa0.conf").lastModified();
+
+    // A new sink picks up the manifest and only reports the changed file.
+    sink = new DirectorySink(dir.getPath());
+    sink.write("nsa0.conf", bytes("a"));
+    sink.write("nsa1.conf", bytes("c"));
+    sink.commit();
+    assertEquals(Sets.newHashSet("nsa1.conf"), sink.getChanged());
+    assertEquals("c", new String(Files.readAllBytes(new File(dir, "nsa1.conf").toPath()), StandardCharsets.UTF_8));
+    assertEquals(modified, new File(dir, "nsa0.conf").lastModified());
+
+    // Files no longer generated are removed.
+    sink.write("nsa0.conf", bytes("a"));
+    sink.commit();
+    assertEquals(Sets.newHashSet("nsa1.conf"), sink.getChanged());
+    assertFalse(new File(dir, "nsa1.conf").exists());
+    sink.close();
+
+    // Nothing but the output and manifest is left behind.
+    assertEquals(2, dir.list().length);
+  }
+
+  @Test
+  public void testUncommitted() throws Exception {
+    File dir = folder.newFolder("out");
+
+    DirectorySink sink = new DirectorySink(dir.getPath());
+    sink.write("nsa0.conf", bytes("a"));
+    sink.close();
+    assertEquals(0, dir.list().length);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
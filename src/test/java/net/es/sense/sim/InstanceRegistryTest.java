@@ -0,0 +1,40 @@
+package net.es.sense.sim;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class InstanceRegistryTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testStableAcrossRuns() throws Exception {
+    Path file = folder.getRoot().toPath().resolve(InstanceRegistry.FILENAME);
+
+    InstanceRegistry registry = new InstanceRegistry();
+    registry.load(file);
+    assertEquals(0, registry.assign("urn:ogf:network:a.net:2013:"));
+    assertEquals(1, registry.assign("urn:ogf:network:b.net:2013:"));
+    assertEquals(2, registry.assign("urn:ogf:network:c.net:2013:"));
+    registry.retain(Arrays.asList("urn:ogf:network:a.net:2013:", "urn:ogf:network:c.net:2013:"));
+    registry.save();
+
+    // The removed network keeps its index reserved in the next run.
+    registry = new InstanceRegistry();
+    registry.load(file);
+    assertNull(registry.get("urn:ogf:network:b.net:2013:"));
+    assertEquals(Integer.valueOf(2), registry.get("urn:ogf:network:c.net:2013:"));
+    assertEquals(Arrays.asList(0, 2), Arrays.asList(registry.getActive().keySet().toArray()));
+    assertEquals(3, registry.assign("urn:ogf:network:d.net:2013:"));
+    assertEquals(1, registry.assign("urn:ogf:network:b.net:2013:"));
+  }
+}
@@ -0,0 +1,52 @@
+package net.es.sense.sim;
+
+import com.google.common.collect.Sets;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class MemorySinkTest {
+  @Test
+  public void testCommit() throws Exception {
+    MemorySink sink = new MemorySink();
+    sink.write("nsa0.conf", bytes("a"));
+    sink.write("nsa1.conf", bytes("b"));
+    assertTrue(sink.getFiles().isEmpty());
+    assertTrue(sink.getChanged().isEmpty());
+
+    sink.commit();
+    assertEquals(Sets.newHashSet("nsa0.conf", "nsa1.conf"), sink.getChanged());
+    assertEquals(Sets.newHashSet("nsa0.conf", "nsa1.conf"), sink.getFiles().keySet());
+    assertArrayEquals(bytes("a"), sink.getFiles().get("nsa0.conf"));
+    assertEquals("b", sink.getText("nsa1.conf"));
+
+    // Only changed, added and removed files are reported.
+    sink.write("nsa0.conf", bytes("a"));
+    sink.write("nsa2.conf", bytes("c"));
+    sink.commit();
+    assertEquals(Sets.newHashSet("nsa1.conf", "nsa2.conf"), sink.getChanged());
+    assertEquals(Sets.newHashSet("nsa0.conf", "nsa2.conf"), sink.getFiles().keySet());
+    assertNull(sink.getText("nsa1.conf"));
+
+    sink.write("nsa0.conf", bytes("a"));
+    sink.write("nsa2.conf", bytes("c"));
+    sink.commit();
+    assertEquals(Collections.emptySet(), sink.getChanged());
+
+    // Uncommitted files are not visible.
+    sink.write("nsa3.conf", bytes("d"));
+    assertNull(sink.getText("nsa3.conf"));
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
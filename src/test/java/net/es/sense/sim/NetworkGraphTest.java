@@ -0,0 +1,62 @@
+package net.es.sense.sim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class NetworkGraphTest {
+  private static Set<String> set(String... values) {
+    return new HashSet<>(Arrays.asList(values));
+  }
+
+  @Test
+  public void testComponents() throws Exception {
+    NetworkGraph graph = new NetworkGraph();
+    graph.addLink("urn:ogf:network:es.net:2013:", "urn:ogf:network:icair.org:2013:topology");
+    graph.addLink("urn:ogf:network:icair.org:2013:topology", "urn:ogf:network:surfnet.nl:1990:netherlight7");
+    graph.addLink("urn:ogf:network:es.net:2013:", "urn:ogf:network:geant.net:2013:topology");
+    graph.addLink("urn:ogf:network:a.net:2015:", "urn:ogf:network:b.net:2015:");
+    graph.addNetwork("urn:ogf:network:lonely.net:2017:");
+    graph.addDangling("urn:ogf:network:lonely.net:2017:", "urn:ogf:network:gone.net:2017::port:out");
+
+    Peer peer = new Peer();
+    peer.setNetworkId("urn:ogf:network:b.net:2015:topology");
+    Port port = new Port();
+    port.setRemote("c.net:2015:topology#to_b-(in|out)");
+    peer.setPort(Collections.singletonList(port));
+    graph.addPeers(Collections.singletonMap(peer.getNetworkId(), peer));
+
+    List<Set<String>> components = graph.getComponents();
+    assertEquals(3, components.size());
+    assertEquals(set("es.net:2013", "geant.net:2013", "icair.org:2013", "netherlight7.surfnet.nl:1990"), components.get(0));
+    assertEquals(set("a.net:2015", "b.net:2015", "c.net:2015"), components.get(1));
+    assertEquals(set("lonely.net:2017"), components.get(2));
+
+    assertEquals(2, graph.getDegree("icair.org:2013"));
+    assertEquals(components.get(0), graph.select(NetworkGraph.COMPONENT));
+    assertEquals(7, graph.select(NetworkGraph.LINKED).size());
+    assertEquals(1, graph.getDangling().size());
+
+    assertEquals(set("es.net:2013", "icair.org:2013", "geant.net:2013"),
+            graph.getNeighbourhood(Arrays.asList("urn:ogf:network:es.net:2013:"), 1));
+    assertEquals(set("c.net:2015", "b.net:2015"), graph.getNeighbourhood(Arrays.asList("c.net:2015"), 1));
+    assertEquals(components.get(0), graph.getNeighbourhood(Arrays.asList("urn:ogf:network:es.net:2013:"), 2));
+
+    // Unknown seeds are skipped, but selecting nothing is an error.
+    assertEquals(set("c.net:2015", "b.net:2015"), graph.getNeighbourhood(Arrays.asList("c.net:2015", "typo.net"), 1));
+    try {
+      graph.getNeighbourhood(Arrays.asList("typo.net", "urn:ogf:network:typo.net:2013:"), 1);
+      throw new AssertionError("Expected failure for unknown seeds");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+}
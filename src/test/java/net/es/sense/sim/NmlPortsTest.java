@@ -0,0 +1,67 @@
+package net.es.sense.sim;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import net.es.nsi.common.Nml;
+import net.es.nsi.common.jaxb.nml.NmlPortGroupType;
+import net.es.nsi.common.jaxb.nml.NmlPortType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class NmlPortsTest {
+  private static final String TOPOLOGY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<nml:Topology xmlns:nml=\"http://schemas.ogf.org/nml/2013/05/base#\" id=\"urn:ogf:network:es.net:2013:\">\n"
+          + "  <nml:name>es.net</nml:name>\n"
+          + "  <nml:BidirectionalPort id=\"urn:ogf:network:es.net:2013::star-cr6:1_1_1:+\">\n"
+          + "    <nml:name>star-cr6</nml:name>\n"
+          + "    <nml:PortGroup id=\"urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:in\"/>\n"
+          + "    <nml:PortGroup id=\"urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:out\"/>\n"
+          + "  </nml:BidirectionalPort>\n"
+          + "  <nml:BidirectionalPort id=\"urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+\">\n"
+          + "    <nml:Port id=\"urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+:in\"/>\n"
+          + "    <nml:Port id=\"urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+:out\"/>\n"
+          + "  </nml:BidirectionalPort>\n"
+          + "  <nml:Relation type=\"http://schemas.ogf.org/nml/2013/05/base#hasInboundPort\">\n"
+          + "    <nml:PortGroup encoding=\"http://schemas.ogf.org/nml/2012/10/ethernet\" id=\"urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:in\">\n"
+          + "      <nml:LabelGroup labeltype=\"http://schemas.ogf.org/nml/2012/10/ethernet#vlan\">1779-1799</nml:LabelGroup>\n"
+          + "      <nml:Relation type=\"http://schemas.ogf.org/nml/2013/05/base#isAlias\">\n"
+          + "        <nml:PortGroup id=\"urn:ogf:network:icair.org:2013:topology:esnet:out\"/>\n"
+          + "      </nml:Relation>\n"
+          + "    </nml:PortGroup>\n"
+          + "    <nml:Port id=\"urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+:in\">\n"
+          + "      <nml:Label labeltype=\"http://schemas.ogf.org/nml/2012/10/ethernet#vlan\">100</nml:Label>\n"
+          + "    </nml:Port>\n"
+          + "  </nml:Relation>\n"
+          + "  <nml:Relation type=\"http://schemas.ogf.org/nml/2013/05/base#hasOutboundPort\">\n"
+          + "    <nml:PortGroup id=\"urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:out\"/>\n"
+          + "  </nml:Relation>\n"
+          + "</nml:Topology>\n";
+
+  @Test
+  public void testRead() throws Exception {
+    NmlPorts ports = NmlPorts.read(new ByteArrayInputStream(TOPOLOGY.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals("urn:ogf:network:es.net:2013:", ports.getId());
+    assertEquals(2, ports.getBidirectionalPorts().size());
+    assertEquals(Arrays.asList("urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+:in",
+            "urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+:out"),
+            ports.getBidirectionalPorts().get("urn:ogf:network:es.net:2013::sunn-cr6:2_1_1:+"));
+
+    assertEquals(1, ports.getInboundPortGroups().size());
+    NmlPortGroupType pg = ports.getInboundPortGroups().get(0);
+    assertEquals("urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:in", pg.getId());
+    assertEquals("1779-1799", pg.getLabelGroup().get(0).getValue());
+    assertEquals("urn:ogf:network:icair.org:2013:topology:esnet:out", Nml.getIsAlias(pg.getRelation()));
+
+    assertEquals(1, ports.getInboundPorts().size());
+    NmlPortType p = ports.getInboundPorts().get(0);
+    assertEquals("100", p.getLabel().getValue());
+    assertNull(Nml.getIsAliasPort(p.getRelation()));
+  }
+}
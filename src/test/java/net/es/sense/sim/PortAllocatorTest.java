@@ -0,0 +1,133 @@
+package net.es.sense.sim;
+
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class PortAllocatorTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testDefaultRanges() {
+    InstanceRegistry registry = new InstanceRegistry();
+    for (int i = 0; i < 9000; i++) {
+      registry.assign("urn:ogf:network:n" + i + ".net:2013:");
+    }
+    new PortAllocator().allocate(registry);
+
+    assertEquals(new InstancePorts(9000, 20000), registry.getPorts(0));
+    assertEquals(new InstancePorts(9100, 20100), registry.getPorts(100));
+
+    // Well-known ports are skipped without moving any other instance.
+    assertEquals(9199, registry.getPorts(199).getNsaPort());
+    assertNotEquals(9200, registry.getPorts(200).getNsaPort());
+    assertEquals(9201, registry.getPorts(201).getNsaPort());
+    assertNotEquals(27017, registry.getPorts(7017).getSensePort());
+    assertEquals(27018, registry.getPorts(7018).getSensePort());
+
+    // No privileged, excluded or shared ports.
+    BitSet excluded = PortAllocator.parse(PortAllocator.DEFAULT_EXCLUDED);
+    Set<Integer> ports = new HashSet<>();
+    registry.getPorts().values().forEach(p -> {
+      assertTrue(p.getNsaPort() > 1023 && p.getSensePort() > 1023);
+      assertFalse(excluded.get(p.getNsaPort()) || excluded.get(p.getSensePort()));
+      assertTrue(ports.add(p.getNsaPort()));
+      assertTrue(ports.add(p.getSensePort()));
+    });
+  }
+
+  @Test
+  public void testCompatibleRanges() {
+    InstanceRegistry registry = new InstanceRegistry();
+    for (int i = 0; i < 9000; i++) {
+      registry.assign("urn:ogf:network:n" + i + ".net:2013:");
+    }
+    new PortAllocator(null, PortAllocator.COMPATIBLE_SENSE_PORTS, null, false).allocate(registry);
+
+    // The first instances keep the historical ports.
+    assertEquals(new InstancePorts(9000, 800), registry.getPorts(0));
+    assertEquals(new InstancePorts(9100, 900), registry.getPorts(100));
+
+    // Excluded ports are skipped without moving any other instance.
+    assertEquals(5431, registry.getPorts(4631).getSensePort());
+    assertNotEquals(5432, registry.getPorts(4632).getSensePort());
+    assertEquals(5433, registry.getPorts(4633).getSensePort());
+
+    // Beyond 8200 instances the ranges no longer collide.
+    Set<Integer> ports = new HashSet<>();
+    registry.getPorts().values().forEach(p -> {
+      assertTrue(ports.add(p.getNsaPort()));
+      assertTrue(ports.add(p.getSensePort()));
+    });
+    assertEquals(20000, registry.getPorts(8200).getSensePort());
+  }
+
+  @Test
+  public void testStableAcrossRuns() throws Exception {
+    Path file = folder.getRoot().toPath().resolve(InstanceRegistry.FILENAME);
+
+    InstanceRegistry registry = new InstanceRegistry();
+    registry.load(file);
+    registry.assign("urn:ogf:network:a.net:2013:");
+    registry.assign("urn:ogf:network:b.net:2013:");
+    new PortAllocator("10000-10009", "10010-10019", "10000", false).allocate(registry);
+    // Instance 0 is displaced from the excluded port rather than displacing
+    // instance 1.
+    assertEquals(new InstancePorts(10002, 10010), registry.getPorts(0));
+    assertEquals(new InstancePorts(10001, 10011), registry.getPorts(1));
+    registry.save();
+
+    // Recorded ports are kept even when they are no longer the preferred
+    // ones, and new instances do not take them.
+    registry = new InstanceRegistry();
+    registry.load(file);
+    registry.assign("urn:ogf:network:c.net:2013:");
+    new PortAllocator("10000-10009", "10010-10019", "", false).allocate(registry);
+    assertEquals(new InstancePorts(10002, 10010), registry.getPorts(0));
+    assertEquals(new InstancePorts(10003, 10012), registry.getPorts(2));
+
+    // Ports now excluded are reallocated.
+    new PortAllocator("10000-10009", "10010-10019", "10002", false).allocate(registry);
+    assertEquals(new InstancePorts(10000, 10010), registry.getPorts(0));
+  }
+
+  @Test
+  public void testProbe() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      int busy = socket.getLocalPort();
+      assertFalse(PortAllocator.isFree(busy));
+
+      InstanceRegistry registry = new InstanceRegistry();
+      registry.assign("urn:ogf:network:a.net:2013:");
+      new PortAllocator(busy + "-" + (busy + 1), "1-65535", "", true).allocate(registry);
+      assertNotEquals(busy, registry.getPorts(0).getNsaPort());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExhausted() {
+    InstanceRegistry registry = new InstanceRegistry();
+    registry.assign("urn:ogf:network:a.net:2013:");
+    registry.assign("urn:ogf:network:b.net:2013:");
+    new PortAllocator("10000", "10001-10009", "", false).allocate(registry);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRange() {
+    new PortAllocator("9000-70000", null, null, false);
+  }
+}
@@ -0,0 +1,69 @@
+package net.es.sense.sim;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class PortCacheTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static DdsDocument document(String version, String content) {
+    DdsDocument d = new DdsDocument();
+    d.setNsa("urn:ogf:network:es.net:2013:nsa");
+    d.setType("vnd.ogf.nsi.topology.v2+xml");
+    d.setId("urn:ogf:network:es.net:2013:");
+    d.setVersion(version);
+    d.setContent(content);
+    return d;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    PortMap pm = new PortMap();
+    pm.setType("ethernet");
+    pm.setPortId("urn:ogf:network:es.net:2013::star-cr6:1_1_1:+");
+    pm.setPortName("_star-cr6_1_1_1_+");
+    pm.setVlans(VlanSet.parse("1779-1799,1800"));
+    pm.setIsAlias("urn:ogf:network:icair.org:2013:topology:esnet:out");
+    pm.setBandwidth(100000);
+    pm.setInter("em0");
+
+    Map<String, PortMap> members = new HashMap<>();
+    members.put("urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:in", pm);
+    members.put("urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:out", pm);
+
+    TopologyMap topology = new TopologyMap();
+    topology.setNetworkId("urn:ogf:network:es.net:2013:");
+    topology.setId("urn:ogf:network:es.net:2013:");
+    topology.setPorts(Arrays.asList(pm));
+    topology.setMembers(members);
+
+    File file = new File(folder.getRoot(), "ports.cache");
+    PortCache cache = PortCache.readOrCreate(file.getPath());
+    assertNull(cache.get(document("v1", "<nml/>")));
+    cache.put(document("v1", "<nml/>"), topology);
+    cache.write(file.getPath());
+
+    cache = PortCache.readOrCreate(file.getPath());
+    assertNull(cache.get(document("v2", "<nml/>")));
+    assertNull(cache.get(document("v1", "<nml:Topology/>")));
+
+    TopologyMap cached = cache.get(document("v1", "<nml/>"));
+    assertEquals(topology.getId(), cached.getId());
+    assertEquals(topology.getPorts(), cached.getPorts());
+    assertEquals(2, cached.getMembers().size());
+    assertSame(cached.getPorts().get(0), cached.getMembers().get("urn:ogf:network:es.net:2013::star-cr6:1_1_1:+:in"));
+  }
+}
@@ -0,0 +1,59 @@
+package net.es.sense.sim;
+
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class PortTableTest {
+  @Test
+  public void testLookup() {
+    PortTable table = new PortTable(Arrays.asList(
+            port("urn:ogf:network:ES.net:2013:", "urn:ogf:network:ES.net:2013::port-1"),
+            port("urn:ogf:network:es.net:2013:", "urn:ogf:network:es.net:2013::port-2"),
+            port("urn:ogf:network:a.net:2013:", "urn:ogf:network:a.net:2013::port-1"),
+            port(null, "urn:ogf:network:b.net:2013::port-1")));
+
+    // Records without a network are ignored.
+    assertEquals(3, table.size());
+
+    // Mixed case identifiers resolve to the same network, in insertion order.
+    List<PortMap> ports = table.get("urn:ogf:network:Es.Net:2013:");
+    assertEquals(2, ports.size());
+    assertEquals("urn:ogf:network:ES.net:2013::port-1", ports.get(0).getPortId());
+    assertEquals("urn:ogf:network:es.net:2013::port-2", ports.get(1).getPortId());
+    assertEquals(ports, table.get("urn:ogf:network:es.net:2013:"));
+    assertEquals(1, table.get("URN:OGF:NETWORK:A.NET:2013:").size());
+  }
+
+  @Test
+  public void testNoPorts() {
+    PortTable table = new PortTable(Arrays.asList(
+            port("urn:ogf:network:a.net:2013:", "urn:ogf:network:a.net:2013::port-1")));
+
+    List<PortMap> ports = table.get("urn:ogf:network:b.net:2013:");
+    assertNotNull(ports);
+    assertTrue(ports.isEmpty());
+    assertTrue(new PortTable(Arrays.asList()).get("urn:ogf:network:a.net:2013:").isEmpty());
+
+    try {
+      table.get("urn:ogf:network:a.net:2013:").add(new PortMap());
+      throw new AssertionError("Port records are modifiable");
+    } catch (UnsupportedOperationException ex) {
+      // Expected.
+    }
+  }
+
+  private static PortMap port(String networkId, String portId) {
+    PortMap port = new PortMap();
+    port.setNetworkId(networkId);
+    port.setPortId(portId);
+    return port;
+  }
+}
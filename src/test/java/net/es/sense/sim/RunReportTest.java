@@ -0,0 +1,48 @@
+package net.es.sense.sim;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class RunReportTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReport() throws Exception {
+    RunReport report = new RunReport();
+    try (RunReport.Phase phase = report.phase(RunReport.NSA)) {
+      report.count(RunReport.NSA_DOCUMENTS, 3);
+    }
+    for (int i = 0; i < 2; i++) {
+      try (RunReport.Phase phase = report.instance(i, "es.net:2013")) {
+        phase.setPorts(4);
+        report.count(RunReport.PORTS, 4);
+      }
+    }
+
+    File file = new File(folder.getRoot(), "run.json");
+    report.write(file.getPath());
+
+    JsonNode json = new ObjectMapper().readTree(file);
+    assertEquals(RunReport.NSA, json.get("phases").get(0).get("name").asText());
+    assertEquals(RunReport.INSTANCE, json.get("phases").get(1).get("name").asText());
+    assertEquals(2, json.get("phases").get(1).get("count").asInt());
+    assertEquals(3, json.get("counters").get(RunReport.NSA_DOCUMENTS).asInt());
+    assertEquals(8, json.get("counters").get(RunReport.PORTS).asInt());
+    assertTrue(json.get("memory").get("peakHeapBytes").asLong() > 0);
+
+    report.reset();
+    assertEquals(0, report.getCount(RunReport.PORTS));
+    assertEquals(0, report.getNanos(RunReport.NSA));
+  }
+}
@@ -0,0 +1,170 @@
+package net.es.sense.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ * Runs the full generation pipeline against synthetic federations of
+ * increasing size, recording wall time, peak heap and output size of each
+ * run, and fails if a run exceeds its budget or time grows faster than
+ * roughly linearly in the number of ports.
+ *
+ * This is only run with the scalability profile, "mvn test -Pscalability".
+ * Sizes and budgets can be changed with the system properties:
+ *
+ *   scalability.sizes          Numbers of networks, "100,1000,5000".
+ *   scalability.ports          Edge ports per network, 4.
+ *   scalability.threads        Worker threads, 1.
+ *   scalability.microsPerPort  Wall time budget per port, 1000.
+ *   scalability.kbPerPort      Peak heap budget per port, 64.
+ *   scalability.maxExponent    Largest allowed growth of time with ports
+ *                              between consecutive sizes, 1.3.
+ *   scalability.report         CSV report, target/scalability.csv.
+ *
+ * @author hacksaw
+ */
+@Slf4j
+public class ScalabilityTest {
+  private static final String PREFIX = "scalability.";
+
+  // The result of generating one federation.
+  private static class Run {
+    int networks;
+    long ports;
+    long nanos;
+    long peakHeap;
+    long outputBytes;
+    int files;
+  }
+
+  private static String property(String name, String defaultValue) {
+    return System.getProperty(PREFIX + name, defaultValue);
+  }
+
+  @Test
+  public void testScaling() throws Exception {
+    assumeTrue("Scalability suite not enabled", Boolean.getBoolean("scalability"));
+
+    List<Integer> sizes = Arrays.stream(property("sizes", "100,1000,5000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .sorted()
+            .collect(Collectors.toList());
+    int ports = Integer.parseInt(property("ports", "4"));
+    int threads = Integer.parseInt(property("threads", "1"));
+    double microsPerPort = Double.parseDouble(property("microsPerPort", "1000"));
+    double kbPerPort = Double.parseDouble(property("kbPerPort", "64"));
+    double maxExponent = Double.parseDouble(property("maxExponent", "1.3"));
+
+    // Warm up so the smallest run is not dominated by class loading and JIT.
+    generate(sizes.get(0), ports, threads);
+
+    List<Run> runs = new ArrayList<>();
+    for (int networks : sizes) {
+      Run run = generate(networks, ports, threads);
+      runs.add(run);
+      log.info("Scalability: {} networks, {} ports, {} ms, peak heap {} MB, {} files, {} KB output",
+              run.networks, run.ports, run.nanos / 1000000, run.peakHeap >> 20, run.files, run.outputBytes >> 10);
+    }
+    report(new File(property("report", "target/scalability.csv")), runs);
+
+    List<String> failures = new ArrayList<>();
+    Run previous = null;
+    for (Run run : runs) {
+      double micros = run.nanos / 1000.0 / run.ports;
+      if (micros > microsPerPort) {
+        failures.add(String.format("%d networks took %.1f us per port, budget %.1f",
+                run.networks, micros, microsPerPort));
+      }
+
+      double kb = run.peakHeap / 1024.0 / run.ports;
+      if (kb > kbPerPort) {
+        failures.add(String.format("%d networks peaked at %.1f KB heap per port, budget %.1f",
+                run.networks, kb, kbPerPort));
+      }
+
+      if (previous != null) {
+        double exponent = Math.log((double) run.nanos / previous.nanos)
+                / Math.log((double) run.ports / previous.ports);
+        log.info("Scalability: time grows as ports^{} from {} to {} networks",
+                String.format("%.2f", exponent), previous.networks, run.networks);
+        if (exponent > maxExponent) {
+          failures.add(String.format("time grew as ports^%.2f from %d to %d networks, budget %.2f",
+                  exponent, previous.networks, run.networks, maxExponent));
+        }
+      }
+      previous = run;
+    }
+
+    assertTrue("Scalability regressions: " + failures, failures.isEmpty());
+  }
+
+  /**
+   * Generate the configuration of a synthetic federation into memory.
+   */
+  private static Run generate(int networks, int ports, int threads) throws IOException {
+    SyntheticFederation federation = SyntheticFederation.parse("networks=" + networks + ",ports=" + ports
+            + ",structure=scale-free,degree=2,seed=1");
+    long links = federation.getLinks().stream().mapToLong(List::size).sum();
+
+    MemorySink sink = new MemorySink();
+    ConfigWriter writer = ConfigWriter.builder()
+            .userId("sense")
+            .password("sense")
+            .schemaFile("src/main/resources/schema.sql")
+            .rmFile("src/main/resources/sense-rm.yaml")
+            .logFile("src/main/resources/logback.xml")
+            .peersFile("src/test/resources/peers.yaml")
+            .address("localhost")
+            .threads(threads)
+            .synthetic(federation)
+            .sink(sink)
+            .build();
+
+    System.gc();
+    List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .collect(Collectors.toList());
+    pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+    long start = System.nanoTime();
+    writer.write();
+
+    Run run = new Run();
+    run.nanos = System.nanoTime() - start;
+    run.networks = networks;
+    run.ports = (long) networks * ports + links;
+    // The sum of the peaks of each heap pool, an upper bound of the peak heap.
+    run.peakHeap = pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+    run.files = sink.getFiles().size();
+    run.outputBytes = sink.getFiles().values().stream().mapToLong(content -> content.length).sum();
+    return run;
+  }
+
+  private static void report(File file, List<Run> runs) throws IOException {
+    if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+
+    try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      writer.println("networks,ports,millis,peakHeapBytes,files,outputBytes");
+      for (Run run : runs) {
+        writer.printf("%d,%d,%d,%d,%d,%d%n", run.networks, run.ports, run.nanos / 1000000,
+                run.peakHeap, run.files, run.outputBytes);
+      }
+    }
+  }
+}
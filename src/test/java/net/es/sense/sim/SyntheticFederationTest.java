@@ -0,0 +1,101 @@
+package net.es.sense.sim;
+
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import net.es.nsi.common.constants.Nsi;
+import net.es.nsi.common.jaxb.nml.NmlPortGroupType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class SyntheticFederationTest {
+
+  private static Map<String, NmlPorts> topologies(DdsSnapshot snapshot) throws Exception {
+    Map<String, NmlPorts> result = new HashMap<>();
+    for (DdsDocument d : snapshot.getDocumentsByType(Nsi.NSI_DOC_TYPE_TOPOLOGY_V2)) {
+      byte[] gzip = Base64.getDecoder().decode(d.getContent());
+      NmlPorts ports = NmlPorts.read(new GZIPInputStream(new ByteArrayInputStream(gzip)));
+      result.put(ports.getId(), ports);
+    }
+    return result;
+  }
+
+  @Test
+  public void testParse() {
+    SyntheticFederation f = SyntheticFederation.parse("networks=50,vlans=100,200-300,structure=tree,seed=3");
+    assertEquals(50, f.getNetworks());
+    assertEquals("100,200-300", f.getVlans().toString());
+    assertEquals(SyntheticFederation.TREE, f.getStructure());
+    assertEquals(3, f.getSeed());
+    assertEquals(1000, SyntheticFederation.parse("1000").getNetworks());
+
+    for (String spec : new String[] { "networks=0", "structure=mesh", "ports=x", "colour=red" }) {
+      try {
+        SyntheticFederation.parse(spec);
+        throw new AssertionError("Expected failure for " + spec);
+      } catch (IllegalArgumentException ex) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testRing() throws Exception {
+    SyntheticFederation f = SyntheticFederation.parse("networks=5,ports=2");
+    DdsSnapshot snapshot = f.generate();
+    assertEquals(5, snapshot.getDocumentsByType(Nsi.NSI_DOC_TYPE_NSA_V1).size());
+
+    Map<String, NmlPorts> topologies = topologies(snapshot);
+    assertEquals(5, topologies.size());
+
+    // Every isAlias refers to a member of another topology that refers back.
+    Map<String, String> aliases = new HashMap<>();
+    Map<String, String> owners = new HashMap<>();
+    for (NmlPorts ports : topologies.values()) {
+      assertEquals(4, ports.getBidirectionalPorts().size());
+      for (List<String> members : ports.getBidirectionalPorts().values()) {
+        members.forEach(m -> owners.put(m, ports.getId()));
+      }
+      for (NmlPortGroupType pg : ports.getInboundPortGroups()) {
+        assertEquals("1779-1799", pg.getLabelGroup().get(0).getValue());
+        if (!pg.getRelation().isEmpty()) {
+          aliases.put(pg.getId(), pg.getRelation().get(0).getPortGroup().get(0).getId());
+        }
+      }
+    }
+
+    assertEquals(10, aliases.size());
+    aliases.forEach((in, out) -> {
+      assertNotNull(owners.get(out));
+      assertTrue(!owners.get(out).equals(owners.get(in)));
+      assertTrue(aliases.containsKey(out.replaceAll(":out$", ":in")));
+    });
+  }
+
+  @Test
+  public void testScaleFree() throws Exception {
+    SyntheticFederation f = SyntheticFederation.parse("networks=200,structure=scale-free,degree=2,seed=7");
+    List<List<Integer>> links = f.getLinks();
+    int total = links.stream().mapToInt(List::size).sum();
+    assertEquals(2 * (1 + 2 * 198), total);
+    assertEquals(links, f.getLinks());
+
+    // Preferential attachment produces hubs well above the mean degree.
+    int max = links.stream().mapToInt(List::size).max().getAsInt();
+    assertTrue(max > 10);
+
+    // Generation is reproducible.
+    DdsDocument a = f.generate().getDocument(f.getNsaId(42), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, f.getNetworkId(42));
+    DdsDocument b = f.generate().getDocument(f.getNsaId(42), Nsi.NSI_DOC_TYPE_TOPOLOGY_V2, f.getNetworkId(42));
+    assertEquals(a.getContent(), b.getContent());
+  }
+}
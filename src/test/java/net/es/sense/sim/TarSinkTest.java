@@ -0,0 +1,98 @@
+package net.es.sense.sim;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class TarSinkTest {
+  @Test
+  public void testArchive() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    TarSink sink = new TarSink(os);
+    sink.write("nsa0.conf", bytes("a"));
+    sink.write("nsa0/start.sh", bytes("#!/bin/sh\n"));
+    sink.commit();
+    assertEquals(Sets.newHashSet("nsa0.conf", "nsa0/start.sh"), sink.getChanged());
+
+    String name = "long/" + String.join("/", Collections.nCopies(30, "directory")) + "/peer.xml";
+    sink.write(name, bytes("b"));
+    sink.commit();
+    assertEquals(Sets.newHashSet(name), sink.getChanged());
+    sink.close();
+
+    Map<String, TarArchiveEntry> entries = new LinkedHashMap<>();
+    Map<String, byte[]> content = read(os.toByteArray(), entries);
+    assertEquals(3, content.size());
+    assertArrayEquals(bytes("a"), content.get("nsa0.conf"));
+    assertArrayEquals(bytes("#!/bin/sh\n"), content.get("nsa0/start.sh"));
+    assertArrayEquals(bytes("b"), content.get(name));
+    assertEquals(0644, entries.get("nsa0.conf").getMode() & 0777);
+    assertEquals(0755, entries.get("nsa0/start.sh").getMode() & 0777);
+  }
+
+  @Test
+  public void testStdout() throws Exception {
+    // A stand-in for standard output recording whether it was closed.
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    boolean[] closed = new boolean[1];
+    PrintStream stdout = new PrintStream(os) {
+      @Override
+      public void close() {
+        closed[0] = true;
+        super.close();
+      }
+    };
+
+    PrintStream original = System.out;
+    System.setOut(stdout);
+    try {
+      TarSink sink = TarSink.of(TarSink.STDOUT);
+      sink.write("nsa0.conf", bytes("a"));
+      sink.commit();
+      sink.close();
+    } finally {
+      System.setOut(original);
+    }
+
+    assertFalse(closed[0]);
+    assertFalse(stdout.checkError());
+    Map<String, byte[]> content = read(os.toByteArray(), new LinkedHashMap<>());
+    assertArrayEquals(bytes("a"), content.get("nsa0.conf"));
+  }
+
+  private static Map<String, byte[]> read(byte[] archive, Map<String, TarArchiveEntry> entries)
+          throws IOException {
+    Map<String, byte[]> content = new LinkedHashMap<>();
+    try (TarArchiveInputStream tar = new TarArchiveInputStream(
+            new GZIPInputStream(new ByteArrayInputStream(archive)))) {
+      TarArchiveEntry entry;
+      while ((entry = tar.getNextTarEntry()) != null) {
+        entries.put(entry.getName(), entry);
+        content.put(entry.getName(), ByteStreams.toByteArray(tar));
+      }
+    }
+    return content;
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,39 @@
+package net.es.sense.sim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class TemplateTest {
+  @Test
+  public void testRender() throws Exception {
+    Map<String, Object> values = new HashMap<>();
+    values.put("address", "localhost");
+    values.put("port", 801);
+
+    Template template = Template.compile("root: http://{{address}}:{{ port }}/ %d ${HOME}\n");
+    assertEquals("root: http://localhost:801/ %d ${HOME}\n", template.render(values));
+    assertEquals(template.render(values), template.render(values));
+  }
+
+  @Test
+  public void testPositional() throws Exception {
+    Map<String, Object> values = new HashMap<>();
+    values.put("address", "localhost");
+    values.put("port", 801);
+
+    Template template = Template.compile("root: http://%s:%d/ 100%%\n", Arrays.asList("address", "port"));
+    assertEquals("root: http://localhost:801/ 100%\n", template.render(values));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingValue() throws Exception {
+    Template.compile("{{missing}}").render(new HashMap<>());
+  }
+}
@@ -0,0 +1,40 @@
+package net.es.sense.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author hacksaw
+ */
+public class VlanSetTest {
+  @Test
+  public void testParse() throws Exception {
+    assertEquals("100", VlanSet.parse("100").toString());
+    assertEquals("1779-1799", VlanSet.parse("1779-1799").toString());
+    assertEquals("100-102,200-300", VlanSet.parse("200-300, 101-102,100").toString());
+    assertEquals("1-4095", VlanSet.parse("0-4096").toString());
+    assertEquals("", VlanSet.parse("").toString());
+    assertTrue(VlanSet.parse("5000").isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalid() throws Exception {
+    VlanSet.parse("100-abc");
+  }
+
+  @Test
+  public void testSetOperations() throws Exception {
+    VlanSet a = VlanSet.parse("1779-1799");
+    VlanSet b = VlanSet.parse("1790-1810");
+    assertEquals("1779-1810", a.union(b).toString());
+    assertEquals("1790-1799", a.intersection(b).toString());
+    assertTrue(a.intersects(b));
+    assertFalse(a.intersects(VlanSet.parse("100-200")));
+    assertEquals(VlanSet.ALL.size(), VlanSet.MAX);
+    assertSame(VlanSet.parse("1779-1799"), a);
+  }
+}